@@ -0,0 +1,28 @@
+package blue.lhf.vipu.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.*;
+
+/**
+ * Runs the benchmarks with the GC profiler enabled, so that allocation rates are reported next to timings,
+ * and writes the results to <code>results.json</code> unless another result file is given.
+ * Accepts the same arguments as the JMH command line, for example a regular expression of benchmarks to run.
+ * */
+public final class BenchmarkRunner {
+    private BenchmarkRunner() {
+
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final CommandLineOptions commandLine = new CommandLineOptions(args);
+        final ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine)
+            .addProfiler(GCProfiler.class);
+
+        if (!commandLine.getResult().hasValue()) options.result("results.json");
+        if (!commandLine.getResultFormat().hasValue()) options.resultFormat(ResultFormatType.JSON);
+
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,38 @@
+package blue.lhf.vipu.benchmarks;
+
+import java.io.IOException;
+import java.net.*;
+import java.nio.file.*;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Shared helpers for benchmark fixtures.
+ * */
+final class Benchmarks {
+    private Benchmarks() {
+
+    }
+
+    /**
+     * @return An empty class loader that does not delegate to the application class loader, so that classes
+     *         injected into it are distinct from the ones the benchmarks are compiled against.
+     * */
+    static URLClassLoader isolatedLoader() {
+        return new URLClassLoader(new URL[0], ClassLoader.getPlatformClassLoader());
+    }
+
+    /**
+     * Deletes a directory and everything in it.
+     * @param directory The directory to delete.
+     * @throws IOException If something could not be deleted.
+     * */
+    static void deleteRecursively(final Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) return;
+        try (final Stream<Path> paths = Files.walk(directory)) {
+            for (final Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
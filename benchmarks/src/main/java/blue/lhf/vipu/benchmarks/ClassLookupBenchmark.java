@@ -0,0 +1,62 @@
+package blue.lhf.vipu.benchmarks;
+
+import blue.lhf.vipu.black_magic.Surma;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.*;
+import java.nio.file.*;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures resource lookups in a class loader with many injected library JARs, with and without the
+ * {@link Surma#Surma(URLClassLoader, boolean) package index}.
+ * */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClassLookupBenchmark {
+    @Param({"false", "true"})
+    public boolean indexed;
+
+    @Param({"200"})
+    public int jars;
+
+    private Path directory;
+    private URLClassLoader loader;
+    private String last;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("vipu-lookup-bench");
+        loader = Benchmarks.isolatedLoader();
+        final Surma surma = new Surma(loader, indexed);
+        for (int i = 0; i < jars; ++i) {
+            final String className = "bench/lookup" + i + "/Library";
+            final Path jar = SyntheticJars.writeJar(directory.resolve("library" + i + ".jar"), Map.of(
+                className + ".class", SyntheticJars.classFile(className, "java/lang/Object")));
+            surma.injectJAR(jar.toUri().toURL());
+            last = className + ".class";
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        loader.close();
+        Benchmarks.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public URL findLast() {
+        return loader.findResource(last);
+    }
+
+    @Benchmark
+    public URL findMissing() {
+        return loader.findResource("bench/missing/Missing.class");
+    }
+}
@@ -0,0 +1,41 @@
+package blue.lhf.vipu.benchmarks;
+
+import blue.lhf.vipu.Functional;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Measures {@link Functional#map(java.util.stream.Stream, Functional.Throwing, java.util.function.BiConsumer)}
+ * over large streams, compared to a plain {@link java.util.stream.Stream#map(java.util.function.Function)}.
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FunctionalBenchmark {
+    @Param({"1000000"})
+    public int size;
+
+    @Param({"0", "100"})
+    public int failEvery;
+
+    @Benchmark
+    public long functionalMap() {
+        return Functional.map(IntStream.range(0, size).boxed(), this::check, (value, e) -> {})
+                         .mapToLong(Integer::longValue).sum();
+    }
+
+    @Benchmark
+    public long streamMap() {
+        return IntStream.range(0, size).boxed().map(value -> value + 1).mapToLong(Integer::longValue).sum();
+    }
+
+    private int check(final int value) throws Exception {
+        if (failEvery != 0 && value % failEvery == 0) throw new Exception("Failed on " + value);
+        return value + 1;
+    }
+}
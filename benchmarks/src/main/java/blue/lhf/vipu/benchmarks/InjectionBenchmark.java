@@ -0,0 +1,84 @@
+package blue.lhf.vipu.benchmarks;
+
+import blue.lhf.vipu.benchmarks.fixtures.*;
+import blue.lhf.vipu.black_magic.Surma;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Surma#injectSingle(Class)}, {@link Surma#injectPackage(Class)} and {@link Surma#loadInjected(Class)}.
+ * */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InjectionBenchmark {
+    @State(Scope.Benchmark)
+    public static class Injected {
+        private Surma surma;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            surma = new Surma(Benchmarks.isolatedLoader());
+            surma.injectSingle(Payload.class);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class PackageInjected {
+        private Surma surma;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            surma = new Surma(Benchmarks.isolatedLoader());
+            surma.injectPackage(Payload.class);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Fresh {
+        private Surma surma;
+
+        @Setup(Level.Invocation)
+        public void setUp() {
+            surma = new Surma(Benchmarks.isolatedLoader());
+        }
+    }
+
+    @Benchmark
+    public Class<?> injectSingleAlreadyInjected(final Injected state) throws Exception {
+        return state.surma.injectSingle(Payload.class);
+    }
+
+    @Benchmark
+    public Class<?> injectSingleDefine(final Fresh state) throws Exception {
+        return state.surma.injectSingle(Payload.class);
+    }
+
+    @Benchmark
+    public Map<String, Class<?>> injectPackageAlreadyInjected(final PackageInjected state) throws Exception {
+        return state.surma.injectPackage(Payload.class);
+    }
+
+    @Benchmark
+    public Map<String, Class<?>> injectPackageDefine(final Fresh state) throws Exception {
+        return state.surma.injectPackage(Payload.class);
+    }
+
+    @Benchmark
+    public Class<?> loadInjected(final Injected state) throws ClassNotFoundException {
+        return state.surma.loadInjected(Payload.class);
+    }
+
+    @Benchmark
+    public Class<?> loadInjectedMissing(final Injected state) {
+        try {
+            return state.surma.loadInjected(Callback.class);
+        } catch (ClassNotFoundException notInjected) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package blue.lhf.vipu.benchmarks;
+
+import blue.lhf.vipu.benchmarks.fixtures.*;
+import blue.lhf.vipu.black_magic.Surma;
+import blue.lhf.vipu.escaping.Services;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures calls through {@link Surma#reflectiveProxy(Class, Object)} to an object whose classes were injected
+ * into an isolated class loader, compared to a direct interface call and to a call on a service looked up from
+ * {@link Services}, whose implementation is returned as is.
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProxyBenchmark {
+    private Api direct;
+    private Api proxy;
+    private Callback callback;
+    private Payload payload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        final Surma surma = new Surma(Benchmarks.isolatedLoader());
+        surma.injectSingle(Callback.class);
+        surma.injectSingle(Payload.class);
+        surma.injectSingle(Api.class);
+        surma.injectSingle(ApiImpl.class);
+
+        direct = new ApiImpl();
+        proxy = surma.reflectiveProxy(Api.class, surma.loadInjected(ApiImpl.class).getConstructor().newInstance());
+        callback = () -> 42;
+        payload = new Payload(42);
+        Services.register(Api.class, direct);
+    }
+
+    @Benchmark
+    public int directPrimitive() {
+        return direct.add(1, 2);
+    }
+
+    @Benchmark
+    public int servicePrimitive() {
+        return Services.get(Api.class).add(1, 2);
+    }
+
+    @Benchmark
+    public int proxyPrimitive() {
+        return proxy.add(1, 2);
+    }
+
+    @Benchmark
+    public String proxySharedObject() {
+        return proxy.echo("vipu");
+    }
+
+    @Benchmark
+    public int proxyInterface() {
+        return proxy.call(callback);
+    }
+
+    @Benchmark
+    public int proxyObject() {
+        return proxy.weigh(payload);
+    }
+}
@@ -0,0 +1,95 @@
+package blue.lhf.vipu.benchmarks;
+
+import blue.lhf.vipu.black_magic.*;
+import blue.lhf.vipu.escaping.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Measures {@link InjectingLibraryLoader#injectDependencies(Class)} for a plugin whose libraries form a small
+ * transitive graph in a generated Maven repository, both with a full graph collection and through the lockfile.
+ * No network access is needed, since every artifact is already in the local repository.
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResolutionBenchmark {
+    private static final String REMOTE_ID = "central";
+
+    @Param({"10", "50"})
+    public int libraries;
+
+    private Path directory;
+    private Path locks;
+    private InjectingLibraryLoader loader;
+    private Class<?> plugin;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("vipu-resolution-benchmark");
+        final Path repository = directory.resolve("repository");
+        locks = directory.resolve("locks");
+
+        final String common = "bench.common:common:1.0";
+        SyntheticJars.installArtifact(repository, common, List.of(), Map.of("bench/common/Common.class",
+            SyntheticJars.classFile("bench/common/Common", "java/lang/Object")), REMOTE_ID);
+
+        final List<String> coordinates = new ArrayList<>();
+        for (int i = 0; i < libraries; ++i) {
+            final String library = "bench.lib" + i + ":lib" + i + ":1.0";
+            final String className = "bench/lib" + i + "/Library";
+            SyntheticJars.installArtifact(repository, library, List.of(common), Map.of(
+                className + ".class", SyntheticJars.classFile(className, "java/lang/Object")), REMOTE_ID);
+            coordinates.add(library);
+        }
+
+        final Surma surma = new Surma(Benchmarks.isolatedLoader());
+        surma.injectSingle(Name.class);
+        surma.injectSingle(Libraries.class);
+        surma.injectSingle(VipuPlugin.class);
+
+        final Path pluginJar = SyntheticJars.writeJar(directory.resolve("plugin.jar"), Map.of(
+            "bench/BenchPlugin.class", SyntheticJars.pluginClass("bench/BenchPlugin", "Bench", coordinates)));
+        surma.injectJAR(pluginJar.toUri().toURL());
+        plugin = Class.forName("bench.BenchPlugin", false, surma.getTarget());
+
+        final Logger logger = Logger.getAnonymousLogger();
+        logger.setLevel(java.util.logging.Level.OFF);
+        final ResolverSettings defaults = ResolverSettings.DEFAULTS;
+        loader = new InjectingLibraryLoader(surma, repository, locks, new ResolverSettings(defaults.repositories(),
+            defaults.mirrors(), defaults.downloadThreads(), defaults.connectTimeout(), defaults.requestTimeout(),
+            defaults.mediation(), Duration.ZERO, null), logger);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Benchmarks.deleteRecursively(directory);
+    }
+
+    @State(Scope.Thread)
+    public static class Unlocked {
+        @Setup(Level.Invocation)
+        public void deleteLocks(final ResolutionBenchmark benchmark) throws IOException {
+            Benchmarks.deleteRecursively(benchmark.locks);
+        }
+    }
+
+    @Benchmark
+    public void collectGraph(final Unlocked unlocked) throws Exception {
+        loader.injectDependencies(plugin);
+    }
+
+    @Benchmark
+    public void fromLockfile() throws Exception {
+        loader.injectDependencies(plugin);
+    }
+}
@@ -0,0 +1,69 @@
+package blue.lhf.vipu.benchmarks;
+
+import blue.lhf.vipu.escaping.VipuPlugin;
+import blue.lhf.vipu.scanning.*;
+import io.github.classgraph.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link PluginScanner} against the ClassGraph scan that Vipu used to find plugins with.
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScannerBenchmark {
+    @Param({"8"})
+    public int jars;
+
+    @Param({"1000", "5000"})
+    public int classesPerJar;
+
+    private Path directory;
+    private Set<URI> uris;
+    private PluginScanner scanner;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("vipu-scanner-benchmark");
+        uris = new HashSet<>();
+        for (int i = 0; i < jars; ++i) {
+            uris.add(SyntheticJars.pluginJar(directory, "jar" + i, classesPerJar, 2).toUri());
+        }
+
+        scanner = new PluginScanner(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        scanner.close();
+        Benchmarks.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public List<PluginDescriptor> pluginScanner() {
+        return scanner.scan(uris, (uri, e) -> {
+            throw new IllegalStateException("Failed to scan " + uri, e);
+        });
+    }
+
+    @Benchmark
+    public List<String> classGraph() {
+        final ClassGraph classGraph = new ClassGraph()
+            .enableAnnotationInfo()
+            .enableClassInfo()
+            .overrideClasspath(uris);
+
+        try (final ScanResult result = classGraph.scan()) {
+            return result.getClassesImplementing(VipuPlugin.class).getNames();
+        }
+    }
+}
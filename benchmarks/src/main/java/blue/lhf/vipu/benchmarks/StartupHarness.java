@@ -0,0 +1,405 @@
+package blue.lhf.vipu.benchmarks;
+
+import blue.lhf.vipu.*;
+import blue.lhf.vipu.black_magic.*;
+import blue.lhf.vipu.escaping.*;
+import blue.lhf.vipu.scanning.JarFingerprints;
+import blue.lhf.vipu.timings.*;
+import com.google.gson.*;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+
+import javax.management.*;
+import javax.management.openmbean.CompositeData;
+import java.io.*;
+import java.lang.management.*;
+import java.net.URLClassLoader;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Runs Vipu's whole startup pipeline against fleets of synthetic plugins of growing size, and reports how the wall
+ * time, the time of each phase, the peak heap and the allocated bytes scale with the number of plugins.
+ * <p>
+ *     Each plugin JAR contains one class implementing {@link VipuPlugin} and a number of filler classes. The plugin
+ *     class declares {@link Libraries} from a shared pool of synthetic libraries, which are served by a generated
+ *     <code>file://</code> repository, so they are resolved, downloaded into an empty local repository and locked
+ *     like real libraries, without network access. The plugins are injected into a standalone
+ *     {@link URLClassLoader} in place of the server class loader, bootstrapped, and initialised and released by the
+ *     same {@link PluginInitializer} as <code>Vipu</code>.
+ * </p>
+ * <p>
+ *     Every fleet size runs in a fresh JVM by default, so that a larger fleet does not profit from classes, compiled
+ *     code or heap left behind by a smaller one. The peak heap is the sum of the peaks of the heap memory pools, and
+ *     the allocated bytes are derived from the heap usage before and after every garbage collection, so both are
+ *     estimates. The results are printed as a table and written to <code>startup.json</code>.
+ * </p>
+ * <p>
+ *     Given the results of an earlier run as a baseline, the harness exits with status 1 if the wall time or the
+ *     allocated bytes of any fleet size grew by more than the tolerance, so that it can gate changes to startup.
+ * </p>
+ * */
+public final class StartupHarness {
+    private static final String USAGE = """
+        Usage: StartupHarness [options]
+          --sizes <n,...>          Fleet sizes to run (default 1,10,50,100,250,500)
+          --classes <n>            Classes per plugin JAR, including the plugin class (default 20)
+          --libraries <n>          Libraries per plugin (default 3)
+          --library-pool <n>       Distinct libraries shared by the fleet (default 100)
+          --indexed                Index the class path, like class-path.indexed in config.yml
+          --in-process             Run every size in this JVM instead of forking one per size
+          --output <file>          Where to write the results (default startup.json)
+          --baseline <file>        Results of an earlier run to gate against
+          --tolerance <fraction>   Allowed growth over the baseline (default 0.2)
+        """;
+
+    private static final String REMOTE_ID = "fleet";
+    private static final String COMMON_LIBRARY = "synthetic.common:common:1.0";
+
+    private StartupHarness() {
+
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        if (options.run() > 0) {
+            System.out.println(run(options, options.run()));
+            return;
+        }
+
+        final JsonArray runs = new JsonArray();
+        for (final int size : options.sizes()) {
+            final JsonObject result = options.fork() ? fork(args, size) : run(options, size);
+            runs.add(result);
+            System.out.printf("%5d plugins: %6d ms, peak heap %5d MiB, allocated %6d MiB%n", size,
+                result.get("wallTimeMillis").getAsLong(), result.get("peakHeapBytes").getAsLong() >> 20,
+                result.get("allocatedBytes").getAsLong() >> 20);
+        }
+
+        final JsonObject report = new JsonObject();
+        report.addProperty("classesPerJar", options.classes());
+        report.addProperty("librariesPerPlugin", options.libraries());
+        report.addProperty("libraryPool", options.libraryPool());
+        report.addProperty("indexed", options.indexed());
+        report.add("runs", runs);
+        Files.writeString(options.output(), new GsonBuilder().setPrettyPrinting().create().toJson(report));
+
+        if (options.baseline() != null && !withinBaseline(runs, options.baseline(), options.tolerance())) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs one fleet size in a new JVM with the same class path and the same options.
+     * @return The result the JVM printed.
+     * */
+    private static JsonObject fork(final String[] args, final int size) throws IOException, InterruptedException {
+        final List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.addAll(List.of("-cp", System.getProperty("java.class.path"), StartupHarness.class.getName()));
+        command.addAll(Arrays.asList(args));
+        command.addAll(List.of("--run", String.valueOf(size)));
+
+        final Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        String last = null;
+        try (final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), UTF_8))) {
+            for (String line; (line = reader.readLine()) != null; ) last = line;
+        }
+
+        final int status = process.waitFor();
+        if (status != 0 || last == null) {
+            throw new IOException("The run with " + size + " plugins exited with status " + status);
+        }
+
+        return JsonParser.parseString(last).getAsJsonObject();
+    }
+
+    /**
+     * Generates a fleet of the given size and starts it.
+     * @return The measurements of the startup.
+     * */
+    private static JsonObject run(final Options options, final int size) throws Exception {
+        final Path directory = Files.createTempDirectory("vipu-startup-harness");
+        try {
+            final Path remote = directory.resolve("remote");
+            final Path plugins = directory.resolve("plugins");
+            generateFleet(options, size, remote, plugins);
+
+            final Logger logger = Logger.getAnonymousLogger();
+            logger.setLevel(java.util.logging.Level.WARNING);
+            final ResolverSettings defaults = ResolverSettings.DEFAULTS;
+            final ResolverSettings settings = new ResolverSettings(
+                List.of(new ResolverSettings.Repository(REMOTE_ID, remote.toUri().toString(), null, null)),
+                List.of(), defaults.downloadThreads(), defaults.connectTimeout(), defaults.requestTimeout(),
+                defaults.mediation(), Duration.ZERO, null);
+
+            final StartupTimings timings = new StartupTimings();
+            final int initialised;
+            final long wallNanos;
+            final HeapMonitor heap = new HeapMonitor();
+            try (final URLClassLoader target = Benchmarks.isolatedLoader(); heap) {
+                final long start = System.nanoTime();
+                final Surma surma = new Surma(target, options.indexed(), null, logger);
+                final JarFingerprints fingerprints = new JarFingerprints(null);
+                final InjectingLibraryLoader libraryLoader = new InjectingLibraryLoader(surma,
+                    directory.resolve("repository"), directory.resolve("locks"), settings, fingerprints, logger);
+
+                final ScheduledExecutorService scheduler =
+                    Executors.newSingleThreadScheduledExecutor(Threads.daemonFactory("Vipu Profiler"));
+                try (final Bootstrap bootstrap = new Bootstrap(plugins, surma, libraryLoader, fingerprints, timings,
+                    logger);
+                     final PluginInitializer initializer = new PluginInitializer(directory, surma, libraryLoader,
+                         fingerprints, null, timings, scheduler, logger)) {
+                    final List<Bootstrap.Ready> ready = bootstrap.start().join();
+                    bootstrap.close();
+
+                    // Without a server, the triggers of on-demand plugins have nothing to register with.
+                    final PluginInitializer.Initialized initialized = initializer.initialize(bootstrap, ready,
+                        deferred -> { });
+                    if (initialized.warmStart() != null) initialized.warmStart().join();
+                    initializer.saveFingerprints();
+                    initializer.release();
+                    initialised = initialized.plugins().size();
+                } finally {
+                    scheduler.shutdownNow();
+                }
+
+                wallNanos = System.nanoTime() - start;
+            }
+
+            final JsonObject result = new JsonObject();
+            result.addProperty("plugins", size);
+            result.addProperty("initialised", initialised);
+            result.addProperty("wallTimeMillis", Duration.ofNanos(wallNanos).toMillis());
+            result.addProperty("peakHeapBytes", heap.peak());
+            result.addProperty("allocatedBytes", heap.allocated());
+            result.addProperty("collections", heap.collections());
+            result.add("phases", timings.toJson().get("phases"));
+            return result;
+        } finally {
+            Benchmarks.deleteRecursively(directory);
+        }
+    }
+
+    /**
+     * Writes the plugin JARs of a fleet and the repository serving their libraries. Every library depends on one
+     * common library, and the libraries of consecutive plugins overlap when the pool is smaller than the fleet needs.
+     * */
+    private static void generateFleet(final Options options, final int size, final Path remote, final Path plugins)
+        throws IOException {
+        SyntheticJars.installArtifact(remote, COMMON_LIBRARY, List.of(), Map.of("synthetic/common/Common.class",
+            SyntheticJars.classFile("synthetic/common/Common", "java/lang/Object")), REMOTE_ID);
+
+        final List<String> pool = new ArrayList<>();
+        for (int i = 0; i < options.libraryPool(); ++i) {
+            final String library = "synthetic.lib" + i + ":lib" + i + ":1.0";
+            final String className = "synthetic/lib" + i + "/Library";
+            SyntheticJars.installArtifact(remote, library, List.of(COMMON_LIBRARY), Map.of(
+                className + ".class", SyntheticJars.classFile(className, "java/lang/Object")), REMOTE_ID);
+            pool.add(library);
+        }
+
+        SyntheticJars.writeChecksums(remote);
+
+        for (int i = 0; i < size; ++i) {
+            final String pkg = "synthetic/plugin" + i + "/";
+            final List<String> libraries = new ArrayList<>();
+            for (int j = 0; j < Math.min(options.libraries(), pool.size()); ++j) {
+                libraries.add(pool.get((i * options.libraries() + j) % pool.size()));
+            }
+
+            final Map<String, byte[]> entries = new LinkedHashMap<>();
+            entries.put(pkg + "Plugin.class", SyntheticJars.pluginClass(pkg + "Plugin", "Plugin" + i, libraries));
+            for (int j = 1; j < options.classes(); ++j) {
+                entries.put(pkg + "Filler" + j + ".class",
+                    SyntheticJars.classFile(pkg + "Filler" + j, "java/lang/Object"));
+            }
+
+            SyntheticJars.writeJar(plugins.resolve("plugin" + i + ".jar"), entries);
+        }
+    }
+
+    /**
+     * @return Whether every fleet size in the baseline that was run again stayed within the tolerance.
+     *         Regressions are printed to standard error.
+     * */
+    private static boolean withinBaseline(final JsonArray runs, final Path baseline, final double tolerance)
+        throws IOException {
+        final Map<Integer, JsonObject> previous = new HashMap<>();
+        for (final JsonElement run : JsonParser.parseString(Files.readString(baseline))
+                                               .getAsJsonObject().getAsJsonArray("runs")) {
+            previous.put(run.getAsJsonObject().get("plugins").getAsInt(), run.getAsJsonObject());
+        }
+
+        boolean within = true;
+        for (final JsonElement element : runs) {
+            final JsonObject run = element.getAsJsonObject();
+            final JsonObject before = previous.get(run.get("plugins").getAsInt());
+            if (before == null) continue;
+
+            for (final String metric : List.of("wallTimeMillis", "allocatedBytes")) {
+                final long was = before.get(metric).getAsLong();
+                final long is = run.get(metric).getAsLong();
+                if (is > was * (1 + tolerance)) {
+                    within = false;
+                    System.err.printf("Regression with %d plugins: %s grew from %d to %d%n",
+                        run.get("plugins").getAsInt(), metric, was, is);
+                }
+            }
+        }
+
+        return within;
+    }
+
+    /**
+     * Measures the peak heap and the allocated bytes between its construction and its closing. Allocations are
+     * counted as the growth of the heap between garbage collections, from the usage each collection reports.
+     * */
+    private static final class HeapMonitor implements NotificationListener, AutoCloseable {
+        private final List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans().stream()
+            .filter(pool -> pool.getType() == MemoryType.HEAP).toList();
+        private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+        private final long initialCollections;
+
+        private long lastUsed;
+        private long allocated;
+        private long notified;
+        private long peak;
+        private long collections;
+
+        private HeapMonitor() {
+            System.gc();
+            initialCollections = collectionCount();
+            for (final MemoryPoolMXBean pool : pools) pool.resetPeakUsage();
+            lastUsed = used();
+            for (final GarbageCollectorMXBean collector : collectors) {
+                ((NotificationEmitter) collector).addNotificationListener(this, null, null);
+            }
+        }
+
+        @Override
+        public synchronized void handleNotification(final Notification notification, final Object handback) {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                return;
+            }
+
+            final GcInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData())
+                                                                 .getGcInfo();
+            final long before = heapUsed(info.getMemoryUsageBeforeGc());
+            allocated += Math.max(0, before - lastUsed);
+            lastUsed = heapUsed(info.getMemoryUsageAfterGc());
+            ++notified;
+            notifyAll();
+        }
+
+        /**
+         * Stops measuring, after waiting briefly for the notifications of the collections that already happened.
+         * */
+        @Override
+        public synchronized void close() throws InterruptedException, ListenerNotFoundException {
+            final long used = used();
+            peak = pools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+            collections = collectionCount() - initialCollections;
+
+            final long deadline = System.nanoTime() + Duration.ofSeconds(1).toNanos();
+            while (notified < collections && System.nanoTime() < deadline) wait(100);
+            for (final GarbageCollectorMXBean collector : collectors) {
+                ((NotificationEmitter) collector).removeNotificationListener(this);
+            }
+
+            allocated += Math.max(0, used - lastUsed);
+        }
+
+        private long heapUsed(final Map<String, MemoryUsage> usage) {
+            return pools.stream().map(pool -> usage.get(pool.getName())).filter(Objects::nonNull)
+                        .mapToLong(MemoryUsage::getUsed).sum();
+        }
+
+        private long used() {
+            return pools.stream().mapToLong(pool -> pool.getUsage().getUsed()).sum();
+        }
+
+        private long collectionCount() {
+            return collectors.stream().mapToLong(collector -> Math.max(0, collector.getCollectionCount())).sum();
+        }
+
+        synchronized long peak() {
+            return peak;
+        }
+
+        synchronized long allocated() {
+            return allocated;
+        }
+
+        synchronized long collections() {
+            return collections;
+        }
+    }
+
+    /**
+     * The options of the harness.
+     * @param run The single fleet size to run and print the result of, or <code>0</code> to run all sizes.
+     * */
+    private record Options(List<Integer> sizes, int classes, int libraries, int libraryPool, boolean indexed,
+                           boolean fork, Path output, Path baseline, double tolerance, int run) {
+        static Options parse(final String[] args) {
+            List<Integer> sizes = List.of(1, 10, 50, 100, 250, 500);
+            int classes = 20;
+            int libraries = 3;
+            int libraryPool = 100;
+            boolean indexed = false;
+            boolean fork = true;
+            Path output = Path.of("startup.json");
+            Path baseline = null;
+            double tolerance = 0.2;
+            int run = 0;
+
+            try {
+                for (int i = 0; i < args.length; ++i) {
+                    switch (args[i]) {
+                        case "--sizes" -> sizes = Arrays.stream(value(args, ++i).split(","))
+                                                        .map(String::trim).map(Integer::parseInt).toList();
+                        case "--classes" -> classes = Integer.parseInt(value(args, ++i));
+                        case "--libraries" -> libraries = Integer.parseInt(value(args, ++i));
+                        case "--library-pool" -> libraryPool = Integer.parseInt(value(args, ++i));
+                        case "--indexed" -> indexed = true;
+                        case "--in-process" -> fork = false;
+                        case "--output" -> output = Path.of(value(args, ++i));
+                        case "--baseline" -> baseline = Path.of(value(args, ++i));
+                        case "--tolerance" -> tolerance = Double.parseDouble(value(args, ++i));
+                        case "--run" -> run = Integer.parseInt(value(args, ++i));
+                        default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+                    }
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid number: " + e.getMessage(), e);
+            }
+
+            if (classes < 1 || libraries < 0 || libraryPool < 1 || sizes.stream().anyMatch(size -> size < 1)) {
+                throw new IllegalArgumentException("Sizes, classes and the library pool must be positive");
+            }
+
+            return new Options(sizes, classes, libraries, libraryPool, indexed, fork, output, baseline, tolerance, run);
+        }
+
+        private static String value(final String[] args, final int index) {
+            if (index >= args.length) throw new IllegalArgumentException("Missing value for " + args[index - 1]);
+            return args[index];
+        }
+    }
+}
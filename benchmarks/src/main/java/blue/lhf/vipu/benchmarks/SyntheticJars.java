@@ -0,0 +1,279 @@
+package blue.lhf.vipu.benchmarks;
+
+import blue.lhf.vipu.escaping.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.jar.*;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Generates JAR files full of minimal class files, so that benchmarks do not depend on real plugins.
+ * */
+public final class SyntheticJars {
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_SUPER = 0x0020;
+    private static final int ACC_INTERFACE = 0x0200;
+    private static final int ACC_ABSTRACT = 0x0400;
+
+    private static final String PLUGIN_INTERFACE = VipuPlugin.class.getName().replace('.', '/');
+
+    private SyntheticJars() {
+
+    }
+
+    /**
+     * Writes a plugin-like JAR with the given number of classes. One interface in the JAR extends
+     * {@link VipuPlugin}, and <code>plugins</code> of the classes implement it, so finding them requires a
+     * transitive interface check. The remaining classes implement an unrelated interface.
+     * @param directory The directory to write the JAR into.
+     * @param id The identifier of the JAR, used for its file name and package.
+     * @param classes The total number of classes in the JAR.
+     * @param plugins The number of classes that implement {@link VipuPlugin}.
+     * @return The path of the written JAR.
+     * @throws IOException If the JAR could not be written.
+     * */
+    public static Path pluginJar(final Path directory, final String id, final int classes, final int plugins)
+        throws IOException {
+        final String pkg = "synthetic/" + id + "/";
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put(pkg + "Api.class", interfaceFile(pkg + "Api", PLUGIN_INTERFACE));
+        for (int i = 0; i < classes; ++i) {
+            final String name = pkg + (i < plugins ? "Plugin" : "Filler") + i;
+            entries.put(name + ".class", classFile(name, "java/lang/Object",
+                i < plugins ? pkg + "Api" : "java/io/Serializable"));
+        }
+
+        return writeJar(directory.resolve(id + ".jar"), entries);
+    }
+
+    /**
+     * @return A plugin class file implementing {@link VipuPlugin}, annotated with {@link Name} and {@link Libraries}.
+     * @param name The internal name of the class.
+     * @param pluginName The value of the {@link Name} annotation.
+     * @param libraries The value of the {@link Libraries} annotation, or an empty list to leave it out.
+     * */
+    public static byte[] pluginClass(final String name, final String pluginName, final List<String> libraries) {
+        final Map<String, Object> annotations = new LinkedHashMap<>();
+        annotations.put(descriptor(Name.class), pluginName);
+        if (!libraries.isEmpty()) annotations.put(descriptor(Libraries.class), libraries.toArray(String[]::new));
+        return write(ACC_PUBLIC | ACC_SUPER, name, "java/lang/Object", new String[] {PLUGIN_INTERFACE}, annotations);
+    }
+
+    /**
+     * Installs an artifact into a Maven repository directory, with a POM declaring the given dependencies.
+     * The artifact is marked as downloaded from the repository with the given ID, so that a resolver using
+     * the directory as its local repository does not try to download it again.
+     * @param repository The root of the repository.
+     * @param coordinates The coordinates of the artifact, as <code>group:artifact:version</code>.
+     * @param dependencies The coordinates of the dependencies of the artifact.
+     * @param entries The entries of the artifact JAR.
+     * @param remoteId The ID of the remote repository to mark the artifact as downloaded from.
+     * @return The path of the artifact JAR.
+     * @throws IOException If the artifact could not be written.
+     * */
+    public static Path installArtifact(final Path repository, final String coordinates, final List<String> dependencies,
+                                       final Map<String, byte[]> entries, final String remoteId) throws IOException {
+        final String[] parts = coordinates.split(":");
+        final String base = parts[1] + "-" + parts[2];
+        final Path directory = repository.resolve(parts[0].replace('.', '/')).resolve(parts[1]).resolve(parts[2]);
+        Files.createDirectories(directory);
+
+        final StringBuilder pom = new StringBuilder()
+            .append("<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n")
+            .append("  <modelVersion>4.0.0</modelVersion>\n")
+            .append("  <groupId>").append(parts[0]).append("</groupId>\n")
+            .append("  <artifactId>").append(parts[1]).append("</artifactId>\n")
+            .append("  <version>").append(parts[2]).append("</version>\n")
+            .append("  <dependencies>\n");
+        for (final String dependency : dependencies) {
+            final String[] dependencyParts = dependency.split(":");
+            pom.append("    <dependency><groupId>").append(dependencyParts[0])
+               .append("</groupId><artifactId>").append(dependencyParts[1])
+               .append("</artifactId><version>").append(dependencyParts[2])
+               .append("</version></dependency>\n");
+        }
+
+        pom.append("  </dependencies>\n</project>\n");
+        Files.writeString(directory.resolve(base + ".pom"), pom);
+        Files.writeString(directory.resolve("_remote.repositories"),
+            base + ".jar>" + remoteId + "=\n" + base + ".pom>" + remoteId + "=\n");
+        return writeJar(directory.resolve(base + ".jar"), entries);
+    }
+
+    /**
+     * Writes a <code>.sha1</code> checksum next to every JAR and POM in a repository directory, so that the
+     * directory can be used as a remote <code>file://</code> repository under a failing checksum policy.
+     * @param repository The root of the repository.
+     * @throws IOException If a file could not be read or a checksum could not be written.
+     * */
+    public static void writeChecksums(final Path repository) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("SHA-1 is not available?", e);
+        }
+
+        try (final Stream<Path> files = Files.walk(repository)) {
+            for (final Path file : files.filter(Files::isRegularFile).toList()) {
+                final String name = file.getFileName().toString();
+                if (!name.endsWith(".jar") && !name.endsWith(".pom")) continue;
+                final String checksum = HexFormat.of().formatHex(digest.digest(Files.readAllBytes(file)));
+                Files.writeString(file.resolveSibling(name + ".sha1"), checksum);
+            }
+        }
+    }
+
+    /**
+     * Writes a JAR file with the given entries.
+     * @param file The path of the JAR file.
+     * @param entries The entries of the JAR, by name.
+     * @return The path of the JAR file.
+     * @throws IOException If the JAR could not be written.
+     * */
+    public static Path writeJar(final Path file, final Map<String, byte[]> entries) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (final JarOutputStream jar = new JarOutputStream(Files.newOutputStream(file))) {
+            for (final Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                jar.putNextEntry(new JarEntry(entry.getKey()));
+                jar.write(entry.getValue());
+                jar.closeEntry();
+            }
+        }
+
+        return file;
+    }
+
+    /**
+     * @return A public class file with no members.
+     * @param name The internal name of the class.
+     * @param superName The internal name of the superclass.
+     * @param interfaces The internal names of the implemented interfaces.
+     * */
+    public static byte[] classFile(final String name, final String superName, final String... interfaces) {
+        return write(ACC_PUBLIC | ACC_SUPER, name, superName, interfaces, Map.of());
+    }
+
+    /**
+     * @return A public interface class file with no members.
+     * @param name The internal name of the interface.
+     * @param interfaces The internal names of the extended interfaces.
+     * */
+    public static byte[] interfaceFile(final String name, final String... interfaces) {
+        return write(ACC_PUBLIC | ACC_INTERFACE | ACC_ABSTRACT, name, "java/lang/Object", interfaces, Map.of());
+    }
+
+    private static String descriptor(final Class<?> type) {
+        return "L" + type.getName().replace('.', '/') + ";";
+    }
+
+    /**
+     * @param annotations The runtime-visible annotations of the class by descriptor, each with a <code>value</code>
+     *                    element that is either a {@link String} or a {@link String} array.
+     * */
+    private static byte[] write(final int access, final String name, final String superName, final String[] interfaces,
+                                final Map<String, Object> annotations) {
+        final ConstantPool pool = new ConstantPool();
+        final int thisIndex = pool.classRef(name);
+        final int superIndex = pool.classRef(superName);
+        final int[] interfaceIndices = Arrays.stream(interfaces).mapToInt(pool::classRef).toArray();
+        final byte[] annotationAttribute = annotations.isEmpty() ? null : annotationAttribute(pool, annotations);
+        final int annotationAttributeName = annotations.isEmpty() ? 0 : pool.utf8("RuntimeVisibleAnnotations");
+
+        try (final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+             final DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(52);
+            pool.write(out);
+            out.writeShort(access);
+            out.writeShort(thisIndex);
+            out.writeShort(superIndex);
+            out.writeShort(interfaceIndices.length);
+            for (final int index : interfaceIndices) out.writeShort(index);
+            out.writeShort(0); // fields
+            out.writeShort(0); // methods
+            if (annotationAttribute == null) {
+                out.writeShort(0);
+            } else {
+                out.writeShort(1);
+                out.writeShort(annotationAttributeName);
+                out.writeInt(annotationAttribute.length);
+                out.write(annotationAttribute);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] annotationAttribute(final ConstantPool pool, final Map<String, Object> annotations) {
+        try (final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+             final DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeShort(annotations.size());
+            for (final Map.Entry<String, Object> annotation : annotations.entrySet()) {
+                out.writeShort(pool.utf8(annotation.getKey()));
+                out.writeShort(1);
+                out.writeShort(pool.utf8("value"));
+                if (annotation.getValue() instanceof String[] values) {
+                    out.writeByte('[');
+                    out.writeShort(values.length);
+                    for (final String value : values) {
+                        out.writeByte('s');
+                        out.writeShort(pool.utf8(value));
+                    }
+                } else {
+                    out.writeByte('s');
+                    out.writeShort(pool.utf8((String) annotation.getValue()));
+                }
+            }
+
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static final class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> indices = new HashMap<>();
+        private int count = 1;
+
+        int utf8(final String value) {
+            return indices.computeIfAbsent("U" + value, key -> add(1, value.getBytes(UTF_8)));
+        }
+
+        int classRef(final String name) {
+            final int nameIndex = utf8(name);
+            return indices.computeIfAbsent("C" + name, key -> add(7, new byte[] {
+                (byte) (nameIndex >> 8), (byte) nameIndex
+            }));
+        }
+
+        private int add(final int tag, final byte[] payload) {
+            try {
+                out.writeByte(tag);
+                if (tag == 1) out.writeShort(payload.length);
+                out.write(payload);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            return count++;
+        }
+
+        void write(final DataOutputStream target) throws IOException {
+            target.writeShort(count);
+            out.flush();
+            bytes.writeTo(target);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package blue.lhf.vipu.benchmarks.fixtures;
+
+/**
+ * An interface that benchmarks call through {@link blue.lhf.vipu.black_magic.Surma#reflectiveProxy(Class, Object)}.
+ * */
+public interface Api {
+    /**
+     * @return The sum of the arguments.
+     * @param a The first summand.
+     * @param b The second summand.
+     * */
+    int add(int a, int b);
+
+    /**
+     * @return The value of the callback.
+     * @param callback The callback to call.
+     * */
+    int call(Callback callback);
+
+    /**
+     * @return The weight of the payload.
+     * @param payload The payload to weigh.
+     * */
+    int weigh(Payload payload);
+
+    /**
+     * @return The argument.
+     * @param value The value to return.
+     * */
+    String echo(String value);
+}
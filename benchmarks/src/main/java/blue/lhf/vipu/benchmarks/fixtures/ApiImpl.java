@@ -0,0 +1,26 @@
+package blue.lhf.vipu.benchmarks.fixtures;
+
+/**
+ * The implementation of {@link Api} that is injected into an isolated class loader.
+ * */
+public class ApiImpl implements Api {
+    @Override
+    public int add(final int a, final int b) {
+        return a + b;
+    }
+
+    @Override
+    public int call(final Callback callback) {
+        return callback.value();
+    }
+
+    @Override
+    public int weigh(final Payload payload) {
+        return payload.weight;
+    }
+
+    @Override
+    public String echo(final String value) {
+        return value;
+    }
+}
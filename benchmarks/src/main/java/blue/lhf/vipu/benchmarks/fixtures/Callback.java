@@ -0,0 +1,11 @@
+package blue.lhf.vipu.benchmarks.fixtures;
+
+/**
+ * An interface passed as an argument across the class loader boundary.
+ * */
+public interface Callback {
+    /**
+     * @return A value.
+     * */
+    int value();
+}
@@ -0,0 +1,16 @@
+package blue.lhf.vipu.benchmarks.fixtures;
+
+/**
+ * A class passed as an argument across the class loader boundary.
+ * */
+public class Payload {
+    /** The weight of the payload. */
+    public int weight;
+
+    /**
+     * @param weight The weight of the payload.
+     * */
+    public Payload(final int weight) {
+        this.weight = weight;
+    }
+}
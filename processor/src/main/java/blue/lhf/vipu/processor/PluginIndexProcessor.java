@@ -0,0 +1,195 @@
+package blue.lhf.vipu.processor;
+
+import javax.annotation.processing.*;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.*;
+import javax.tools.*;
+import java.io.*;
+import java.util.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writes the index of the Vipu plugins in a JAR to <code>META-INF/vipu/plugins</code> at compile time, so that
+ * Vipu can read the plugins and their libraries from it instead of scanning every class file in the JAR.
+ * <p>
+ *     Every class that implements <code>blue.lhf.vipu.escaping.VipuPlugin</code>, directly or not, is indexed
+ *     with the values of its <code>Name</code> and <code>Libraries</code> annotations. Interfaces are not indexed.
+ *     In an incremental build, the entries of the previous index whose classes still exist are kept.
+ * </p>
+ * <p>
+ *     The index is a UTF-8 text file with the header <code># Vipu plugin index v1</code>, followed by one line per
+ *     plugin with three fields separated by tabs: the binary name of the class, the name of the plugin, and its
+ *     library coordinates separated by commas. Plugins annotated with <code>ActivateOn</code> have a fourth field
+ *     with their triggers separated by commas, each written as <code>command:</code>, <code>event:</code> or
+ *     <code>service:</code> followed by the command name or the binary class name. Names, coordinates and
+ *     commands that cannot be written in this format are reported as errors.
+ * </p>
+ * */
+@SupportedAnnotationTypes("*")
+public class PluginIndexProcessor extends AbstractProcessor {
+    static final String INDEX = "META-INF/vipu/plugins";
+    static final String HEADER = "# Vipu plugin index v1";
+
+    private static final String PLUGIN_INTERFACE = "blue.lhf.vipu.escaping.VipuPlugin";
+    private static final String NAME_ANNOTATION = "blue.lhf.vipu.escaping.Name";
+    private static final String LIBRARIES_ANNOTATION = "blue.lhf.vipu.escaping.Libraries";
+    private static final String ACTIVATE_ON_ANNOTATION = "blue.lhf.vipu.escaping.ActivateOn";
+
+    /** The index lines of the plugins found so far, by binary class name. */
+    private final Map<String, String> plugins = new TreeMap<>();
+
+    /** The binary names of all classes compiled so far, plugins or not. */
+    private final Set<String> compiled = new HashSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment round) {
+        final TypeElement pluginInterface = processingEnv.getElementUtils().getTypeElement(PLUGIN_INTERFACE);
+        if (pluginInterface == null) return false;
+
+        final TypeMirror pluginType = processingEnv.getTypeUtils().erasure(pluginInterface.asType());
+        for (final Element element : round.getRootElements()) visit(element, pluginType);
+
+        if (round.processingOver()) write();
+        return false;
+    }
+
+    private void visit(final Element element, final TypeMirror pluginType) {
+        if (!(element instanceof TypeElement type)) return;
+        for (final Element enclosed : type.getEnclosedElements()) visit(enclosed, pluginType);
+
+        final String className = processingEnv.getElementUtils().getBinaryName(type).toString();
+        compiled.add(className);
+        if (type.getKind().isInterface()) return;
+        final TypeMirror erasure = processingEnv.getTypeUtils().erasure(type.asType());
+        if (!processingEnv.getTypeUtils().isAssignable(erasure, pluginType)) return;
+
+        String name = type.getSimpleName().toString();
+        final List<String> libraries = new ArrayList<>();
+        final List<String> triggers = new ArrayList<>();
+        for (final AnnotationMirror annotation : type.getAnnotationMirrors()) {
+            final String annotationName = ((TypeElement) annotation.getAnnotationType().asElement())
+                .getQualifiedName().toString();
+            final Object value = value(annotation, "value");
+            if (NAME_ANNOTATION.equals(annotationName) && value instanceof String string) {
+                name = string;
+            } else if (LIBRARIES_ANNOTATION.equals(annotationName)) {
+                libraries.addAll(strings(value));
+            } else if (ACTIVATE_ON_ANNOTATION.equals(annotationName)) {
+                for (final String command : strings(value(annotation, "commands"))) triggers.add("command:" + command);
+                for (final String event : strings(value(annotation, "events"))) triggers.add("event:" + event);
+                for (final String service : strings(value(annotation, "services"))) triggers.add("service:" + service);
+            }
+        }
+
+        if (!isField(name)) {
+            error(type, "The name of a Vipu plugin may not contain tabs or line breaks: " + name);
+            return;
+        }
+
+        for (final String library : libraries) {
+            if (!isField(library) || library.contains(",") || library.isBlank()) {
+                error(type, "Invalid library coordinates: " + library);
+                return;
+            }
+        }
+
+        for (final String trigger : triggers) {
+            if (!isField(trigger) || trigger.contains(",") || trigger.endsWith(":")) {
+                error(type, "Invalid activation trigger: " + trigger);
+                return;
+            }
+        }
+
+        plugins.put(className, className + "\t" + name + "\t" + String.join(",", libraries)
+            + (triggers.isEmpty() ? "" : "\t" + String.join(",", triggers)));
+    }
+
+    private static Object value(final AnnotationMirror annotation, final String element) {
+        for (final Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+            : annotation.getElementValues().entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(element)) return entry.getValue().getValue();
+        }
+
+        return null;
+    }
+
+    /**
+     * @return The strings in an array element value, with classes given by their binary names.
+     * */
+    private List<String> strings(final Object value) {
+        if (!(value instanceof List<?> list)) return List.of();
+        final List<String> strings = new ArrayList<>();
+        for (final Object element : list) {
+            if (!(element instanceof AnnotationValue annotationValue)) continue;
+            final Object item = annotationValue.getValue();
+            if (item instanceof DeclaredType declared && declared.asElement() instanceof TypeElement typeElement) {
+                strings.add(processingEnv.getElementUtils().getBinaryName(typeElement).toString());
+            } else {
+                strings.add(String.valueOf(item));
+            }
+        }
+
+        return strings;
+    }
+
+    private static boolean isField(final String value) {
+        return value.indexOf('\t') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0;
+    }
+
+    private void error(final Element element, final String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private void write() {
+        final Filer filer = processingEnv.getFiler();
+        if (!readPrevious(filer) && plugins.isEmpty()) return;
+
+        try {
+            final FileObject index = filer.createResource(StandardLocation.CLASS_OUTPUT, "", INDEX);
+            try (final Writer writer = new OutputStreamWriter(index.openOutputStream(), UTF_8)) {
+                writer.write(HEADER + "\n");
+                for (final String line : plugins.values()) writer.write(line + "\n");
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Failed to write " + INDEX + ": " + e);
+        }
+    }
+
+    /**
+     * Keeps the entries of the index written by a previous build whose classes were not compiled this time,
+     * as long as they still exist.
+     * @return Whether there was a previous index, which then needs to be overwritten even if it becomes empty.
+     * */
+    private boolean readPrevious(final Filer filer) {
+        final List<String> lines = new ArrayList<>();
+        try {
+            final FileObject previous = filer.getResource(StandardLocation.CLASS_OUTPUT, "", INDEX);
+            try (final BufferedReader reader = new BufferedReader(
+                new InputStreamReader(previous.openInputStream(), UTF_8))) {
+                if (!HEADER.equals(reader.readLine())) return true;
+                for (String line; (line = reader.readLine()) != null; ) lines.add(line);
+            }
+        } catch (IOException | IllegalArgumentException noPreviousIndex) {
+            return false;
+        }
+
+        for (final String line : lines) {
+            final int tab = line.indexOf('\t');
+            if (tab < 0) continue;
+            final String className = line.substring(0, tab);
+            if (!compiled.contains(className)
+                && processingEnv.getElementUtils().getTypeElement(className.replace('$', '.')) != null) {
+                plugins.put(className, line);
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,331 @@
+package blue.lhf.vipu;
+
+import blue.lhf.vipu.black_magic.*;
+import blue.lhf.vipu.escaping.*;
+import blue.lhf.vipu.scanning.*;
+import blue.lhf.vipu.timings.*;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiFunction;
+import java.util.logging.*;
+import java.util.stream.Stream;
+
+import static blue.lhf.vipu.Threads.daemonFactory;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.*;
+
+/**
+ * Prepares Vipu plugins for initialisation in the background: fingerprints and injects their JARs, scans them for
+ * plugin classes, loads those classes and resolves and injects their libraries. Does not depend on Bukkit, so that
+ * it can start as soon as Vipu is loaded and overlap with the rest of server startup. The libraries are taken from
+ * the scan, so they are resolved and downloaded while the plugin classes are being loaded.
+ * <p>
+ *     While libraries are being resolved, the number of artifacts and bytes left is logged periodically,
+ *     and once they are resolved, the download rate of each repository is logged.
+ * </p>
+ * <p>
+ *     JARs that are truncated or cannot be read are reported when they are {@link JarFingerprints fingerprinted},
+ *     and are not injected. The plugins of a JAR are only scanned again when its content changed.
+ * </p>
+ * <p>
+ *     Plugins that are {@link ActivateOn activated} on demand are loaded like the others, and their libraries are
+ *     resolved separately but not injected. They are listed by {@link #deferred()} instead of being returned as
+ *     ready, so that activating one only has to inject its libraries. Plugins whose libraries cannot be resolved
+ *     are not deferred.
+ * </p>
+ * */
+public final class Bootstrap implements AutoCloseable {
+    private static final int RESOLVER_THREADS = 8;
+    private static final int SCANNER_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final Duration PROGRESS_INTERVAL = Duration.ofSeconds(5);
+    private static final Path SCAN_CACHE = Path.of("cache", "scans");
+
+    private final Path pluginDirectory;
+    private final Surma surma;
+    private final InjectingLibraryLoader libraryLoader;
+    private final JarFingerprints fingerprints;
+    private final StartupTimings timings;
+    private final Logger logger;
+    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(2,
+        daemonFactory("Vipu Bootstrap"));
+    private volatile List<PluginDescriptor> plugins = List.of();
+    private volatile List<Deferred> deferred = List.of();
+
+    /**
+     * @param pluginDirectory The directory to load plugin JARs from.
+     * @param surma The {@link Surma} instance to inject with.
+     * @param libraryLoader The library loader to resolve plugin libraries with.
+     * @param fingerprints The fingerprints to verify plugin JARs with before they are injected.
+     * @param timings The timings to record the phases of the bootstrap in.
+     * @param logger The logger to use.
+     * */
+    public Bootstrap(final Path pluginDirectory, final Surma surma, final InjectingLibraryLoader libraryLoader,
+                     final JarFingerprints fingerprints, final StartupTimings timings, final Logger logger) {
+        this.pluginDirectory = pluginDirectory;
+        this.surma = surma;
+        this.libraryLoader = libraryLoader;
+        this.fingerprints = fingerprints;
+        this.timings = timings;
+        this.logger = logger;
+    }
+
+    /**
+     * Injects the classes that should escape the plugin class loader, then starts preparing plugins in the background.
+     * @return A future of the plugins whose libraries were successfully injected, ready to be initialised,
+     *         in injection order.
+     * @throws Exception If the escaping classes could not be injected.
+     * */
+    public CompletableFuture<List<Ready>> start() throws Exception {
+        injectEscapingClasses();
+        return CompletableFuture.supplyAsync(this::run, executor);
+    }
+
+    private List<Ready> run() {
+        final Set<URI> pluginJars;
+        try {
+            pluginJars = getPluginJars();
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+
+        final Map<URI, String> checksums;
+        try (final StartupTimings.Span span = timings.phase(Phase.FINGERPRINT)) {
+            checksums = fingerprintPluginJars(pluginJars, span);
+        }
+
+        final Set<URI> injected;
+        try (final StartupTimings.Span ignored = timings.phase(Phase.JAR_INJECTION)) {
+            injected = injectPluginJars(checksums.keySet());
+        }
+
+        final List<PluginDescriptor> pluginDescriptors;
+        try (final StartupTimings.Span ignored = timings.phase(Phase.SCAN)) {
+            checksums.keySet().retainAll(injected);
+            pluginDescriptors = scanPluginJars(checksums);
+        }
+
+        this.plugins = pluginDescriptors;
+
+        final ScheduledFuture<?> progress = executor.scheduleAtFixedRate(this::logProgress,
+            PROGRESS_INTERVAL.toMillis(), PROGRESS_INTERVAL.toMillis(), MILLISECONDS);
+        try (final ResolutionEngine engine = new ResolutionEngine(libraryLoader, RESOLVER_THREADS, timings, logger)) {
+            final ResolutionEngine.Pending resolution = engine.resolve(pluginDescriptors.stream()
+                .filter(plugin -> plugin.triggers().isEmpty()).map(Bootstrap::request).toList());
+            final Map<InjectingLibraryLoader.Request, Future<InjectingLibraryLoader.Resolution>> deferredResolutions =
+                engine.resolveEach(resolution, pluginDescriptors.stream()
+                    .filter(plugin -> !plugin.triggers().isEmpty()).map(Bootstrap::request).toList());
+
+            final Map<String, Class<?>> pluginClasses;
+            try (final StartupTimings.Span ignored = timings.phase(Phase.PRELOAD)) {
+                pluginClasses = preloadPluginClasses(pluginDescriptors);
+            }
+
+            final Map<String, PluginDescriptor> byClassName = new HashMap<>();
+            for (final PluginDescriptor plugin : pluginDescriptors) byClassName.put(plugin.className(), plugin);
+
+            final List<Ready> ready = new ArrayList<>();
+            final List<Deferred> deferredPlugins = new ArrayList<>();
+            try (final StartupTimings.Span ignored = timings.phase(Phase.RESOLUTION)) {
+                for (final InjectingLibraryLoader.Request request : engine.inject(resolution, (plugin, e) ->
+                    logger.log(Level.WARNING, "Failed to load dependencies for " + plugin.id(), e))) {
+                    final Class<?> pluginClass = pluginClasses.get(request.id());
+                    if (pluginClass != null) ready.add(new Ready(pluginClass, byClassName.get(request.id())));
+                }
+
+                engine.await(deferredResolutions, (plugin, e) ->
+                    logger.log(Level.WARNING, "Failed to resolve dependencies for " + plugin.id(), e)
+                ).forEach((request, libraries) -> {
+                    final Class<?> pluginClass = pluginClasses.get(request.id());
+                    if (pluginClass != null) {
+                        deferredPlugins.add(new Deferred(pluginClass, byClassName.get(request.id()), libraries));
+                    }
+                });
+            }
+
+            this.deferred = List.copyOf(deferredPlugins);
+            return ready;
+        } finally {
+            progress.cancel(false);
+            logThroughput();
+        }
+    }
+
+    /**
+     * @return The plugins found in the plugin JARs, or an empty list if they have not been scanned yet.
+     * */
+    public List<PluginDescriptor> plugins() {
+        return plugins;
+    }
+
+    /**
+     * @return The loaded plugins that are initialised on demand, whose libraries have been resolved but not injected,
+     *         or an empty list if the plugins have not been loaded yet.
+     * */
+    public List<Deferred> deferred() {
+        return deferred;
+    }
+
+    /**
+     * @return The libraries requested by the given plugin.
+     * @param plugin The plugin.
+     * */
+    static InjectingLibraryLoader.Request request(final PluginDescriptor plugin) {
+        return new InjectingLibraryLoader.Request(plugin.className(), plugin.name(), plugin.libraries());
+    }
+
+    private void logThroughput() {
+        for (final InjectingLibraryLoader.Throughput repository : libraryLoader.throughput()) {
+            logger.log(Level.INFO, "Downloaded {0} in {1} files from {2} at {3}/s", new Object[] {
+                bytes(repository.bytes()), repository.downloads(), repository.repository(),
+                bytes(repository.bytesPerSecond())
+            });
+        }
+    }
+
+    private void logProgress() {
+        final InjectingLibraryLoader.Progress progress = libraryLoader.progress();
+        if (progress.artifactsRemaining() == 0 && progress.bytesRemaining() == 0) return;
+        logger.log(Level.INFO, "Resolving libraries: {0} artifacts and {1} remaining, {2} downloaded", new Object[] {
+            progress.artifactsRemaining(), bytes(progress.bytesRemaining()), bytes(progress.bytesDownloaded())
+        });
+    }
+
+    /**
+     * @return The given amount of bytes in a human-readable unit, like <code>1.5 MiB</code>.
+     * @param bytes The amount of bytes.
+     * */
+    static String bytes(final long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        if (bytes < 1024 * 1024) return "%.1f KiB".formatted(bytes / 1024.0);
+        return "%.1f MiB".formatted(bytes / (1024.0 * 1024.0));
+    }
+
+    private Set<URI> getPluginJars() throws IOException {
+        if (!Files.exists(pluginDirectory) || !Files.isDirectory(pluginDirectory)) return Set.of();
+        try (final Stream<Path> stream = Files.list(pluginDirectory).filter(Files::isRegularFile)
+                                               .filter(path -> path.getFileName().toString().endsWith(".jar"))) {
+            return stream.map(Path::toUri).collect(toSet());
+        }
+    }
+
+    /**
+     * Injects the classes that should escape the plugin class loader, which are the whole
+     * <code>escaping</code> package, into the server class loader, and lets the injected {@link Services}
+     * registry bridge services through {@link Surma#reflectiveProxy(Class, Object) reflective proxies}.
+     * */
+    private void injectEscapingClasses() throws Exception {
+        surma.injectPackage(VipuPlugin.class);
+        final BiFunction<Class<?>, Object, Object> bridgeFactory = surma::reflectiveProxy;
+        surma.loadInjected(Services.class).getMethod("bridgeFactory", BiFunction.class).invoke(null, bridgeFactory);
+    }
+
+    /**
+     * Fingerprints the given JAR files in parallel, so that truncated and unreadable JARs are reported before they
+     * are injected.
+     * @param plugins The URIs of the JAR files to fingerprint.
+     * @param span The span to count the changed JARs in.
+     * @return The SHA-256 of each JAR file that was fingerprinted.
+     * */
+    private Map<URI, String> fingerprintPluginJars(final Set<URI> plugins, final StartupTimings.Span span) {
+        final Map<Path, URI> uris = new HashMap<>();
+        for (final URI uri : plugins) uris.put(Path.of(uri), uri);
+
+        final Map<URI, String> checksums = new HashMap<>();
+        long changed = 0;
+        for (final Map.Entry<Path, JarFingerprints.Fingerprint> entry : fingerprints.fingerprint(uris.keySet(),
+            (jar, e) -> logger.log(Level.WARNING, "Not loading " + jar + ", it could not be verified", e)).entrySet()) {
+            final JarFingerprints.Fingerprint fingerprint = entry.getValue();
+            checksums.put(uris.get(entry.getKey()), fingerprint.sha256());
+            if (!fingerprint.changed()) continue;
+
+            logger.log(Level.FINE, "{0} changed since the last start", fingerprint.jar());
+            ++changed;
+        }
+
+        span.count(Counter.JARS_CHANGED, changed);
+        return checksums;
+    }
+
+    /**
+     * Injects the given JAR files into the server class loader.
+     * @param plugins The URIs of the JAR files to inject.
+     * @return The URIs of the JAR files that were successfully injected.
+     * */
+    private Set<URI> injectPluginJars(final Set<URI> plugins) {
+        final Set<URI> injected = new HashSet<>();
+        for (final URI uri : plugins) {
+            try (final StartupTimings.Span ignored = timings.subject(Phase.JAR_INJECTION, uri.toString())) {
+                surma.injectJAR(uri.toURL());
+                injected.add(uri);
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Failed to inject " + uri, e);
+            }
+        }
+
+        return injected;
+    }
+
+    /**
+     * Scans the given JAR files for classes that implement {@link VipuPlugin}, or reads the classes from the scan
+     * cache if the content of a JAR has been scanned before.
+     * @param uris The URIs of the JAR files to scan, and their SHA-256 checksums.
+     * @return The classes that implement {@link VipuPlugin}, as {@link PluginDescriptor}s.
+     * */
+    private List<PluginDescriptor> scanPluginJars(final Map<URI, String> uris) {
+        try (final PluginScanner scanner = new PluginScanner(SCANNER_THREADS, pluginDirectory.resolve(SCAN_CACHE),
+            logger)) {
+            return scanner.scan(uris, (uri, e) ->
+                logger.log(Level.WARNING, "Failed to scan " + uri, e));
+        }
+    }
+
+    /**
+     * Loads the given classes without initialising them.
+     * @param plugins The classes to load.
+     * @return The classes that were successfully loaded, by name.
+     * */
+    private Map<String, Class<?>> preloadPluginClasses(final List<PluginDescriptor> plugins) {
+        return Functional.map(plugins.stream(), this::preloadedClass, (plugin, e) ->
+            logger.warning("Failed to load class " + plugin.className()))
+            .collect(toMap(Class::getName, identity(), (first, second) -> first));
+    }
+
+    @NotNull
+    private Class<?> preloadedClass(final PluginDescriptor plugin) throws ClassNotFoundException {
+        try (final StartupTimings.Span ignored = timings.subject(Phase.PRELOAD, plugin.className())) {
+            return Class.forName(plugin.className(), false, surma.getTarget());
+        }
+    }
+
+    /**
+     * Stops the bootstrap threads. A bootstrap that is still running is interrupted.
+     * */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A plugin whose libraries were injected, ready to be initialised.
+     * @param plugin The loaded, uninitialised plugin class.
+     * @param descriptor The plugin as it was scanned, with its name and libraries.
+     * */
+    public record Ready(Class<?> plugin, PluginDescriptor descriptor) {
+    }
+
+    /**
+     * A plugin that is initialised on demand.
+     * @param plugin The loaded, uninitialised plugin class.
+     * @param descriptor The plugin as it was scanned, with its libraries and triggers.
+     * @param libraries The resolved libraries of the plugin, to be injected when it is activated.
+     * */
+    public record Deferred(Class<?> plugin, PluginDescriptor descriptor, InjectingLibraryLoader.Resolution libraries) {
+    }
+}
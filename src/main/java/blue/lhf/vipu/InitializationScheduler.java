@@ -0,0 +1,234 @@
+package blue.lhf.vipu;
+
+import blue.lhf.vipu.escaping.*;
+
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.logging.*;
+
+import static blue.lhf.vipu.Threads.daemonFactory;
+
+/**
+ * Initialises plugin classes in an order that respects their {@link LoadAfter} declarations.
+ * <p>
+ *     The plugins form a directed acyclic graph. Plugins whose dependencies have been initialised are run
+ *     in parallel on a pool of worker threads, except for plugins annotated with {@link ServerThread}, which
+ *     are run on the thread that called {@link #initialize(Collection, Functional.Throwing, BiConsumer)}.
+ * </p>
+ * <p>
+ *     A watchdog stops waiting for worker-thread plugins that take longer than the timeout, logging where
+ *     they are stuck, so that a single slow static initialiser does not stall the rest of startup. Plugins that
+ *     depend on a plugin that failed, timed out, or is part of a dependency cycle are not initialised.
+ * </p>
+ * */
+public class InitializationScheduler implements AutoCloseable {
+    private final ExecutorService executor;
+    private final Duration timeout;
+    private final Logger logger;
+
+    /**
+     * @param parallelism The number of worker threads.
+     * @param timeout How long a plugin may take to initialise on a worker thread.
+     * @param logger The logger to report timeouts to.
+     * */
+    public InitializationScheduler(final int parallelism, final Duration timeout, final Logger logger) {
+        this.executor = Executors.newFixedThreadPool(parallelism, daemonFactory("Vipu Initializer"));
+        this.timeout = timeout;
+        this.logger = logger;
+    }
+
+    /**
+     * Initialises the given plugins.
+     * @param tasks The plugins to initialise.
+     * @param initializer The function that initialises a plugin class.
+     * @param onException The action to take when a plugin fails to initialise or is skipped.
+     * @return The successfully initialised plugin classes, in the order they finished initialising.
+     * */
+    public List<Class<?>> initialize(final Collection<Task> tasks, final Functional.Throwing<Class<?>, ?> initializer,
+                                     final BiConsumer<Class<?>, Exception> onException) {
+        return new Run(tasks, initializer, onException).run();
+    }
+
+    /**
+     * Stops the worker threads.
+     * */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A plugin to initialise.
+     * @param plugin The injected plugin class.
+     * @param name The name of the plugin, which other plugins refer to in {@link LoadAfter}.
+     * @param after The names of the plugins that must be initialised first.
+     * @param serverThread Whether the plugin must be initialised on the server thread.
+     * */
+    public record Task(Class<?> plugin, String name, Set<String> after, boolean serverThread) {
+    }
+
+    private record Completion(Task task, Exception error) {
+    }
+
+    private record Running(Instant deadline, AtomicReference<Thread> thread) {
+    }
+
+    private final class Run {
+        private final Functional.Throwing<Class<?>, ?> initializer;
+        private final BiConsumer<Class<?>, Exception> onException;
+
+        private final List<Task> tasks;
+        private final Map<Task, Set<Task>> dependents = new HashMap<>();
+        private final Map<Task, Integer> remaining = new HashMap<>();
+        private final Set<Task> done = new HashSet<>();
+
+        private final Deque<Task> serverQueue = new ArrayDeque<>();
+        private final BlockingQueue<Completion> completions = new LinkedBlockingQueue<>();
+        private final Map<Task, Running> running = new HashMap<>();
+        private final List<Class<?>> initialized = new ArrayList<>();
+
+        Run(final Collection<Task> tasks, final Functional.Throwing<Class<?>, ?> initializer,
+            final BiConsumer<Class<?>, Exception> onException) {
+            this.tasks = List.copyOf(tasks);
+            this.initializer = initializer;
+            this.onException = onException;
+
+            final Map<String, List<Task>> byName = new HashMap<>();
+            for (final Task task : this.tasks) {
+                byName.computeIfAbsent(task.name(), ignored -> new ArrayList<>()).add(task);
+            }
+
+            for (final Task task : this.tasks) {
+                final Set<Task> dependencies = new HashSet<>();
+                for (final String name : task.after()) {
+                    final List<Task> named = byName.get(name);
+                    if (named == null) {
+                        logger.log(Level.FINE, "{0} loads after {1}, which is not installed", new Object[] {
+                            task.name(), name
+                        });
+                        continue;
+                    }
+
+                    for (final Task dependency : named) {
+                        if (dependency != task) dependencies.add(dependency);
+                    }
+                }
+
+                remaining.put(task, dependencies.size());
+                for (final Task dependency : dependencies) {
+                    dependents.computeIfAbsent(dependency, ignored -> new HashSet<>()).add(task);
+                }
+            }
+        }
+
+        List<Class<?>> run() {
+            for (final Task task : tasks) {
+                if (remaining.get(task) == 0) ready(task);
+            }
+
+            try {
+                while (done.size() < tasks.size()) {
+                    final Task serverTask = serverQueue.poll();
+                    if (serverTask != null) {
+                        complete(serverTask, initializeNow(serverTask));
+                        continue;
+                    }
+
+                    if (running.isEmpty()) break;
+                    awaitCompletion();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            for (final Task task : tasks) {
+                if (done.contains(task)) continue;
+                onException.accept(task.plugin(), new IllegalStateException(
+                    "%s was not initialised because of a LoadAfter cycle or an interruption".formatted(task.name())));
+            }
+
+            return initialized;
+        }
+
+        private void awaitCompletion() throws InterruptedException {
+            final Instant deadline = running.values().stream().map(Running::deadline)
+                                            .min(Comparator.naturalOrder()).orElseThrow();
+            final long wait = Math.max(0, Duration.between(Instant.now(), deadline).toNanos());
+            final Completion completion = completions.poll(wait, TimeUnit.NANOSECONDS);
+            if (completion != null) {
+                // A plugin that already timed out is no longer running, so its late completion is ignored.
+                if (running.remove(completion.task()) != null) complete(completion.task(), completion.error());
+                return;
+            }
+
+            final Instant now = Instant.now();
+            for (final Map.Entry<Task, Running> entry : List.copyOf(running.entrySet())) {
+                if (entry.getValue().deadline().isAfter(now)) continue;
+                running.remove(entry.getKey());
+
+                final TimeoutException timedOut = new TimeoutException("%s did not initialise within %s"
+                    .formatted(entry.getKey().name(), timeout));
+                final Thread thread = entry.getValue().thread().get();
+                if (thread != null) timedOut.setStackTrace(thread.getStackTrace());
+                complete(entry.getKey(), timedOut);
+            }
+        }
+
+        private void ready(final Task task) {
+            if (done.contains(task)) return;
+            if (task.serverThread()) {
+                serverQueue.add(task);
+                return;
+            }
+
+            final AtomicReference<Thread> thread = new AtomicReference<>();
+            running.put(task, new Running(Instant.now().plus(timeout), thread));
+            executor.execute(() -> {
+                thread.set(Thread.currentThread());
+                try {
+                    completions.add(new Completion(task, initializeNow(task)));
+                } finally {
+                    thread.set(null);
+                }
+            });
+        }
+
+        private Exception initializeNow(final Task task) {
+            try {
+                initializer.apply(task.plugin());
+                return null;
+            } catch (Exception e) {
+                return e;
+            } catch (LinkageError e) {
+                return new ExecutionException(e);
+            }
+        }
+
+        private void complete(final Task task, final Exception error) {
+            done.add(task);
+            if (error != null) {
+                onException.accept(task.plugin(), error);
+                skipDependents(task);
+                return;
+            }
+
+            initialized.add(task.plugin());
+            for (final Task dependent : dependents.getOrDefault(task, Set.of())) {
+                if (remaining.merge(dependent, -1, Integer::sum) == 0) ready(dependent);
+            }
+        }
+
+        private void skipDependents(final Task failed) {
+            for (final Task dependent : dependents.getOrDefault(failed, Set.of())) {
+                if (!done.add(dependent)) continue;
+                final String message = "%s was not initialised because %s failed to initialise";
+                onException.accept(dependent.plugin(),
+                    new IllegalStateException(message.formatted(dependent.name(), failed.name())));
+                skipDependents(dependent);
+            }
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package blue.lhf.vipu;
+
+import blue.lhf.vipu.black_magic.*;
+import blue.lhf.vipu.escaping.*;
+import blue.lhf.vipu.scanning.Triggers;
+import blue.lhf.vipu.timings.*;
+import org.bukkit.Server;
+import org.bukkit.command.*;
+import org.bukkit.entity.Player;
+import org.bukkit.event.*;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.logging.*;
+
+/**
+ * Initialises the plugins that are {@link ActivateOn activated} on demand when one of their triggers first fires.
+ * <p>
+ *     Each command trigger is registered as a placeholder command, which activates the plugin and then runs the
+ *     command again, so that the command the plugin registered handles it. Each event trigger is a listener at the
+ *     lowest priority, and service triggers are answered through the activator of the injected {@link Services}
+ *     registry. All triggers of a plugin are removed before it is initialised, so that the plugin can register its
+ *     own commands under the same names, and the commands of online players are sent again so that their clients
+ *     stop suggesting the placeholders.
+ * </p>
+ * <p>
+ *     Activating a plugin first activates the deferred plugins it {@link LoadAfter loads after}, then injects the
+ *     libraries the {@link Bootstrap} resolved for it and runs its static initialiser, all on the thread that fired
+ *     the trigger, so that nothing is resolved or downloaded there. Only claiming the plugin is done under this
+ *     object's lock, so a static initialiser that waits for another thread which is activating a plugin too does
+ *     not deadlock. A plugin is activated at most once. If activating it fails, its triggers are registered again,
+ *     so that it is activated again the next time it is triggered.
+ * </p>
+ * */
+public class LazyActivation {
+    private final JavaPlugin vipu;
+    private final Surma surma;
+    private final InjectingLibraryLoader libraryLoader;
+    private final StartupTimings timings;
+    private final Logger logger;
+
+    private final Map<String, List<Bootstrap.Deferred>> byName = new HashMap<>();
+    private final Map<String, List<Bootstrap.Deferred>> byService = new HashMap<>();
+    private final Map<Bootstrap.Deferred, List<Command>> placeholders = new HashMap<>();
+    private final Map<Bootstrap.Deferred, Listener> listeners = new HashMap<>();
+    private final Set<Bootstrap.Deferred> activating = new HashSet<>();
+    private final Set<Bootstrap.Deferred> activated = new HashSet<>();
+    private CommandMap commandMap;
+
+    /**
+     * @param vipu The Vipu plugin, to register listeners with.
+     * @param surma The {@link Surma} instance the plugins were injected with.
+     * @param libraryLoader The library loader to inject the libraries of activated plugins with.
+     * @param timings The timings to record activations in.
+     * @param logger The logger to use.
+     * */
+    public LazyActivation(final JavaPlugin vipu, final Surma surma, final InjectingLibraryLoader libraryLoader,
+                          final StartupTimings timings, final Logger logger) {
+        this.vipu = vipu;
+        this.surma = surma;
+        this.libraryLoader = libraryLoader;
+        this.timings = timings;
+        this.logger = logger;
+    }
+
+    /**
+     * Registers the triggers of the given plugins.
+     * @param deferred The plugins that are initialised on demand.
+     * @throws ReflectiveOperationException If the activator could not be set on the injected {@link Services}.
+     * */
+    public synchronized void register(final List<Bootstrap.Deferred> deferred) throws ReflectiveOperationException {
+        for (final Bootstrap.Deferred plugin : deferred) {
+            final Triggers triggers = plugin.descriptor().triggers();
+            byName.computeIfAbsent(plugin.descriptor().name(), ignored -> new ArrayList<>()).add(plugin);
+            for (final String service : triggers.services()) {
+                byService.computeIfAbsent(service, ignored -> new ArrayList<>()).add(plugin);
+            }
+
+            registerTriggers(plugin);
+        }
+
+        final Predicate<String> activator = this::activateService;
+        surma.loadInjected(Services.class).getMethod("activator", Predicate.class).invoke(null, activator);
+    }
+
+    /**
+     * Activates a plugin, unless it has already been activated or is being activated by another thread.
+     * @param plugin The plugin to activate.
+     * @return Whether the plugin was activated by this call.
+     * */
+    public boolean activate(final Bootstrap.Deferred plugin) {
+        synchronized (this) {
+            if (activated.contains(plugin) || !activating.add(plugin)) return false;
+            removeTriggers(plugin);
+        }
+
+        updateCommands();
+
+        final String className = plugin.plugin().getName();
+        try {
+            final LoadAfter after = surma.injectedAnnotation(plugin.plugin(), LoadAfter.class);
+            if (after != null) for (final String name : after.value()) {
+                for (final Bootstrap.Deferred dependency : dependencies(name)) activate(dependency);
+            }
+
+            try (final StartupTimings.Span ignored = timings.phase(Phase.ACTIVATION);
+                 final StartupTimings.Span subject = timings.subject(Phase.ACTIVATION, className)) {
+                libraryLoader.inject(plugin.libraries());
+                Class.forName(className, true, plugin.plugin().getClassLoader());
+            }
+        } catch (Exception | LinkageError e) {
+            logger.log(Level.WARNING, "Failed to activate " + plugin.descriptor().name(), e);
+            synchronized (this) {
+                activating.remove(plugin);
+                try {
+                    registerTriggers(plugin);
+                } catch (ReflectiveOperationException | RuntimeException ex) {
+                    logger.log(Level.WARNING, "Failed to register the triggers of " + plugin.descriptor().name()
+                        + " again", ex);
+                }
+            }
+
+            updateCommands();
+            return false;
+        }
+
+        synchronized (this) {
+            activating.remove(plugin);
+            activated.add(plugin);
+        }
+
+        logger.log(Level.INFO, "Activated {0}", plugin.descriptor().name());
+        return true;
+    }
+
+    /**
+     * @return The names of the deferred plugins that have not been activated yet.
+     * */
+    public synchronized List<String> pending() {
+        final List<String> pending = new ArrayList<>();
+        byName.forEach((name, plugins) -> {
+            for (final Bootstrap.Deferred plugin : plugins) if (!activated.contains(plugin)) pending.add(name);
+        });
+
+        pending.sort(Comparator.naturalOrder());
+        return pending;
+    }
+
+    private boolean activateService(final String service) {
+        final List<Bootstrap.Deferred> plugins;
+        synchronized (this) {
+            plugins = byService.getOrDefault(service, List.of());
+        }
+
+        boolean any = false;
+        for (final Bootstrap.Deferred plugin : plugins) any |= activate(plugin);
+        return any;
+    }
+
+    private synchronized List<Bootstrap.Deferred> dependencies(final String name) {
+        return List.copyOf(byName.getOrDefault(name, List.of()));
+    }
+
+    private void registerTriggers(final Bootstrap.Deferred plugin) throws ReflectiveOperationException {
+        for (final String command : plugin.descriptor().triggers().commands()) registerCommand(plugin, command);
+        for (final String event : plugin.descriptor().triggers().events()) registerEvent(plugin, event);
+    }
+
+    private void registerCommand(final Bootstrap.Deferred plugin, final String command)
+        throws ReflectiveOperationException {
+        if (commandMap == null) {
+            commandMap = (CommandMap) vipu.getServer().getClass().getMethod("getCommandMap").invoke(vipu.getServer());
+        }
+
+        final Command placeholder = new Placeholder(command, plugin);
+        commandMap.register(vipu.getName().toLowerCase(Locale.ROOT), placeholder);
+        placeholders.computeIfAbsent(plugin, ignored -> new ArrayList<>()).add(placeholder);
+    }
+
+    private void registerEvent(final Bootstrap.Deferred plugin, final String event) {
+        try {
+            final Class<?> type = Class.forName(event, false, surma.getTarget());
+            if (!Event.class.isAssignableFrom(type)) {
+                logger.log(Level.WARNING, "{0} is activated by {1}, which is not an event", new Object[] {
+                    plugin.descriptor().name(), event
+                });
+                return;
+            }
+
+            final Listener listener = listeners.computeIfAbsent(plugin, ignored -> new Listener() {
+            });
+            vipu.getServer().getPluginManager().registerEvent(type.asSubclass(Event.class), listener,
+                EventPriority.LOWEST, (ignored, called) -> {
+                    if (type.isInstance(called)) activate(plugin);
+                }, vipu);
+        } catch (ClassNotFoundException | RuntimeException e) {
+            logger.log(Level.WARNING, "Failed to register the activation of " + plugin.descriptor().name()
+                + " on " + event, e);
+        }
+    }
+
+    private void removeTriggers(final Bootstrap.Deferred plugin) {
+        final Listener listener = listeners.remove(plugin);
+        if (listener != null) HandlerList.unregisterAll(listener);
+
+        final List<Command> commands = placeholders.remove(plugin);
+        if (commands == null) return;
+        try {
+            for (final Command command : commands) command.unregister(commandMap);
+            knownCommands().values().removeIf(commands::contains);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.log(Level.WARNING, "Failed to remove the activation commands of " + plugin.descriptor().name(), e);
+        }
+    }
+
+    /**
+     * Sends the current commands to the players that are online, so that their clients suggest the commands that
+     * were added or removed. Players can only be updated on the server thread, so this is scheduled there when
+     * called from another thread.
+     * */
+    private void updateCommands() {
+        final Server server = vipu.getServer();
+        if (!server.isPrimaryThread()) {
+            server.getScheduler().runTask(vipu, this::updateCommands);
+            return;
+        }
+
+        for (final Player player : server.getOnlinePlayers()) player.updateCommands();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Command> knownCommands() throws ReflectiveOperationException {
+        for (Class<?> type = commandMap.getClass(); type != null; type = type.getSuperclass()) {
+            try {
+                final Field field = type.getDeclaredField("knownCommands");
+                field.setAccessible(true);
+                return (Map<String, Command>) field.get(commandMap);
+            } catch (NoSuchFieldException ignored) {
+            }
+        }
+
+        throw new NoSuchFieldException("knownCommands");
+    }
+
+    /**
+     * A command that activates a plugin and then runs itself again, to be handled by the plugin's own command.
+     * */
+    private final class Placeholder extends Command {
+        private final Bootstrap.Deferred plugin;
+
+        private Placeholder(final String name, final Bootstrap.Deferred plugin) {
+            super(name);
+            this.plugin = plugin;
+        }
+
+        @Override
+        public boolean execute(@NotNull final CommandSender sender, @NotNull final String label,
+                               @NotNull final String[] args) {
+            if (!activate(plugin)) return false;
+            return vipu.getServer().dispatchCommand(sender,
+                args.length == 0 ? getName() : getName() + " " + String.join(" ", args));
+        }
+    }
+}
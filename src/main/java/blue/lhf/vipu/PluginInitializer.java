@@ -0,0 +1,291 @@
+package blue.lhf.vipu;
+
+import blue.lhf.vipu.black_magic.*;
+import blue.lhf.vipu.escaping.*;
+import blue.lhf.vipu.profiling.ClassLoadProfiler;
+import blue.lhf.vipu.scanning.*;
+import blue.lhf.vipu.timings.*;
+import blue.lhf.vipu.warmup.*;
+
+import java.io.IOException;
+import java.net.*;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.stream.Collectors.*;
+
+/**
+ * Initialises the plugins prepared by a {@link Bootstrap} once the server enables Vipu, and releases what only
+ * startup needed once the server has started. Does not depend on Bukkit, so that the startup harness runs the same
+ * steps as Vipu. Registering the triggers of on-demand plugins and waiting for the warm start are left to the caller.
+ * <p>
+ *     Before the plugins are initialised, the injected JARs are attributed to their plugins for the class-load
+ *     profiler, the classes of a matching class-load profile start loading in the background, and the on-demand
+ *     plugins are deferred, so that the plugins initialised at startup can already activate them. Without a
+ *     matching profile, one is recorded a while after startup instead.
+ * </p>
+ * */
+public final class PluginInitializer implements AutoCloseable {
+    private static final int INITIALIZER_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final Duration INITIALIZATION_TIMEOUT = Duration.ofSeconds(30);
+    private static final int PRELOADER_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final Duration PROFILE_DELAY = Duration.ofMinutes(5);
+    private static final Path CLASS_PROFILE = Path.of("cache", "classes.profile");
+    private static final String LIBRARIES = "libraries";
+
+    private final Path dataFolder;
+    private final Surma surma;
+    private final InjectingLibraryLoader libraryLoader;
+    private final JarFingerprints fingerprints;
+    private final ClassLoadProfiler classLoadProfiler;
+    private final StartupTimings timings;
+    private final ScheduledExecutorService scheduler;
+    private final Logger logger;
+    private Preloader preloader;
+
+    /**
+     * @param dataFolder The directory to keep the class-load profile in.
+     * @param surma The {@link Surma} instance the plugins were injected with.
+     * @param libraryLoader The library loader the plugin libraries were injected with.
+     * @param fingerprints The fingerprints of the plugin and library JARs.
+     * @param classLoadProfiler The class-load profiler to attribute classes with,
+     *                          or <code>null</code> if class loading is not profiled.
+     * @param timings The timings to record the initialisation of each plugin in.
+     * @param scheduler The executor to record the class-load profile on.
+     * @param logger The logger to use.
+     * */
+    public PluginInitializer(final Path dataFolder, final Surma surma, final InjectingLibraryLoader libraryLoader,
+                             final JarFingerprints fingerprints, final ClassLoadProfiler classLoadProfiler,
+                             final StartupTimings timings, final ScheduledExecutorService scheduler,
+                             final Logger logger) {
+        this.dataFolder = dataFolder;
+        this.surma = surma;
+        this.libraryLoader = libraryLoader;
+        this.fingerprints = fingerprints;
+        this.classLoadProfiler = classLoadProfiler;
+        this.timings = timings;
+        this.scheduler = scheduler;
+        this.logger = logger;
+    }
+
+    /**
+     * Initialises the plugins prepared by a bootstrap, in their load order.
+     * @param bootstrap The bootstrap that prepared the plugins, which must have finished.
+     * @param ready The plugins whose libraries were injected, as returned by {@link Bootstrap#start()}.
+     * @param deferral Registers the triggers of the plugins that are initialised on demand.
+     * @return The plugins that were initialised, and the warm start.
+     * */
+    public Initialized initialize(final Bootstrap bootstrap, final List<Bootstrap.Ready> ready,
+                                  final Deferral deferral) {
+        if (classLoadProfiler != null) attributeClasses(bootstrap.plugins());
+        final CompletableFuture<Integer> warmStart = warmStart();
+        defer(bootstrap.deferred(), deferral);
+
+        final Set<Class<?>> initialized;
+        try (final StartupTimings.Span ignored = timings.phase(Phase.INITIALIZATION)) {
+            initialized = initialize(ready);
+        }
+
+        logger.log(Level.INFO, "Loaded {0} plugins", initialized.size());
+        if (!surma.isIndexed()) warnUntransformed();
+        return new Initialized(initialized, warmStart);
+    }
+
+    /**
+     * Saves the fingerprints of the plugin and library JARs, so that the next startup only hashes the JARs that
+     * changed.
+     * */
+    public void saveFingerprints() {
+        try {
+            fingerprints.save();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to save the JAR fingerprints", e);
+        }
+    }
+
+    /**
+     * Releases the repository system of the library loader and the lookups cached while plugins were bootstrapped,
+     * which only startup needed.
+     * */
+    public void release() {
+        try (final StartupTimings.Span ignored = timings.phase(Phase.RELEASE)) {
+            libraryLoader.release();
+            surma.trim();
+        }
+    }
+
+    /**
+     * Warns if the initialised plugins registered class transformers, since the classes of injected JARs are only
+     * transformed if the class path is indexed.
+     * */
+    private void warnUntransformed() {
+        final List<String> transformers = surma.transformation().registered();
+        if (transformers.isEmpty()) return;
+        logger.log(Level.WARNING, "The class transformers {0} are registered, but the classes of injected JARs are "
+            + "only transformed if indexed-class-path is enabled in config.yml", transformers);
+    }
+
+    /**
+     * Tells the class-load profiler which plugin each injected JAR belongs to. JARs without plugins are libraries.
+     * */
+    private void attributeClasses(final List<PluginDescriptor> plugins) {
+        final Map<Path, List<String>> names = plugins.stream().collect(groupingBy(
+            plugin -> Path.of(plugin.jar()), mapping(PluginDescriptor::name, toList())));
+
+        final Map<Path, String> owners = new LinkedHashMap<>();
+        for (final Path jar : injectedJARs()) {
+            owners.put(jar, String.join(", ", names.getOrDefault(jar, List.of(LIBRARIES))));
+        }
+
+        try {
+            classLoadProfiler.attribute(owners);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to attribute classes to the injected JARs", e);
+        }
+    }
+
+    /**
+     * Loads the classes of the class-load profile in the background if it matches the injected JARs. Without a
+     * matching profile, schedules recording one instead.
+     * @return A future of the number of classes loaded, or <code>null</code> if there is no matching profile.
+     * */
+    private CompletableFuture<Integer> warmStart() {
+        final Path file = dataFolder.resolve(CLASS_PROFILE);
+        final List<Path> jars = injectedJARs();
+
+        final String fingerprint = ClassProfile.fingerprint(fingerprints.fingerprint(jars, (jar, e) ->
+            logger.log(Level.FINE, "Failed to fingerprint " + jar, e)).values());
+        final Optional<ClassProfile> profile;
+        try {
+            profile = ClassProfile.read(file, fingerprint);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to read the class-load profile", e);
+            return null;
+        }
+
+        if (profile.isEmpty()) {
+            logger.log(Level.INFO, "Recording a class-load profile in {0} minutes", PROFILE_DELAY.toMinutes());
+            scheduler.schedule(() -> recordProfile(file, fingerprint, jars), PROFILE_DELAY.toMillis(), MILLISECONDS);
+            return null;
+        }
+
+        this.preloader = new Preloader(PRELOADER_THREADS);
+        final StartupTimings.Span span = timings.phase(Phase.WARM_START);
+        return preloader.preload(profile.get().classes(), surma.getTarget()).whenComplete((loaded, e) -> {
+            span.close();
+            preloader.close();
+        });
+    }
+
+    private void recordProfile(final Path file, final String fingerprint, final List<Path> jars) {
+        try {
+            final ClassProfile profile = ClassProfile.record(fingerprint, jars, surma::isLoaded);
+            profile.write(file);
+            logger.log(Level.INFO, "Recorded {0} loaded classes into the class-load profile",
+                profile.classes().size());
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to record the class-load profile", e);
+        }
+    }
+
+    /**
+     * @return The paths of the injected JAR files, in injection order.
+     * */
+    private List<Path> injectedJARs() {
+        final List<Path> jars = new ArrayList<>();
+        for (final URL url : surma.injectedJARs()) {
+            try {
+                if ("file".equals(url.getProtocol())) jars.add(Path.of(url.toURI()));
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                logger.log(Level.FINE, "Ignoring injected URL " + url, e);
+            }
+        }
+
+        return jars;
+    }
+
+    /**
+     * Registers the triggers of the plugins that are initialised on demand, before the other plugins are
+     * initialised, so that those can already activate them.
+     * */
+    private void defer(final List<Bootstrap.Deferred> deferred, final Deferral deferral) {
+        if (deferred.isEmpty()) return;
+        try {
+            deferral.defer(deferred);
+            logger.log(Level.INFO, "Deferred {0} plugins until they are first needed", deferred.size());
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Failed to register the triggers of on-demand plugins", e);
+        }
+    }
+
+    /**
+     * Constructs and enables the given plugins from their classes.
+     * @param plugins The plugins to enable.
+     * @return The classes of the plugins that were successfully enabled.
+     * @see InitializationScheduler
+     * */
+    private Set<Class<?>> initialize(final List<Bootstrap.Ready> plugins) {
+        final List<InitializationScheduler.Task> tasks = Functional.map(plugins.stream(),
+            this::initializationTask, (plugin, e) -> logger.log(Level.WARNING,
+                "Failed to read the load order of " + plugin.descriptor().className(), e)).toList();
+
+        try (final InitializationScheduler scheduler = new InitializationScheduler(
+            INITIALIZER_THREADS, INITIALIZATION_TIMEOUT, logger)) {
+            return new LinkedHashSet<>(scheduler.initialize(tasks, this::enablePlugin, (plugin, e) ->
+                logger.log(Level.WARNING, "Failed to enable " + plugin.getName(), e)));
+        }
+    }
+
+    private InitializationScheduler.Task initializationTask(final Bootstrap.Ready plugin)
+        throws ClassNotFoundException {
+        final Class<?> pluginClass = plugin.plugin();
+        final LoadAfter after = surma.injectedAnnotation(pluginClass, LoadAfter.class);
+        return new InitializationScheduler.Task(pluginClass, plugin.descriptor().name(),
+            after != null ? Set.copyOf(Arrays.asList(after.value())) : Set.of(),
+            surma.injectedAnnotation(pluginClass, ServerThread.class) != null);
+    }
+
+    /**
+     * Constructs and enables the given plugin from its class.
+     * @param pluginClass The class of the plugin to enable.
+     * @return The class of the plugin that was enabled.
+     * */
+    private Class<?> enablePlugin(final Class<?> pluginClass) throws Exception {
+        try (final StartupTimings.Span ignored = timings.subject(Phase.INITIALIZATION, pluginClass.getName())) {
+            return Class.forName(pluginClass.getName(), true, pluginClass.getClassLoader());
+        }
+    }
+
+    /**
+     * Stops loading the classes of the class-load profile, if they are still being loaded.
+     * */
+    @Override
+    public void close() {
+        if (preloader != null) preloader.close();
+    }
+
+    /**
+     * Registers the triggers of the plugins that are initialised on demand.
+     * */
+    @FunctionalInterface
+    public interface Deferral {
+        /**
+         * @param deferred The plugins that are initialised on demand.
+         * @throws Exception If the triggers could not be registered.
+         * */
+        void defer(List<Bootstrap.Deferred> deferred) throws Exception;
+    }
+
+    /**
+     * The outcome of {@link #initialize(Bootstrap, List, Deferral)}.
+     * @param plugins The classes of the plugins that were successfully initialised.
+     * @param warmStart A future of the number of classes loaded from the class-load profile,
+     *                  or <code>null</code> if there was no matching profile.
+     * */
+    public record Initialized(Set<Class<?>> plugins, CompletableFuture<Integer> warmStart) {
+    }
+}
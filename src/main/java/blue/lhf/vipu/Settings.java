@@ -0,0 +1,103 @@
+package blue.lhf.vipu;
+
+import blue.lhf.vipu.black_magic.*;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.logging.*;
+
+/**
+ * Vipu's configuration, read from <code>config.yml</code>. Invalid values are reported and replaced with defaults.
+ * @param resolver Where and how to resolve plugin libraries.
+ * @param indexedClassPath Whether to inject JARs into a package index.
+ * @param classLoadProfiler Whether to attribute loaded classes to the injected JARs they came from.
+ * @see Surma#Surma(java.net.URLClassLoader, boolean)
+ * @see blue.lhf.vipu.profiling.ClassLoadProfiler
+ * */
+record Settings(ResolverSettings resolver, boolean indexedClassPath, boolean classLoadProfiler) {
+    /**
+     * @return The settings in the given configuration.
+     * @param config The configuration to read.
+     * @param logger The logger to report invalid values to.
+     * */
+    static Settings read(final ConfigurationSection config, final Logger logger) {
+        final ResolverSettings defaults = ResolverSettings.DEFAULTS;
+
+        final List<ResolverSettings.Repository> repositories = new ArrayList<>();
+        for (final Map<?, ?> entry : config.getMapList("repositories")) {
+            final ResolverSettings.Repository repository = repository(entry, logger);
+            if (repository != null) repositories.add(repository);
+        }
+
+        final List<ResolverSettings.Mirror> mirrors = new ArrayList<>();
+        for (final Map<?, ?> entry : config.getMapList("mirrors")) {
+            final ResolverSettings.Repository repository = repository(entry, logger);
+            final Object mirrorOf = entry.get("mirror-of");
+            if (repository == null) continue;
+            if (mirrorOf == null) {
+                logger.log(Level.WARNING, "Ignoring mirror {0} because it has no mirror-of", repository.id());
+                continue;
+            }
+
+            mirrors.add(new ResolverSettings.Mirror(repository, String.valueOf(mirrorOf)));
+        }
+
+        Mediation mediation = defaults.mediation();
+        final String mediationName = config.getString("resolution.mediation", mediation.name());
+        try {
+            mediation = Mediation.valueOf(mediationName.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            logger.log(Level.WARNING, "Unknown mediation {0}, using {1}", new Object[] {
+                mediationName, mediation.name().toLowerCase(Locale.ROOT)
+            });
+        }
+
+        return new Settings(new ResolverSettings(
+            repositories.isEmpty() ? defaults.repositories() : List.copyOf(repositories), List.copyOf(mirrors),
+            Math.max(1, config.getInt("downloads.threads", defaults.downloadThreads())),
+            seconds(config, "downloads.connect-timeout", defaults.connectTimeout()),
+            seconds(config, "downloads.request-timeout", defaults.requestTimeout()),
+            mediation,
+            seconds(config, "resolution.failure-ttl", defaults.failureTtl()),
+            path(config.getString("library-store", ""), logger)
+        ), config.getBoolean("indexed-class-path", false), config.getBoolean("profiling.class-loading", false));
+    }
+
+    private static ResolverSettings.Repository repository(final Map<?, ?> entry, final Logger logger) {
+        final Object id = entry.get("id");
+        final Object url = entry.get("url");
+        if (id == null || url == null) {
+            logger.log(Level.WARNING, "Ignoring repository {0} because it has no id or url", entry);
+            return null;
+        }
+
+        return new ResolverSettings.Repository(String.valueOf(id), String.valueOf(url),
+            seconds(entry.get("connect-timeout")), seconds(entry.get("request-timeout")));
+    }
+
+    private static Path path(final String value, final Logger logger) {
+        if (value == null || value.isBlank()) return null;
+        try {
+            final Path path = Path.of(value);
+            if (!path.isAbsolute()) {
+                logger.log(Level.WARNING, "The library store {0} is relative, so it is resolved against the working "
+                    + "directory of this server", value);
+            }
+
+            return path.toAbsolutePath();
+        } catch (InvalidPathException e) {
+            logger.log(Level.WARNING, "Ignoring invalid library store {0}", value);
+            return null;
+        }
+    }
+
+    private static Duration seconds(final ConfigurationSection config, final String path, final Duration fallback) {
+        return Duration.ofSeconds(Math.max(0, config.getLong(path, fallback.toSeconds())));
+    }
+
+    private static Duration seconds(final Object value) {
+        return value instanceof Number number ? Duration.ofSeconds(Math.max(0, number.longValue())) : null;
+    }
+}
@@ -0,0 +1,27 @@
+package blue.lhf.vipu;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Utilities for working with threads.
+ * */
+public class Threads {
+    private Threads() {
+
+    }
+
+    /**
+     * Creates a {@link ThreadFactory} that creates daemon threads named after the given prefix.
+     * @param prefix The prefix of the thread names, for example <code>Vipu Resolver</code>.
+     * @return The thread factory.
+     * */
+    public static ThreadFactory daemonFactory(final String prefix) {
+        final AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, prefix + " #" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -2,49 +2,51 @@ package blue.lhf.vipu;
 
 import blue.lhf.vipu.black_magic.*;
 import blue.lhf.vipu.escaping.*;
-import io.github.classgraph.*;
+import blue.lhf.vipu.profiling.*;
+import blue.lhf.vipu.scanning.*;
+import blue.lhf.vipu.timings.*;
+import com.google.gson.GsonBuilder;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.event.*;
+import org.bukkit.event.server.ServerLoadEvent;
 import org.bukkit.plugin.java.JavaPlugin;
-import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
-import java.net.*;
+import java.net.URLClassLoader;
 import java.nio.file.*;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.logging.Level;
-import java.util.stream.Stream;
 
-import static java.util.stream.Collectors.toSet;
+import static blue.lhf.vipu.Threads.daemonFactory;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 /**
- * The plugin class for Vipu. Contains plugin loading code (for now).
+ * The plugin class for Vipu. Starts a {@link Bootstrap} when loaded and initialises the plugins it prepared
+ * with a {@link PluginInitializer} when enabled.
  * */
 public class Vipu extends JavaPlugin {
-    private InjectingLibraryLoader libraryLoader;
-    private Surma surma;
+    private static final Duration WARM_START_TIMEOUT = Duration.ofSeconds(30);
 
-    @Override
-    public void onEnable() {
-        this.surma = new Surma((URLClassLoader) getServer().getClass().getClassLoader());
-        this.libraryLoader = new InjectingLibraryLoader(surma,
-            getDataFolder().toPath().resolve("repository"), getLogger());
-
-        enablePlugins();
-    }
+    private final StartupTimings timings = new StartupTimings();
+    private final ScheduledExecutorService profiler =
+        Executors.newSingleThreadScheduledExecutor(daemonFactory("Vipu Profiler"));
+    private Bootstrap bootstrap;
+    private CompletableFuture<List<Bootstrap.Ready>> bootstrapped;
+    private PluginInitializer initializer;
+    private ClassLoadProfiler classLoadProfiler;
+    private Surma surma;
+    private InjectingLibraryLoader libraryLoader;
+    private JarFingerprints fingerprints;
+    private volatile LazyActivation lazyActivation;
 
     /**
-     * Used to prevent Vipu from re-loading plugins if the server reloads, as that's impossible.
-     * @return Whether Vipu has loaded before.
+     * Starts preparing plugins in the background, so that their libraries download while the rest of the server
+     * starts. {@link #onEnable()} waits for them only when the plugins are about to be initialised.
      * */
-    public boolean hasLoadedBefore() {
-        try {
-            getServer().getClass().getClassLoader().loadClass(VipuPlugin.class.getName());
-            return true;
-        } catch (ClassNotFoundException e) {
-            return false;
-        }
-    }
-
-    private void enablePlugins() {
+    @Override
+    public void onLoad() {
         if (hasLoadedBefore()) {
             getLogger().severe("Not loading plugins because they are already loaded.");
             getLogger().severe("Attempting to re-load plugins does not have any effect");
@@ -54,129 +56,204 @@ public class Vipu extends JavaPlugin {
             return;
         }
 
-        try {
-            injectEscapingClasses();
+        saveDefaultConfig();
+        final Settings settings = Settings.read(getConfig(), getLogger());
 
-            final Set<URI> pluginJars = getPluginJars();
-            final Set<URI> injected = injectPluginJars(pluginJars);
+        this.surma = new Surma((URLClassLoader) getServer().getClass().getClassLoader(), settings.indexedClassPath(),
+            getDataFolder().toPath().resolve("cache").resolve("transformed"), getLogger());
+        if (settings.classLoadProfiler()) startClassLoadProfiler();
 
-            final ClassInfoList pluginClassInfos = scanPluginJars(injected);
-            final Set<? extends Class<?>> pluginClasses = preloadPluginClasses(pluginClassInfos);
-            final Set<? extends Class<?>> successfullyInjected = injectDependencies(pluginClasses);
-            final int loaded = enablePlugins(successfullyInjected).size();
+        this.fingerprints = new JarFingerprints(getDataFolder().toPath().resolve("cache").resolve("jars.manifest"));
+        this.libraryLoader = new InjectingLibraryLoader(surma,
+            getDataFolder().toPath().resolve("repository"), getDataFolder().toPath().resolve("locks"),
+            settings.resolver(), fingerprints, getLogger());
 
-            getLogger().log(Level.INFO, "Loaded {0} plugins", loaded);
+        this.bootstrap = new Bootstrap(getDataFolder().toPath(), surma, libraryLoader, fingerprints, timings,
+            getLogger());
+        this.initializer = new PluginInitializer(getDataFolder().toPath(), surma, libraryLoader, fingerprints,
+            classLoadProfiler, timings, profiler, getLogger());
+        try {
+            this.bootstrapped = bootstrap.start();
         } catch (Exception e) {
-            getLogger().log(Level.SEVERE, "Failed to enable plugins", e);
+            getLogger().log(Level.SEVERE, "Failed to start loading plugins", e);
         }
     }
 
-    private Set<? extends Class<?>> injectDependencies(final Collection<? extends Class<?>> pluginClasses) {
-        final Set<Class<?>> successful = new HashSet<>();
-        for (final Class<?> pluginClass : pluginClasses) {
-            try {
-                libraryLoader.injectDependencies(pluginClass);
-                successful.add(pluginClass);
-            } catch (Exception e) {
-                getLogger().warning("Failed to load dependencies for " + pluginClass.getName());
-            }
+    @Override
+    public void onEnable() {
+        final PluginCommand command = getCommand("vipu");
+        if (command != null) {
+            final VipuCommand executor = new VipuCommand(timings, classLoadProfiler,
+                surma != null ? surma.transformation() : null,
+                () -> lazyActivation != null ? lazyActivation.pending() : List.of(), this::footprint);
+            command.setExecutor(executor);
+            command.setTabCompleter(executor);
         }
 
-        return successful;
+        if (classLoadProfiler != null) getServer().getPluginManager().registerEvents(new Listener() {
+            @EventHandler(priority = EventPriority.MONITOR)
+            public void onServerLoad(final ServerLoadEvent event) {
+                classLoadProfiler.startupComplete();
+            }
+        }, this);
+
+        if (bootstrapped == null) return;
+        enablePlugins();
+        getServer().getPluginManager().registerEvents(new Listener() {
+            @EventHandler(priority = EventPriority.MONITOR)
+            public void onServerLoad(final ServerLoadEvent event) {
+                release();
+            }
+        }, this);
     }
 
-    private Set<URI> getPluginJars() throws IOException {
-        final Path dataFolder = getDataFolder().toPath();
-        if (!Files.exists(dataFolder) || !Files.isDirectory(dataFolder)) return Set.of();
-        try (final Stream<Path> stream = Files.list(dataFolder).filter(Files::isRegularFile)) {
-            return stream.map(Path::toUri).collect(toSet());
+    @Override
+    public void onDisable() {
+        profiler.shutdownNow();
+        if (bootstrap != null) bootstrap.close();
+        if (classLoadProfiler != null) classLoadProfiler.close();
+        if (initializer != null) {
+            initializer.close();
+            initializer.saveFingerprints();
         }
     }
 
     /**
-     * Injects the classes that should escape the plugin class loader into the server class loader.
+     * Used to prevent Vipu from re-loading plugins if the server reloads, as that's impossible.
+     * @return Whether Vipu has loaded before.
      * */
-    private void injectEscapingClasses() throws Exception {
-        surma.injectSingle(Name.class);
-        surma.injectSingle(Libraries.class);
-        surma.injectSingle(VipuPlugin.class);
+    public boolean hasLoadedBefore() {
+        try {
+            getServer().getClass().getClassLoader().loadClass(VipuPlugin.class.getName());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
     }
 
-    /**
-     * Injects the given JAR files into the server class loader.
-     * @param plugins The URIs of the JAR files to inject.
-     * @return The URIs of the JAR files that were successfully injected.
-     * */
-    private Set<URI> injectPluginJars(final Set<URI> plugins) {
-        final Set<URI> injected = new HashSet<>();
-        for (final URI uri : plugins) {
-            try {
-                surma.injectJAR(uri.toURL());
-                injected.add(uri);
-            } catch (Exception e) {
-                getLogger().log(Level.WARNING, "Failed to inject " + uri, e);
-            }
+    private void enablePlugins() {
+        try {
+            if (!bootstrapped.isDone()) getLogger().info("Waiting for plugin libraries...");
+            final List<Bootstrap.Ready> successfullyInjected = bootstrapped.join();
+            bootstrap.close();
+
+            final CompletableFuture<Integer> warmStart = initializer.initialize(bootstrap, successfullyInjected,
+                this::deferPlugins).warmStart();
+            if (warmStart != null) getServer().getPluginManager().registerEvents(new Listener() {
+                @EventHandler(priority = EventPriority.LOWEST)
+                public void onServerLoad(final ServerLoadEvent event) {
+                    awaitWarmStart(warmStart);
+                }
+            }, this);
+        } catch (Exception e) {
+            getLogger().log(Level.SEVERE, "Failed to enable plugins",
+                e instanceof CompletionException ? e.getCause() : e);
         }
 
-        return injected;
-    }
+        initializer.saveFingerprints();
+
+        for (final StartupTimings.PhaseTiming phase : timings.snapshot()) {
+            getLogger().log(Level.FINE, "{0} took {1} ms", new Object[] {
+                phase.phase().label(), phase.wallTime().toMillis()
+            });
+        }
 
+        writeTimings();
+    }
 
     /**
-     * Scans the given JAR files for classes that implement {@link VipuPlugin}.
-     * @param uris The URIs of the JAR files to scan.
-     * @return The classes that implement {@link VipuPlugin}, as a {@link ClassInfoList}.
+     * Registers the triggers of the plugins that are initialised on demand with the server.
+     * @param deferred The plugins that are initialised on demand.
+     * @throws ReflectiveOperationException If the activator could not be set on the injected {@link Services}.
      * */
-    private ClassInfoList scanPluginJars(final Set<URI> uris) {
-        final ClassGraph classGraph = new ClassGraph()
-            .enableAnnotationInfo()
-            .enableClassInfo();
-
-        for (final URI uri : uris) {
-            classGraph.overrideClasspath(uri);
-        }
-
-        try (final ScanResult result = classGraph.scan()) {
-            return result.getClassesImplementing(VipuPlugin.class);
-        }
+    private void deferPlugins(final List<Bootstrap.Deferred> deferred) throws ReflectiveOperationException {
+        final LazyActivation activation = new LazyActivation(this, surma, libraryLoader, timings, getLogger());
+        activation.register(deferred);
+        this.lazyActivation = activation;
     }
 
     /**
-     * Loads the given classes without initialising them.
-     * @param plugins The classes to load.
-     * @return The classes that were successfully loaded.
+     * Releases what only startup needed once the server has started, then estimates the heap Vipu still retains
+     * in the background and logs it.
      * */
-    private Set<? extends Class<?>> preloadPluginClasses(final ClassInfoList plugins) {
-        return Functional.map(plugins.stream(), this::preloadedClass, (plugin, e) ->
-            getLogger().warning("Failed to load class " + plugin.getName())).collect(toSet());
+    private void release() {
+        this.bootstrap = null;
+        this.bootstrapped = null;
+        initializer.release();
+
+        footprint().whenComplete((parts, e) -> {
+            if (e != null) {
+                getLogger().log(Level.WARNING, "Failed to estimate the heap retained by Vipu", e);
+                return;
+            }
+
+            final long retained = parts.stream().mapToLong(HeapFootprint.Part::bytes).sum();
+            timings.count(Phase.RELEASE, Counter.BYTES_RETAINED, retained);
+            getLogger().log(Level.INFO, "Released startup resources, Vipu retains about {0} of heap",
+                Bootstrap.bytes(retained));
+            for (final HeapFootprint.Part part : parts) {
+                getLogger().log(Level.FINE, "  {0}: {1} in {2} objects", new Object[] {
+                    part.name(), Bootstrap.bytes(part.bytes()), part.objects()
+                });
+            }
+
+            writeTimings();
+        });
     }
 
     /**
-     * Constructs and enables the given plugins from their classes.
-     * @param pluginClasses The classes of the plugins to enable.
-     * @return The classes of the plugins that were successfully enabled.
+     * Estimates the heap retained by each part of Vipu on the profiler thread, so that the walk does not hold up
+     * the server thread.
+     * @return A future of the estimate of each part.
      * */
-    private Set<Class<?>> enablePlugins(final Set<? extends Class<?>> pluginClasses) {
-        return Functional.map(pluginClasses.stream(), this::enablePlugin, (plugin, e) ->
-            getLogger().warning("Failed to enable " + plugin.getName())).collect(toSet());
+    private CompletableFuture<List<HeapFootprint.Part>> footprint() {
+        final Map<String, Object> parts = new LinkedHashMap<>();
+        parts.put("Startup timings", timings);
+        parts.put("Class injection", surma);
+        parts.put("JAR fingerprints", fingerprints);
+        parts.put("Library loader", libraryLoader);
+        parts.put("Lazy activation", lazyActivation);
+        parts.put("Class-load profiler", classLoadProfiler);
+        parts.put("Bootstrap", bootstrap);
+        return CompletableFuture.supplyAsync(() -> HeapFootprint.measure(parts), profiler);
     }
 
     /**
-     * Constructs and enables the given plugin from its class.
-     * @param pluginClass The class of the plugin to enable.
-     * @return The class of the plugin that was enabled.
+     * Writes the startup timings to <code>timings.json</code> in the data folder, so that they can be
+     * compared across deploys.
      * */
-    private Class<?> enablePlugin(final Class<?> pluginClass) throws Exception {
-        return initialize(pluginClass);
+    private void writeTimings() {
+        try {
+            Files.createDirectories(getDataFolder().toPath());
+            Files.writeString(getDataFolder().toPath().resolve("timings.json"),
+                new GsonBuilder().setPrettyPrinting().create().toJson(timings.toJson()));
+        } catch (IOException e) {
+            getLogger().log(Level.WARNING, "Failed to write startup timings", e);
+        }
     }
 
-    @NotNull
-    private Class<?> preloadedClass(final ClassInfo info) throws ClassNotFoundException {
-        return Class.forName(info.getName(), false, surma.getTarget());
+    private void startClassLoadProfiler() {
+        try {
+            final ClassLoadProfiler profiler = new ClassLoadProfiler(surma);
+            profiler.start();
+            this.classLoadProfiler = profiler;
+        } catch (RuntimeException e) {
+            getLogger().log(Level.WARNING, "Failed to start profiling class loading", e);
+        }
     }
 
-    @NotNull
-    private Class<?> initialize(final Class<?> clazz) throws ClassNotFoundException {
-        return Class.forName(clazz.getName(), true, clazz.getClassLoader());
+    private void awaitWarmStart(final CompletableFuture<Integer> warmed) {
+        try {
+            getLogger().log(Level.INFO, "Preloaded {0} classes",
+                warmed.get(WARM_START_TIMEOUT.toMillis(), MILLISECONDS));
+            writeTimings();
+        } catch (TimeoutException e) {
+            getLogger().log(Level.WARNING, "Preloading classes took longer than {0} seconds, " +
+                "continuing in the background", WARM_START_TIMEOUT.toSeconds());
+        } catch (ExecutionException e) {
+            getLogger().log(Level.WARNING, "Failed to preload classes", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
-}
\ No newline at end of file
+}
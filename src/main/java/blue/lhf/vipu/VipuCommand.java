@@ -0,0 +1,192 @@
+package blue.lhf.vipu;
+
+import blue.lhf.vipu.black_magic.ClassTransformation;
+import blue.lhf.vipu.profiling.*;
+import blue.lhf.vipu.timings.*;
+import org.bukkit.ChatColor;
+import org.bukkit.command.*;
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.*;
+
+import static java.util.stream.Collectors.*;
+
+/**
+ * The <code>/vipu</code> command, for inspecting Vipu on a running server.
+ * */
+public class VipuCommand implements TabExecutor {
+    private final Map<String, Consumer<CommandSender>> subcommands = new LinkedHashMap<>();
+    private final StartupTimings timings;
+    private final ClassLoadProfiler classLoadProfiler;
+    private final ClassTransformation transformation;
+    private final Supplier<List<String>> deferred;
+    private final Supplier<CompletableFuture<List<HeapFootprint.Part>>> footprint;
+
+    /**
+     * @param timings The startup timings to report.
+     * @param classLoadProfiler The class-load profiler to report,
+     *                          or <code>null</code> if class loading is not profiled.
+     * @param transformation The class transformation to report, or <code>null</code> if Vipu did not load.
+     * @param deferred The names of the plugins that have not been activated yet.
+     * @param footprint Estimates the heap retained by each part of Vipu in the background.
+     * */
+    public VipuCommand(final StartupTimings timings, final ClassLoadProfiler classLoadProfiler,
+                       final ClassTransformation transformation, final Supplier<List<String>> deferred,
+                       final Supplier<CompletableFuture<List<HeapFootprint.Part>>> footprint) {
+        this.timings = timings;
+        this.classLoadProfiler = classLoadProfiler;
+        this.transformation = transformation;
+        this.deferred = deferred;
+        this.footprint = footprint;
+        subcommands.put("timings", this::timings);
+        subcommands.put("classes", this::classes);
+        subcommands.put("transformers", this::transformers);
+        subcommands.put("deferred", this::deferred);
+        subcommands.put("memory", this::memory);
+    }
+
+    @Override
+    public boolean onCommand(@NotNull final CommandSender sender, @NotNull final Command command,
+                             @NotNull final String label, @NotNull final String[] args) {
+        if (args.length != 1) return false;
+        final Consumer<CommandSender> subcommand = subcommands.get(args[0].toLowerCase(Locale.ROOT));
+        if (subcommand == null) return false;
+
+        subcommand.accept(sender);
+        return true;
+    }
+
+    @Override
+    public List<String> onTabComplete(@NotNull final CommandSender sender, @NotNull final Command command,
+                                      @NotNull final String label, @NotNull final String[] args) {
+        if (args.length != 1) return List.of();
+        final String prefix = args[0].toLowerCase(Locale.ROOT);
+        return subcommands.keySet().stream().filter(name -> name.startsWith(prefix)).toList();
+    }
+
+    private void timings(final CommandSender sender) {
+        final List<StartupTimings.PhaseTiming> phases = timings.snapshot();
+        if (phases.isEmpty()) {
+            sender.sendMessage(ChatColor.GRAY + "Vipu has not loaded any plugins yet.");
+            return;
+        }
+
+        sender.sendMessage(ChatColor.GOLD + "Vipu startup timings:");
+        for (final StartupTimings.PhaseTiming phase : phases) {
+            sender.sendMessage(ChatColor.YELLOW + phase.phase().label() + ": " + ChatColor.WHITE
+                + phase.wallTime().toMillis() + " ms " + ChatColor.GRAY + describe(phase.counters()));
+
+            phase.subjects().stream()
+                 .sorted(Comparator.comparing(StartupTimings.SubjectTiming::wallTime).reversed())
+                 .limit(5)
+                 .forEach(subject -> sender.sendMessage(ChatColor.GRAY + "  " + subject.subject() + ": "
+                     + ChatColor.WHITE + subject.wallTime().toMillis() + " ms " + ChatColor.GRAY
+                     + describe(subject.counters())));
+        }
+    }
+
+    private void classes(final CommandSender sender) {
+        if (classLoadProfiler == null) {
+            sender.sendMessage(ChatColor.GRAY + "Class loading is not profiled. Set profiling.class-loading "
+                + "to true in Vipu's config.yml and restart the server.");
+            return;
+        }
+
+        final List<ClassLoadProfiler.JarUsage> jars = classLoadProfiler.snapshot();
+        if (jars.isEmpty()) {
+            sender.sendMessage(ChatColor.GRAY + "Vipu has not injected any JARs yet.");
+            return;
+        }
+
+        sender.sendMessage(ChatColor.GOLD + "Vipu class loading by owner:");
+        jars.stream().collect(groupingBy(ClassLoadProfiler.JarUsage::owner, LinkedHashMap::new, toList()))
+            .forEach((owner, owned) -> sender.sendMessage(ChatColor.YELLOW + owner + ": " + describe(owned)));
+
+        sender.sendMessage(ChatColor.GOLD + "Busiest JARs:");
+        jars.stream()
+            .sorted(Comparator.comparingLong(ClassLoadProfiler.JarUsage::classesDefined).reversed())
+            .limit(5)
+            .forEach(jar -> sender.sendMessage(ChatColor.GRAY + "  " + jar.jar().getFileName() + ": "
+                + describe(List.of(jar))));
+
+        classLoadProfiler.resourceMisses().ifPresent(misses -> sender.sendMessage(ChatColor.GRAY
+            + "Resource lookups not found in any JAR: " + ChatColor.WHITE + misses));
+    }
+
+    private void transformers(final CommandSender sender) {
+        final List<ClassTransformation.TransformerTiming> transformers = transformation == null ? List.of()
+            : transformation.timings();
+        if (transformers.isEmpty()) {
+            sender.sendMessage(ChatColor.GRAY + "No class transformers have run.");
+            return;
+        }
+
+        sender.sendMessage(ChatColor.GOLD + "Vipu class transformers:");
+        transformers.stream()
+            .sorted(Comparator.comparing(ClassTransformation.TransformerTiming::time).reversed())
+            .forEach(transformer -> sender.sendMessage(ChatColor.YELLOW + transformer.transformer() + ": "
+                + ChatColor.WHITE + transformer.time().toMillis() + " ms " + ChatColor.GRAY + "("
+                + transformer.classes() + " classes, " + transformer.failures() + " failures)"));
+        sender.sendMessage(ChatColor.GRAY + "Cached classes: " + ChatColor.WHITE + transformation.cacheHits()
+            + ChatColor.GRAY + ", transformed: " + ChatColor.WHITE + transformation.cacheMisses());
+    }
+
+    private void deferred(final CommandSender sender) {
+        final List<String> pending = deferred.get();
+        if (pending.isEmpty()) {
+            sender.sendMessage(ChatColor.GRAY + "No plugins are waiting to be activated.");
+            return;
+        }
+
+        sender.sendMessage(ChatColor.GOLD + "Plugins waiting to be activated: " + ChatColor.WHITE
+            + String.join(", ", pending));
+    }
+
+    private void memory(final CommandSender sender) {
+        sender.sendMessage(ChatColor.GRAY + "Estimating the heap retained by Vipu...");
+        footprint.get().whenComplete((parts, e) -> {
+            if (e != null) {
+                sender.sendMessage(ChatColor.RED + "Failed to estimate the heap retained by Vipu: " + e);
+                return;
+            }
+
+            sender.sendMessage(ChatColor.GOLD + "Estimated heap retained by Vipu: " + ChatColor.WHITE
+                + Bootstrap.bytes(parts.stream().mapToLong(HeapFootprint.Part::bytes).sum()));
+            for (final HeapFootprint.Part part : parts) {
+                sender.sendMessage(ChatColor.YELLOW + part.name() + ": " + ChatColor.WHITE
+                    + Bootstrap.bytes(part.bytes()) + ChatColor.GRAY + " (" + part.objects() + " objects)");
+            }
+        });
+    }
+
+    private static String describe(final List<ClassLoadProfiler.JarUsage> jars) {
+        long classes = 0, afterStartup = 0, hits = 0, metaspace = 0;
+        Duration loadTime = Duration.ZERO;
+        for (final ClassLoadProfiler.JarUsage jar : jars) {
+            classes += jar.classesDefined();
+            afterStartup += jar.classesDefinedAfterStartup();
+            hits += jar.resourceHits();
+            metaspace += jar.metaspaceEstimate();
+            loadTime = loadTime.plus(jar.loadTime());
+        }
+
+        return ChatColor.WHITE + "" + classes + " classes " + ChatColor.GRAY + "(" + afterStartup + " after startup, "
+            + loadTime.toMillis() + " ms loading, ~" + Bootstrap.bytes(metaspace) + " metaspace, "
+            + hits + " resource hits)";
+    }
+
+    private static String describe(final Map<Counter, Long> counters) {
+        final StringJoiner joiner = new StringJoiner(", ", "(", ")").setEmptyValue("");
+        for (final Counter counter : Counter.values()) {
+            final Long amount = counters.get(counter);
+            if (amount != null && amount != 0) {
+                joiner.add(counter.name().toLowerCase(Locale.ROOT).replace('_', ' ') + " " + amount);
+            }
+        }
+
+        return joiner.toString();
+    }
+}
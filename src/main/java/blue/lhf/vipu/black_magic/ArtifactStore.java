@@ -0,0 +1,314 @@
+package blue.lhf.vipu.black_magic;
+
+import blue.lhf.vipu.scanning.JarFingerprints;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.metadata.Metadata;
+import org.eclipse.aether.repository.*;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A content-addressed store of library artifacts that many servers on the same host share.
+ * <p>
+ *     Every artifact is stored once under <code>objects/</code>, named by its SHA-256, and <code>refs/</code> maps
+ *     the repository path of each artifact to the checksum of its content. The local repository of each server is
+ *     {@link #wrap(LocalRepositoryManager) wrapped} so that an artifact it lacks is hardlinked from the store instead
+ *     of downloaded, and an artifact it downloads is moved into the store and hardlinked back. Identical JARs are
+ *     therefore kept on disk, and in the page cache, only once. Where hardlinks are not supported, such as across
+ *     file systems, artifacts are copied into the store and used from there.
+ * </p>
+ * <p>
+ *     Objects are never modified once written, and objects and refs are created atomically, so servers can read and
+ *     add to the store at the same time. To avoid downloading the same artifacts many times when servers start at
+ *     once, resolutions are additionally serialised across processes with {@link #lock(String)}. Snapshot artifacts
+ *     are not shared, since their content changes under the same path.
+ * </p>
+ * */
+final class ArtifactStore {
+    private static final String OBJECTS = "objects";
+    private static final String REFS = "refs";
+    private static final String LOCKS = "locks";
+
+    private final Path root;
+    private final JarFingerprints fingerprints;
+    private final Logger logger;
+    private final Map<String, ReentrantLock> held = new ConcurrentHashMap<>();
+
+    /**
+     * @param root The directory of the store, which is created if it does not exist.
+     * @param fingerprints The fingerprints to take the checksums of stored artifacts from.
+     * @param logger The logger to report failures to share an artifact to.
+     * */
+    ArtifactStore(final Path root, final JarFingerprints fingerprints, final Logger logger) {
+        this.root = root.toAbsolutePath();
+        this.fingerprints = fingerprints;
+        this.logger = logger;
+    }
+
+    /**
+     * Waits until no other thread or process holds the lock with the given key, and takes it.
+     * @param key The key of the lock, which must be a valid file name.
+     * @return The taken lock, which is released when closed.
+     * @throws IOException If the lock file could not be opened or locked.
+     * */
+    Lock lock(final String key) throws IOException {
+        final ReentrantLock local = held.computeIfAbsent(key, ignored -> new ReentrantLock());
+        local.lock();
+        try {
+            final Path file = root.resolve(LOCKS).resolve(key + ".lock");
+            Files.createDirectories(file.getParent());
+            final FileChannel channel = FileChannel.open(file, CREATE, WRITE);
+            try {
+                if (channel.tryLock() == null) {
+                    logger.log(Level.INFO, "Waiting for another server to finish resolving the same libraries");
+                    channel.lock();
+                }
+
+                return new Lock(local, channel);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            local.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The stored object of the artifact at the given repository path, or <code>null</code> if it has not
+     *         been stored.
+     * @param path The path of the artifact, relative to a local repository.
+     * */
+    Path stored(final String path) {
+        final Path ref = root.resolve(REFS).resolve(path);
+        try {
+            if (!Files.isRegularFile(ref)) return null;
+            final String[] parts = Files.readString(ref, UTF_8).trim().split(" ");
+            if (parts.length != 2) return null;
+
+            final Path object = object(parts[0]);
+            return Files.isRegularFile(object) && Files.size(object) == Long.parseLong(parts[1]) ? object : null;
+        } catch (IOException | NumberFormatException | InvalidPathException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Moves an artifact into the store, if its content is not stored yet, and replaces it with a hardlink to the
+     * stored object.
+     * @param path The path of the artifact, relative to a local repository.
+     * @param artifact The artifact file.
+     * @throws IOException If the artifact could not be stored.
+     * */
+    void store(final String path, final Path artifact) throws IOException {
+        final String sha = fingerprints.fingerprint(artifact).sha256();
+        final Path object = object(sha);
+        Files.createDirectories(object.getParent());
+        if (!Files.exists(object)) {
+            try {
+                Files.createLink(object, artifact);
+            } catch (FileAlreadyExistsException ignored) {
+            } catch (UnsupportedOperationException | IOException e) {
+                copyAtomically(artifact, object);
+            }
+        }
+
+        if (!Files.isSameFile(object, artifact)) link(object, artifact);
+        writeAtomically(root.resolve(REFS).resolve(path), sha + " " + Files.size(object));
+    }
+
+    /**
+     * Removes an artifact from the store, such as when its content was found to be tampered with. Servers that
+     * already hardlinked the object keep their copy.
+     * @param path The path of the artifact, relative to a local repository.
+     * @throws IOException If the artifact could not be removed.
+     * */
+    void forget(final String path) throws IOException {
+        final Path object = stored(path);
+        Files.deleteIfExists(root.resolve(REFS).resolve(path));
+        if (object != null) Files.deleteIfExists(object);
+    }
+
+    /**
+     * Replaces a file with a hardlink to a stored object.
+     * @param object The stored object.
+     * @param target The file to replace.
+     * @return Whether the file is now a hardlink to the object.
+     * */
+    boolean link(final Path object, final Path target) {
+        try {
+            Files.createDirectories(target.getParent());
+            final Path temporary = target.resolveSibling(target.getFileName() + "." + UUID.randomUUID() + ".tmp");
+            try {
+                Files.createLink(temporary, object);
+                Files.move(temporary, target, REPLACE_EXISTING, ATOMIC_MOVE);
+                return true;
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (UnsupportedOperationException | IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return A local repository manager that shares the artifacts of the given one through this store.
+     * @param local The local repository manager of a server.
+     * */
+    LocalRepositoryManager wrap(final LocalRepositoryManager local) {
+        return new Shared(local);
+    }
+
+    private Path object(final String sha) {
+        if (sha.length() != 64 || !sha.chars().allMatch(HexFormat::isHexDigit)) {
+            throw new InvalidPathException(sha, "Not a SHA-256 checksum");
+        }
+
+        return root.resolve(OBJECTS).resolve(sha.substring(0, 2)).resolve(sha);
+    }
+
+    private static void copyAtomically(final Path source, final Path target) throws IOException {
+        final Path temporary = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            Files.copy(source, temporary, REPLACE_EXISTING);
+            Files.move(temporary, target, ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException ignored) {
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static void writeAtomically(final Path target, final String content) throws IOException {
+        Files.createDirectories(target.getParent());
+        final Path temporary = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            Files.writeString(temporary, content, UTF_8);
+            Files.move(temporary, target, REPLACE_EXISTING, ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * A lock taken with {@link #lock(String)}.
+     * */
+    static final class Lock implements AutoCloseable {
+        private final ReentrantLock local;
+        private final FileChannel channel;
+
+        private Lock(final ReentrantLock local, final FileChannel channel) {
+            this.local = local;
+            this.channel = channel;
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            } finally {
+                local.unlock();
+            }
+        }
+    }
+
+    /**
+     * A local repository manager that takes missing artifacts from the store, and adds new artifacts to it.
+     * */
+    private final class Shared implements LocalRepositoryManager {
+        private final LocalRepositoryManager local;
+
+        private Shared(final LocalRepositoryManager local) {
+            this.local = local;
+        }
+
+        @Override
+        public LocalArtifactResult find(final RepositorySystemSession session, final LocalArtifactRequest request) {
+            final LocalArtifactResult result = local.find(session, request);
+            final Artifact artifact = request.getArtifact();
+            if (artifact.isSnapshot()) return result;
+
+            final String path = local.getPathForLocalArtifact(artifact);
+            if (result.isAvailable()) {
+                if (result.getFile() != null && stored(path) == null) share(path, result.getFile().toPath());
+                return result;
+            }
+
+            final Path object = stored(path);
+            if (object == null) return result;
+
+            final Path target = new File(local.getRepository().getBasedir(), path).toPath();
+            return new LocalArtifactResult(request).setAvailable(true)
+                                                   .setFile((link(object, target) ? target : object).toFile());
+        }
+
+        @Override
+        public void add(final RepositorySystemSession session, final LocalArtifactRegistration registration) {
+            local.add(session, registration);
+            final Artifact artifact = registration.getArtifact();
+            if (artifact.isSnapshot()) return;
+
+            final String path = local.getPathForLocalArtifact(artifact);
+            final File file = artifact.getFile() != null ? artifact.getFile()
+                : new File(local.getRepository().getBasedir(), path);
+            if (file.isFile()) share(path, file.toPath());
+        }
+
+        private void share(final String path, final Path file) {
+            try {
+                store(path, file);
+            } catch (IOException | RuntimeException e) {
+                logger.log(Level.WARNING, "Failed to add " + path + " to the library store", e);
+            }
+        }
+
+        @Override
+        public LocalRepository getRepository() {
+            return local.getRepository();
+        }
+
+        @Override
+        public String getPathForLocalArtifact(final Artifact artifact) {
+            return local.getPathForLocalArtifact(artifact);
+        }
+
+        @Override
+        public String getPathForRemoteArtifact(final Artifact artifact, final RemoteRepository repository,
+                                               final String context) {
+            return local.getPathForRemoteArtifact(artifact, repository, context);
+        }
+
+        @Override
+        public String getPathForLocalMetadata(final Metadata metadata) {
+            return local.getPathForLocalMetadata(metadata);
+        }
+
+        @Override
+        public String getPathForRemoteMetadata(final Metadata metadata, final RemoteRepository repository,
+                                               final String context) {
+            return local.getPathForRemoteMetadata(metadata, repository, context);
+        }
+
+        @Override
+        public LocalMetadataResult find(final RepositorySystemSession session, final LocalMetadataRequest request) {
+            return local.find(session, request);
+        }
+
+        @Override
+        public void add(final RepositorySystemSession session, final LocalMetadataRegistration registration) {
+            local.add(session, registration);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package blue.lhf.vipu.black_magic;
+
+import blue.lhf.vipu.scanning.ClassHeader;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.file.*;
+import java.security.CodeSource;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+import java.util.zip.*;
+
+import static blue.lhf.vipu.Threads.daemonFactory;
+
+/**
+ * Reads the bytecode of a set of classes for {@link Surma#injectAll(Collection)} and
+ * {@link Surma#injectPackage(Class)}, and orders the classes so that they can be defined one after another.
+ * <p>
+ *     Bytecode is read in parallel, straight from the JAR files or class directories the classes were loaded from,
+ *     with each JAR opened once for the whole batch. Classes whose code source is not a local file are read through
+ *     their class loader instead. Every class is passed through the {@link ClassTransformation} as it is read, so
+ *     that it is ordered by its transformed superclass and interfaces.
+ * </p>
+ * */
+final class ClassBatch {
+    private static final String CLASS_SUFFIX = ".class";
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    private ClassBatch() {
+
+    }
+
+    /**
+     * A class to read.
+     * @param className The binary name of the class.
+     * @param location The JAR file or class directory that contains the class, or <code>null</code> to read it
+     *                 through the class loader of <code>loaded</code>.
+     * @param loaded The class itself, or <code>null</code> if it has not been loaded.
+     * */
+    record Source(String className, Path location, Class<?> loaded) {
+        /**
+         * @return Where to read the given loaded class from.
+         * @param clazz The class.
+         * */
+        static Source of(final Class<?> clazz) {
+            return new Source(clazz.getName(), ClassBatch.location(clazz), clazz);
+        }
+
+        private String entryName() {
+            return className.replace('.', '/') + CLASS_SUFFIX;
+        }
+    }
+
+    /**
+     * The bytecode of a class, ready to be defined.
+     * @param className The binary name of the class.
+     * @param bytecode The bytecode of the class, after transformation.
+     * @param header The header of the bytecode.
+     * */
+    record Bytecode(String className, byte[] bytecode, ClassHeader header) {
+    }
+
+    /**
+     * Lists the classes in the package of the given class, including nested classes but excluding subpackages,
+     * from the JAR file or class directory the class was loaded from.
+     * @param member A class in the package.
+     * @return The classes in the package, in no particular order.
+     * @throws IOException If the classes of the package could not be listed.
+     * */
+    static List<Source> packageSources(final Class<?> member) throws IOException {
+        final Path location = location(member);
+        if (location == null) {
+            throw new IOException("Cannot list the package of " + member.getName() + ", since it was not loaded "
+                + "from a local JAR file or directory");
+        }
+
+        final String prefix = member.getPackageName().isEmpty() ? ""
+            : member.getPackageName().replace('.', '/') + "/";
+        final List<String> entries = new ArrayList<>();
+        if (Files.isDirectory(location)) {
+            final Path directory = location.resolve(prefix);
+            try (final Stream<Path> files = Files.list(directory)) {
+                files.map(file -> prefix + file.getFileName()).forEach(entries::add);
+            }
+        } else try (final ZipFile zip = new ZipFile(location.toFile())) {
+            final Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+            while (zipEntries.hasMoreElements()) entries.add(zipEntries.nextElement().getName());
+        }
+
+        final List<Source> sources = new ArrayList<>();
+        for (final String entry : entries) {
+            if (!entry.startsWith(prefix) || !entry.endsWith(CLASS_SUFFIX)) continue;
+            final String simpleName = entry.substring(prefix.length(), entry.length() - CLASS_SUFFIX.length());
+            if (simpleName.contains("/") || simpleName.equals("package-info") || simpleName.equals("module-info")) {
+                continue;
+            }
+
+            sources.add(new Source((prefix + simpleName).replace('/', '.'), location, null));
+        }
+
+        return sources;
+    }
+
+    /**
+     * Reads and transforms the bytecode of the given classes in parallel.
+     * @param sources The classes to read.
+     * @param transformation The transformation to pass each class through.
+     * @return The bytecode of each class, in the order of the sources.
+     * @throws IOException If the bytecode of a class could not be read or parsed.
+     * */
+    static List<Bytecode> read(final List<Source> sources, final ClassTransformation transformation)
+        throws IOException {
+        final Map<Path, ZipFile> jars = new HashMap<>();
+        final ExecutorService executor = sources.size() > 1
+            ? Executors.newFixedThreadPool(Math.min(PARALLELISM, sources.size()), daemonFactory("Vipu Escaping"))
+            : null;
+        try {
+            for (final Source source : sources) {
+                if (source.location() != null && !Files.isDirectory(source.location())
+                    && !jars.containsKey(source.location())) {
+                    jars.put(source.location(), new ZipFile(source.location().toFile()));
+                }
+            }
+
+            if (executor == null) {
+                final List<Bytecode> read = new ArrayList<>();
+                for (final Source source : sources) {
+                    read.add(read(source, jars.get(source.location()), transformation));
+                }
+
+                return read;
+            }
+
+            final List<Future<Bytecode>> pending = new ArrayList<>();
+            for (final Source source : sources) {
+                pending.add(executor.submit(() -> read(source, jars.get(source.location()), transformation)));
+            }
+
+            final List<Bytecode> read = new ArrayList<>();
+            for (final Future<Bytecode> future : pending) read.add(future.get());
+            return read;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) throw cause;
+            throw new IOException("Failed to read a class", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading classes");
+        } finally {
+            if (executor != null) executor.shutdownNow();
+            for (final ZipFile jar : jars.values()) {
+                try {
+                    jar.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static Bytecode read(final Source source, final ZipFile jar, final ClassTransformation transformation)
+        throws IOException {
+        final byte[] original;
+        if (jar != null) {
+            final ZipEntry entry = jar.getEntry(source.entryName());
+            if (entry == null) throw new FileNotFoundException(source.entryName() + " in " + jar.getName());
+            try (final InputStream stream = jar.getInputStream(entry)) {
+                original = stream.readAllBytes();
+            }
+        } else if (source.location() != null) {
+            original = Files.readAllBytes(source.location().resolve(source.entryName()));
+        } else if (source.loaded() != null) {
+            original = Surma.getBytecode(source.loaded());
+        } else {
+            throw new FileNotFoundException(source.entryName());
+        }
+
+        final byte[] transformed = transformation.transform(source.className(), () -> original);
+        final byte[] bytecode = transformed != null ? transformed : original;
+        final ClassHeader header = ClassHeader.parse(bytecode);
+        final String internalName = source.className().replace('.', '/');
+        if (!header.name().equals(internalName)) throw new IOException(internalName + " contains " + header.name());
+
+        return new Bytecode(source.className(), bytecode, header);
+    }
+
+    /**
+     * Orders classes so that the superclass and interfaces of every class come before it, if they are in the batch.
+     * Classes that do not depend on each other keep their order by name, so that the order is deterministic.
+     * @param batch The classes to order.
+     * @return The ordered classes.
+     * */
+    static List<Bytecode> ordered(final Collection<Bytecode> batch) {
+        final Map<String, Bytecode> byName = new TreeMap<>();
+        for (final Bytecode bytecode : batch) byName.put(bytecode.header().name(), bytecode);
+
+        final List<Bytecode> ordered = new ArrayList<>(byName.size());
+        final Set<String> visited = new HashSet<>();
+        for (final String name : byName.keySet()) visit(name, byName, visited, ordered);
+        return ordered;
+    }
+
+    private static void visit(final String name, final Map<String, Bytecode> byName, final Set<String> visited,
+                              final List<Bytecode> ordered) {
+        final Bytecode bytecode = byName.get(name);
+        if (bytecode == null || !visited.add(name)) return;
+
+        final ClassHeader header = bytecode.header();
+        if (header.superName() != null) visit(header.superName(), byName, visited, ordered);
+        for (final String superInterface : header.interfaces()) visit(superInterface, byName, visited, ordered);
+        ordered.add(bytecode);
+    }
+
+    /**
+     * @return The local JAR file or class directory the given class was loaded from, or <code>null</code> if it was
+     *         not loaded from one.
+     * */
+    private static Path location(final Class<?> clazz) {
+        final CodeSource codeSource = clazz.getProtectionDomain().getCodeSource();
+        if (codeSource == null || codeSource.getLocation() == null) return null;
+        if (!"file".equals(codeSource.getLocation().getProtocol())) return null;
+        try {
+            final Path path = Path.of(codeSource.getLocation().toURI());
+            return Files.exists(path) ? path : null;
+        } catch (URISyntaxException | IllegalArgumentException | FileSystemNotFoundException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package blue.lhf.vipu.black_magic;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.jar.*;
+import java.util.zip.ZipFile;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A single class path element that serves the classes and resources of many JARs, looked up by package.
+ * <p>
+ *     A {@link URLClassLoader} tries each of its URLs in order, so every JAR injected as its own URL makes every
+ *     lookup that misses it, including lookups of the server's own classes, a little slower. JARs added to this
+ *     index are instead served through URLs with the <code>vipu-index</code> protocol, which find the JARs that
+ *     contain a resource's package with one hash lookup and fail immediately if there are none.
+ * </p>
+ * <p>
+ *     Each URL is a <em>layer</em>. The first layer serves the first occurrence of every resource, so that class
+ *     loading behaves as if the JARs had been added in order. {@link ClassLoader#getResources(String)} expects one
+ *     result per class path element, so further layers serve the further occurrences of service provider files in
+ *     <code>META-INF/services/</code>, and nothing else, so that {@link ServiceLoader} still finds every provider.
+ * </p>
+ * <p>
+ *     Classes loaded through the index have the index as their code source, have no code signers, and do not
+ *     inherit package attributes from JAR manifests. Multi-release JARs are read for the running Java version.
+ * </p>
+ * <p>
+ *     The index counts the resources each JAR serves, and the lookups that no JAR could serve, so that the
+ *     resource traffic of injected JARs can be profiled. Classes are passed through a {@link ClassTransformation}
+ *     as they are served.
+ * </p>
+ * */
+final class ClassPathIndex extends URLStreamHandler {
+    private static final String PROTOCOL = "vipu-index";
+    private static final String SERVICES = "META-INF/services/";
+    private static final String CLASS_SUFFIX = ".class";
+
+    private final ClassTransformation transformation;
+
+    /** The JARs that contain each package, in the order they were added. */
+    private final Map<String, List<Jar>> packages = new ConcurrentHashMap<>();
+
+    /** The JARs in the order they were added. */
+    private final List<Jar> jars = new CopyOnWriteArrayList<>();
+
+    /** How many resources were looked up in the first layer without being found. */
+    private final LongAdder misses = new LongAdder();
+
+    /** How many of the added JARs contain each service provider file. */
+    private final Map<String, Integer> services = new HashMap<>();
+
+    private int layers = 1;
+
+    /**
+     * @param transformation The transformation to pass the classes of the added JARs through.
+     * */
+    ClassPathIndex(final ClassTransformation transformation) {
+        this.transformation = transformation;
+    }
+
+    /**
+     * Adds a JAR to the index. Its resources are served after those of previously added JARs.
+     * @param jar The JAR to add. It is kept open for the lifetime of the index.
+     * @return The number of layers the index needs after adding the JAR.
+     * @throws IOException If the JAR could not be read.
+     * */
+    synchronized int add(final Path jar) throws IOException {
+        final Jar file = new Jar(jar, new JarFile(jar.toFile(), true, ZipFile.OPEN_READ, Runtime.version()),
+            new LongAdder());
+        jars.add(file);
+
+        final Set<String> seen = new HashSet<>();
+        file.file().versionedStream().map(JarEntry::getName).forEach(name -> {
+            final String pkg = packageOf(name);
+            if (seen.add(pkg)) packages.computeIfAbsent(pkg, ignored -> new CopyOnWriteArrayList<>()).add(file);
+            if (name.startsWith(SERVICES)) layers = Math.max(layers, services.merge(name, 1, Integer::sum));
+        });
+
+        return layers;
+    }
+
+    /**
+     * @return The URL of the given layer, to be added to the class loader.
+     * @param layer The index of the layer, starting from zero.
+     * */
+    URL layer(final int layer) {
+        try {
+            return new URL(PROTOCOL, null, -1, "/" + layer + "/", this);
+        } catch (MalformedURLException e) {
+            throw new AssertionError("Index URL was not valid?", e);
+        }
+    }
+
+    /**
+     * @return How many resources each added JAR has served, by the path of the JAR, in the order they were added.
+     * */
+    Map<Path, Long> hits() {
+        final Map<Path, Long> hits = new LinkedHashMap<>();
+        for (final Jar jar : jars) hits.put(jar.path(), jar.hits().sum());
+        return hits;
+    }
+
+    /**
+     * @return How many resources were looked up without being found in any of the added JARs.
+     * */
+    long misses() {
+        return misses.sum();
+    }
+
+    @Override
+    protected URLConnection openConnection(final URL url) {
+        return new Connection(url);
+    }
+
+    private Located find(final int layer, final String name) {
+        if (layer > 0 && !name.startsWith(SERVICES)) return null;
+        final List<Jar> candidates = packages.getOrDefault(packageOf(name), List.of());
+
+        int skip = layer;
+        for (final Jar jar : candidates) {
+            final JarEntry entry = jar.file().getJarEntry(name);
+            if (entry != null && skip-- == 0) {
+                jar.hits().increment();
+                return new Located(jar.file(), entry);
+            }
+        }
+
+        if (layer == 0) misses.increment();
+        return null;
+    }
+
+    private static String packageOf(final String name) {
+        final int slash = name.lastIndexOf('/', name.length() - 2);
+        return slash < 0 ? "" : name.substring(0, slash);
+    }
+
+    private record Jar(Path path, JarFile file, LongAdder hits) {
+    }
+
+    private record Located(JarFile jar, JarEntry entry) {
+    }
+
+    /**
+     * A connection to one resource in the index. {@link URLClassLoader} calls {@link #getInputStream()} to find
+     * out whether a resource exists, and again to read it, so the stream is opened only once.
+     * */
+    private final class Connection extends URLConnection {
+        private Located located;
+        private InputStream stream;
+
+        /** The transformed bytecode of the class, or <code>null</code> if the resource is served as it is. */
+        private byte[] transformed;
+
+        private Connection(final URL url) {
+            super(url);
+        }
+
+        @Override
+        public void connect() throws IOException {
+            if (connected) return;
+            final String path = url.getPath();
+            final int slash = path.indexOf('/', 1);
+            if (slash < 0) throw new Miss(url);
+
+            final int layer;
+            try {
+                layer = Integer.parseInt(path, 1, slash, 10);
+            } catch (NumberFormatException e) {
+                throw new Miss(url);
+            }
+
+            final String name = URLDecoder.decode(path.substring(slash + 1).replace("+", "%2B"), UTF_8);
+            located = find(layer, name);
+            if (located == null) throw new Miss(url);
+            if (name.endsWith(CLASS_SUFFIX)) {
+                final String className = name.substring(0, name.length() - CLASS_SUFFIX.length()).replace('/', '.');
+                transformed = transformation.transform(className, () -> {
+                    try (final InputStream input = located.jar().getInputStream(located.entry())) {
+                        return input.readAllBytes();
+                    }
+                });
+            }
+
+            connected = true;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            connect();
+            if (stream == null) stream = transformed != null ? new ByteArrayInputStream(transformed)
+                : located.jar().getInputStream(located.entry());
+            return stream;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            try {
+                connect();
+                return transformed != null ? transformed.length : located.entry().getSize();
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public long getLastModified() {
+            try {
+                connect();
+                return located.entry().getTime();
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Thrown for resources that are not in the index. Class loaders look up many resources that do not exist
+     * and discard the exception, so it does not record a stack trace.
+     * */
+    private static final class Miss extends FileNotFoundException {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private Miss(final URL url) {
+            super(url.toString());
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package blue.lhf.vipu.black_magic;
+
+import blue.lhf.vipu.escaping.*;
+
+import java.io.IOException;
+import java.lang.reflect.*;
+import java.nio.file.*;
+import java.security.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.*;
+
+/**
+ * Applies the {@link ClassTransformer}s registered with the injected {@link Transformers} registry to the classes
+ * that a {@link Surma} instance loads, and caches the transformed classes on disk.
+ * <p>
+ *     The cache key of a class is the SHA-256 hash of its name, its original bytecode and the identifiers of the
+ *     transformers that transform it, in order, so that a class is only transformed again if it or the set of its
+ *     transformers changed. Entries that are no longer used are never read again, and the cache directory may be
+ *     deleted at any time.
+ * </p>
+ * <p>
+ *     The time each transformer takes is added up per transformer, and each transformation is also emitted as a
+ *     <code>blue.lhf.vipu.Transform</code> JFR event. Classes loaded while a transformer runs on the same thread,
+ *     including the transformer's own classes, are not transformed, so that transformers cannot recurse.
+ * </p>
+ * */
+public final class ClassTransformation {
+    private static final String KEY_PREFIX = "vipu-transform-v1";
+
+    private final Surma surma;
+    private final Path cacheDirectory;
+    private final Logger logger;
+    private final ThreadLocal<Boolean> transforming = ThreadLocal.withInitial(() -> false);
+    private final Map<String, Timing> timings = new ConcurrentHashMap<>();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+
+    /** The registered transformers as last read from the registry, and the list they were read from. */
+    private volatile Registered registered = new Registered(null, List.of());
+
+    /** The <code>registered</code> method of the injected registry, once it has been looked up. */
+    private volatile Method registryMethod;
+
+    /**
+     * @param surma The {@link Surma} instance whose class loader the {@link Transformers} registry is injected into.
+     * @param cacheDirectory The directory to cache transformed classes in, or <code>null</code> to not cache them.
+     * @param logger The logger to report failing transformers to.
+     * */
+    ClassTransformation(final Surma surma, final Path cacheDirectory, final Logger logger) {
+        this.surma = surma;
+        this.cacheDirectory = cacheDirectory;
+        this.logger = logger;
+    }
+
+    /**
+     * Reads the bytecode of a class, if it will be transformed.
+     * */
+    @FunctionalInterface
+    interface Bytecode {
+        /**
+         * @return The original bytecode of the class.
+         * @throws IOException If the bytecode could not be read.
+         * */
+        byte[] read() throws IOException;
+    }
+
+    /**
+     * Transforms a class with the transformers that transform it.
+     * @param className The binary name of the class.
+     * @param bytecode The original bytecode of the class, read only if a transformer transforms the class.
+     * @return The transformed bytecode, or <code>null</code> if no transformer transforms the class.
+     * @throws IOException If the original bytecode could not be read.
+     * */
+    byte[] transform(final String className, final Bytecode bytecode) throws IOException {
+        if (transforming.get()) return null;
+        transforming.set(true);
+        try {
+            final List<ClassTransformer> applicable = new ArrayList<>();
+            for (final ClassTransformer transformer : transformers()) {
+                if (transforms(transformer, className)) applicable.add(transformer);
+            }
+
+            if (applicable.isEmpty()) return null;
+            final byte[] original = bytecode.read();
+            final String key = cacheDirectory == null ? null : key(className, original, applicable);
+            if (key != null) {
+                final byte[] cached = readCache(key);
+                if (cached != null) {
+                    cacheHits.increment();
+                    return cached;
+                }
+
+                cacheMisses.increment();
+            }
+
+            byte[] transformed = original;
+            boolean failed = false;
+            for (final ClassTransformer transformer : applicable) {
+                final String id = transformer.id();
+                final Timing timing = timings.computeIfAbsent(id, ignored -> new Timing());
+                final TransformEvent event = new TransformEvent();
+                event.transformer = id;
+                event.className = className;
+                event.begin();
+                final long start = System.nanoTime();
+                try {
+                    final byte[] result = transformer.transform(className, transformed);
+                    if (result != null) transformed = result;
+                    timing.classes.increment();
+                } catch (Exception e) {
+                    failed = true;
+                    timing.failures.increment();
+                    logger.log(Level.WARNING, "Transformer " + id + " failed to transform " + className, e);
+                } finally {
+                    timing.nanos.add(System.nanoTime() - start);
+                    event.commit();
+                }
+            }
+
+            if (key != null && !failed) writeCache(key, transformed);
+            return transformed;
+        } finally {
+            transforming.set(false);
+        }
+    }
+
+    /**
+     * @return The time each transformer has taken so far, in no particular order.
+     * */
+    public List<TransformerTiming> timings() {
+        final List<TransformerTiming> snapshot = new ArrayList<>();
+        timings.forEach((id, timing) -> snapshot.add(new TransformerTiming(id, timing.classes.sum(),
+            timing.failures.sum(), Duration.ofNanos(timing.nanos.sum()))));
+        return snapshot;
+    }
+
+    /**
+     * @return How many transformed classes were served from the cache.
+     * */
+    public long cacheHits() {
+        return cacheHits.sum();
+    }
+
+    /**
+     * @return How many classes had to be transformed because the cache had no entry for them.
+     * */
+    public long cacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    /**
+     * @return The identifiers of the transformers registered with the injected registry, in order.
+     * */
+    public List<String> registered() {
+        return transformers().stream().map(ClassTransformer::id).toList();
+    }
+
+    private boolean transforms(final ClassTransformer transformer, final String className) {
+        try {
+            return transformer.transforms(className);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Transformer " + transformer.id() + " failed to check " + className, e);
+            return false;
+        }
+    }
+
+    /**
+     * @return The registered transformers. The injected registry is read every time, but its transformers are
+     *         only wrapped in proxies again when it has changed.
+     * */
+    private List<ClassTransformer> transformers() {
+        final Class<?> registry = surma.findLoaded(Transformers.class.getName());
+        if (registry == null) return List.of();
+
+        final Object current;
+        try {
+            Method method = registryMethod;
+            if (method == null || method.getDeclaringClass() != registry) {
+                registryMethod = method = registry.getMethod("registered");
+            }
+
+            current = method.invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            throw new AssertionError("Could not read the injected transformer registry", e);
+        }
+
+        final Registered cached = registered;
+        if (cached.source() == current) return cached.transformers();
+
+        final List<ClassTransformer> transformers = new ArrayList<>();
+        for (final Object transformer : (List<?>) current) {
+            transformers.add(transformer instanceof ClassTransformer direct ? direct
+                : surma.reflectiveProxy(ClassTransformer.class, transformer));
+        }
+
+        registered = new Registered(current, List.copyOf(transformers));
+        return transformers;
+    }
+
+    private static String key(final String className, final byte[] bytecode, final List<ClassTransformer> applicable) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("SHA-256 is not available?", e);
+        }
+
+        digest.update((KEY_PREFIX + "\0" + className + "\0").getBytes(UTF_8));
+        for (final ClassTransformer transformer : applicable) digest.update((transformer.id() + "\0").getBytes(UTF_8));
+        digest.update(bytecode);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private byte[] readCache(final String key) {
+        final Path file = cacheDirectory.resolve(key + ".class");
+        try {
+            return Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Ignoring unreadable transformed class " + file, e);
+            return null;
+        }
+    }
+
+    private void writeCache(final String key, final byte[] bytecode) {
+        final Path file = cacheDirectory.resolve(key + ".class");
+        Path temporary = null;
+        try {
+            Files.createDirectories(cacheDirectory);
+            temporary = Files.createTempFile(cacheDirectory, key, ".tmp");
+            Files.write(temporary, bytecode);
+            Files.move(temporary, file, REPLACE_EXISTING, ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Failed to cache transformed class " + file, e);
+            try {
+                if (temporary != null) Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * The time one transformer has taken.
+     * @param transformer The {@link ClassTransformer#id() identifier} of the transformer.
+     * @param classes How many classes it has transformed.
+     * @param failures How many classes it has failed to transform.
+     * @param time The time it has taken, added up over all classes, including those it failed to transform.
+     * */
+    public record TransformerTiming(String transformer, long classes, long failures, Duration time) {
+    }
+
+    private record Registered(Object source, List<ClassTransformer> transformers) {
+    }
+
+    private static final class Timing {
+        private final LongAdder classes = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+    }
+}
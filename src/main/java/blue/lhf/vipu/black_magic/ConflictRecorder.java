@@ -0,0 +1,80 @@
+package blue.lhf.vipu.black_magic;
+
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.collection.*;
+import org.eclipse.aether.graph.DependencyNode;
+
+import java.util.*;
+
+/**
+ * Records which plugin requested which version of each library, directly or transitively, before conflicts in the
+ * dependency graph are resolved. Placed in front of the conflict resolver of a resolution's graph transformer.
+ * Not thread-safe: each resolution uses its own recorder.
+ * */
+final class ConflictRecorder implements DependencyGraphTransformer {
+    /** The versions of each library requested through each plugin, by library key and plugin name. */
+    private final Map<String, Map<String, Set<String>>> requested = new TreeMap<>();
+
+    /**
+     * @return The key identifying a library regardless of its version, like <code>group:artifact:jar</code>.
+     * @param artifact The artifact of the library.
+     * */
+    static String key(final Artifact artifact) {
+        final String classifier = artifact.getClassifier();
+        return artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getExtension()
+            + (classifier.isEmpty() ? "" : ":" + classifier);
+    }
+
+    /**
+     * Records that a plugin directly requested a library.
+     * @param plugin The name of the plugin.
+     * @param artifact The requested artifact.
+     * */
+    void requested(final String plugin, final Artifact artifact) {
+        record(key(artifact), Set.of(plugin), artifact.getVersion());
+    }
+
+    @Override
+    public DependencyNode transformGraph(final DependencyNode root,
+                                         final DependencyGraphTransformationContext context) {
+        for (final DependencyNode child : root.getChildren()) {
+            if (child.getArtifact() == null) continue;
+            final Set<String> plugins = requested.getOrDefault(key(child.getArtifact()), Map.of()).keySet();
+            final Set<DependencyNode> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (final DependencyNode grandchild : child.getChildren()) walk(grandchild, Set.copyOf(plugins), visited);
+        }
+
+        return root;
+    }
+
+    private void walk(final DependencyNode node, final Set<String> plugins, final Set<DependencyNode> visited) {
+        if (!visited.add(node) || node.getArtifact() == null) return;
+        record(key(node.getArtifact()), plugins, node.getArtifact().getVersion());
+        for (final DependencyNode child : node.getChildren()) walk(child, plugins, visited);
+    }
+
+    private void record(final String key, final Set<String> plugins, final String version) {
+        final Map<String, Set<String>> byPlugin = requested.computeIfAbsent(key, ignored -> new TreeMap<>());
+        for (final String plugin : plugins) {
+            byPlugin.computeIfAbsent(plugin, ignored -> new TreeSet<>()).add(version);
+        }
+    }
+
+    /**
+     * @return The libraries of which more than one version was requested.
+     * @param selected The selected version of each library, by {@link #key(Artifact) key}.
+     * */
+    List<InjectingLibraryLoader.Conflict> conflicts(final Map<String, String> selected) {
+        final List<InjectingLibraryLoader.Conflict> conflicts = new ArrayList<>();
+        requested.forEach((key, byPlugin) -> {
+            final long versions = byPlugin.values().stream().flatMap(Set::stream).distinct().count();
+            if (versions < 2) return;
+
+            final Map<String, Set<String>> copy = new TreeMap<>();
+            byPlugin.forEach((plugin, pluginVersions) -> copy.put(plugin, Set.copyOf(pluginVersions)));
+            conflicts.add(new InjectingLibraryLoader.Conflict(key, selected.get(key), copy));
+        });
+
+        return conflicts;
+    }
+}
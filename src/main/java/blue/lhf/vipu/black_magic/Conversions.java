@@ -0,0 +1,92 @@
+package blue.lhf.vipu.black_magic;
+
+import mx.kenzie.overlord.Overlord;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Converts objects from one class loader's view of a type to another's, using a cached plan per
+ * (source class, target class) pair.
+ * <ul>
+ *     <li>If the object already is an instance of the target class, for example because both class loaders
+ *     resolve to the same class, it is passed through as-is.</li>
+ *     <li>If the target class is an interface, the object is wrapped in a {@link Surma#reflectiveProxy(Class, Object)
+ *     reflective proxy}. Proxies are not cached, since a proxy keeps its object alive and a cache keyed by that
+ *     object could then never let go of either; the proxy class itself is cached by {@link java.lang.reflect.Proxy}.
+ *     </li>
+ *     <li>Otherwise, the object's memory layout is copied into an instance of the target class with
+ *     {@link Overlord#transform(Object, Class)}.</li>
+ * </ul>
+ * */
+final class Conversions {
+    private static final Conversion IDENTITY = (value, target) -> value;
+
+    private final Conversion proxy;
+    private final Conversion copy = Overlord::transform;
+
+    private final ClassValue<Map<Class<?>, Conversion>> plans = new ClassValue<>() {
+        @Override
+        protected Map<Class<?>, Conversion> computeValue(final Class<?> target) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    /**
+     * @param surma The {@link Surma} instance to create proxies with.
+     * */
+    Conversions(final Surma surma) {
+        this.proxy = (value, target) -> surma.reflectiveProxy(target, value);
+    }
+
+    /**
+     * Converts the given arguments in place.
+     * @param args The arguments to convert. Modified in place.
+     * @param targetTypes The type to convert each argument to, or <code>null</code> for arguments whose type
+     *                    is known to be the same on both sides and which never need converting.
+     * @return The given arguments.
+     * */
+    Object[] convert(final Object[] args, final Class<?>[] targetTypes) {
+        if (args == null) return null;
+        for (int i = 0; i < args.length; ++i) {
+            final Class<?> targetType = targetTypes[i];
+            final Object value = args[i];
+            if (targetType == null || value == null) continue;
+            args[i] = plan(value.getClass(), targetType).convert(value, targetType);
+        }
+
+        return args;
+    }
+
+    /**
+     * @return The cached conversion plan from the given source class to the given target class.
+     * @param source The runtime class of the object to convert.
+     * @param target The class to convert to.
+     * */
+    Conversion plan(final Class<?> source, final Class<?> target) {
+        final Map<Class<?>, Conversion> bySource = plans.get(target);
+        final Conversion cached = bySource.get(source);
+        if (cached != null) return cached;
+
+        final Conversion plan;
+        if (target.isAssignableFrom(source) || target.isPrimitive()) plan = IDENTITY;
+        else if (target.isInterface()) plan = proxy;
+        else plan = copy;
+
+        bySource.putIfAbsent(source, plan);
+        return plan;
+    }
+
+    /**
+     * A conversion of an object to a target class.
+     * */
+    @FunctionalInterface
+    interface Conversion {
+        /**
+         * @param value The object to convert, never <code>null</code>.
+         * @param target The class to convert to.
+         * @return The converted object.
+         * */
+        Object convert(Object value, Class<?> target);
+    }
+}
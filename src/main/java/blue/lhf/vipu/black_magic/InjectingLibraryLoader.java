@@ -1,6 +1,7 @@
 package blue.lhf.vipu.black_magic;
 
 import blue.lhf.vipu.escaping.*;
+import blue.lhf.vipu.scanning.JarFingerprints;
 import org.eclipse.aether.*;
 import org.eclipse.aether.artifact.*;
 import org.eclipse.aether.collection.CollectRequest;
@@ -11,15 +12,21 @@ import org.eclipse.aether.resolution.*;
 import org.eclipse.aether.spi.connector.RepositoryConnectorFactory;
 import org.eclipse.aether.spi.connector.transport.TransporterFactory;
 import org.eclipse.aether.transfer.*;
+import org.eclipse.aether.transport.file.FileTransporterFactory;
 import org.eclipse.aether.transport.http.HttpTransporterFactory;
+import org.eclipse.aether.util.graph.transformer.*;
+import org.eclipse.aether.util.repository.DefaultMirrorSelector;
 import org.jetbrains.annotations.NotNull;
 
-import java.io.File;
+import java.io.*;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
-import java.nio.file.Path;
+import java.nio.file.*;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 import java.util.logging.*;
 
@@ -28,52 +35,209 @@ import static org.apache.maven.repository.internal.MavenRepositorySystemUtils.*;
 import static org.eclipse.aether.repository.RepositoryPolicy.CHECKSUM_POLICY_FAIL;
 
 /**
- * Downloads the dependency libraries of a {@link VipuPlugin} from the <a href="https://repo.maven.apache.org/maven2/">Maven Central repository</a> and injects them into the classpath.
+ * Downloads the dependency libraries of a {@link VipuPlugin} from the configured {@link ResolverSettings repositories},
+ * <a href="https://repo.maven.apache.org/maven2/">Maven Central</a> by default, and injects them into the classpath.
  * <p>
  *     The code to load the libraries is based on the code of the <a href="https://hub.spigotmc.org/stash/projects/SPIGOT/repos/bukkit/browse/src/main/java/org/bukkit/plugin/java/LibraryLoader.java">Bukkit library loader</a>.
  * </p>
  * @see org.bukkit.plugin.java.LibraryLoader
  * */
 public class InjectingLibraryLoader {
+    /** The lockfile key of {@link #resolveUnion(List) union resolutions}. */
+    private static final String UNION_KEY = "union";
+
     private final Logger logger;
-    private final RepositorySystem repository;
-    private final DefaultRepositorySystemSession session;
-    private final List<RemoteRepository> repositories;
+    private final Path repositoryPath;
+    private final ResolverSettings settings;
+    private final ResolutionCache cache;
+    private final ArtifactStore store;
+    private final Mediation mediation;
     private final Surma surma;
 
+    private final LongAdder artifactsRemaining = new LongAdder();
+    private final LongAdder bytesRemaining = new LongAdder();
+    private final LongAdder bytesDownloaded = new LongAdder();
+    private final Map<String, Throughput.Accumulator> throughput = new ConcurrentHashMap<>();
+
+    /** The injected libraries, by {@link ConflictRecorder#key(Artifact) key}. */
+    private final Map<String, Library> injected = new HashMap<>();
+
+    /** The repository system and its session, or <code>null</code> until needed or after {@link #release()}. */
+    private volatile Resolver resolver;
+
     /**
      * Creates a new injecting library loader with the given {@link Surma} instance, repository path and logger.
      * @param surma The {@link Surma} instance to use, i.e. which {@link java.net.URLClassLoader} to inject dependencies into.
      * @param repositoryPath The path where downloaded dependencies should be placed.
+     * @param lockPath The path where resolution lockfiles and failure records should be placed.
+     * @param settings The repositories to resolve from, and how.
+     * @param logger The logger to use.
+     * */
+    public InjectingLibraryLoader(final Surma surma, final Path repositoryPath, final Path lockPath,
+                                  final ResolverSettings settings, @NotNull Logger logger) {
+        this(surma, repositoryPath, lockPath, settings, new JarFingerprints(null), logger);
+    }
+
+    /**
+     * Creates a new injecting library loader that shares JAR fingerprints with the rest of the startup.
+     * @param surma The {@link Surma} instance to use, i.e. which {@link java.net.URLClassLoader} to inject dependencies into.
+     * @param repositoryPath The path where downloaded dependencies should be placed.
+     * @param lockPath The path where resolution lockfiles and failure records should be placed.
+     * @param settings The repositories to resolve from, and how.
+     * @param fingerprints The fingerprints to verify locked libraries against their lockfiles with.
      * @param logger The logger to use.
      * */
-    public InjectingLibraryLoader(final Surma surma, final Path repositoryPath, @NotNull Logger logger) {
+    public InjectingLibraryLoader(final Surma surma, final Path repositoryPath, final Path lockPath,
+                                  final ResolverSettings settings, final JarFingerprints fingerprints,
+                                  @NotNull Logger logger) {
         this.surma = surma;
+        this.mediation = settings.mediation();
         this.logger = logger;
+        this.repositoryPath = repositoryPath;
+        this.settings = settings;
+        this.cache = new ResolutionCache(lockPath, settings.failureTtl(), fingerprints);
+        this.store = settings.store() != null ? new ArtifactStore(settings.store(), fingerprints, logger) : null;
+    }
 
+    /**
+     * @return The repository system and its session, which are created on first use, and again after
+     *         {@link #release()}.
+     * */
+    private Resolver resolver() {
+        Resolver current = resolver;
+        if (current != null) return current;
+        synchronized (this) {
+            current = resolver;
+            if (current == null) resolver = current = newResolver();
+            return current;
+        }
+    }
+
+    private Resolver newResolver() {
         final var locator = newServiceLocator();
         locator.addService(RepositoryConnectorFactory.class, BasicRepositoryConnectorFactory.class);
         locator.addService(TransporterFactory.class, HttpTransporterFactory.class);
+        locator.addService(TransporterFactory.class, FileTransporterFactory.class);
 
-        this.repository = locator.getService(RepositorySystem.class);
-        this.session = newSession();
+        final RepositorySystem repository = locator.getService(RepositorySystem.class);
+        final DefaultRepositorySystemSession session = newSession();
 
         session.setChecksumPolicy(CHECKSUM_POLICY_FAIL);
-        session.setLocalRepositoryManager(repository.newLocalRepositoryManager(session, new LocalRepository(repositoryPath.toFile())));
+        configure(session, settings);
+        final LocalRepositoryManager local = repository.newLocalRepositoryManager(session,
+            new LocalRepository(repositoryPath.toFile()));
+        session.setLocalRepositoryManager(store != null ? store.wrap(local) : local);
         session.setTransferListener(new AbstractTransferListener() {
             @Override
             public void transferStarted(@NotNull TransferEvent event) {
-                logger.log(Level.INFO, "Downloading {0}",
+                logger.log(Level.FINE, "Downloading {0}",
                     event.getResource().getRepositoryUrl() + event.getResource().getResourceName());
+                final long length = event.getResource().getContentLength();
+                if (length > 0) bytesRemaining.add(length);
+            }
+
+            @Override
+            public void transferProgressed(@NotNull TransferEvent event) {
+                if (event.getResource().getContentLength() > 0) bytesRemaining.add(-event.getDataLength());
+            }
+
+            @Override
+            public void transferSucceeded(@NotNull TransferEvent event) {
+                finished(event);
+                if (event.getRequestType() != TransferEvent.RequestType.GET) return;
+                bytesDownloaded.add(event.getTransferredBytes());
+                throughput.computeIfAbsent(event.getResource().getRepositoryId(), Throughput.Accumulator::new)
+                          .add(event.getTransferredBytes(),
+                              System.currentTimeMillis() - event.getResource().getTransferStartTime());
+                final DownloadCounter counter = DownloadCounter.of(event.getResource().getTrace());
+                if (counter != null) counter.bytes.add(event.getTransferredBytes());
+            }
+
+            @Override
+            public void transferFailed(@NotNull TransferEvent event) {
+                finished(event);
+            }
+
+            @Override
+            public void transferCorrupted(@NotNull TransferEvent event) {
+                finished(event);
+            }
+
+            private void finished(final TransferEvent event) {
+                final long length = event.getResource().getContentLength();
+                if (length > 0) bytesRemaining.add(event.getTransferredBytes() - length);
+            }
+        });
+
+        session.setRepositoryListener(new AbstractRepositoryListener() {
+            @Override
+            public void artifactResolving(@NotNull RepositoryEvent event) {
+                artifactsRemaining.increment();
+            }
+
+            @Override
+            public void artifactResolved(@NotNull RepositoryEvent event) {
+                artifactsRemaining.decrement();
             }
         });
 
         session.setReadOnly();
 
-        this.repositories = repository.newResolutionRepositories( session,
-            Collections.singletonList(new RemoteRepository.Builder(
-                "central", "default", "https://repo.maven.apache.org/maven2"
-            ).build()));
+        final List<RemoteRepository> repositories = repository.newResolutionRepositories(session,
+            settings.repositories().stream()
+                    .map(remote -> new RemoteRepository.Builder(remote.id(), "default", remote.url()).build())
+                    .toList());
+        return new Resolver(repository, session, repositories);
+    }
+
+    /**
+     * Releases the repository system, its session and its pooled connections, which are only needed to resolve
+     * libraries. They are created again if libraries are resolved later.
+     * */
+    public void release() {
+        resolver = null;
+    }
+
+    /**
+     * @return Whether the repository system is currently held, that is, whether it has been used since it was
+     *         created or last {@link #release() released}.
+     * */
+    public boolean holdsResolver() {
+        return resolver != null;
+    }
+
+    /**
+     * Applies the transfer settings and mirrors to a session.
+     * <p>
+     *     HTTP connections are pooled in the session data, which every resolution of this loader shares,
+     *     so connections to a repository are reused across artifacts and plugins.
+     * </p>
+     * */
+    private static void configure(final DefaultRepositorySystemSession session, final ResolverSettings settings) {
+        session.setConfigProperty("aether.connector.basic.threads", settings.downloadThreads());
+        session.setConfigProperty(ConfigurationProperties.CONNECT_TIMEOUT, millis(settings.connectTimeout()));
+        session.setConfigProperty(ConfigurationProperties.REQUEST_TIMEOUT, millis(settings.requestTimeout()));
+
+        final List<ResolverSettings.Repository> remotes = new ArrayList<>(settings.repositories());
+        final DefaultMirrorSelector mirrors = new DefaultMirrorSelector();
+        for (final ResolverSettings.Mirror mirror : settings.mirrors()) {
+            final ResolverSettings.Repository remote = mirror.repository();
+            mirrors.add(remote.id(), remote.url(), "default", false, false, mirror.mirrorOf(), "*");
+            remotes.add(remote);
+        }
+
+        for (final ResolverSettings.Repository remote : remotes) {
+            if (remote.connectTimeout() != null) session.setConfigProperty(
+                ConfigurationProperties.CONNECT_TIMEOUT + "." + remote.id(), millis(remote.connectTimeout()));
+            if (remote.requestTimeout() != null) session.setConfigProperty(
+                ConfigurationProperties.REQUEST_TIMEOUT + "." + remote.id(), millis(remote.requestTimeout()));
+        }
+
+        session.setMirrorSelector(mirrors);
+    }
+
+    private static int millis(final Duration duration) {
+        return (int) Math.min(Integer.MAX_VALUE, duration.toMillis());
     }
 
     /**
@@ -84,51 +248,417 @@ public class InjectingLibraryLoader {
      * @throws InvocationTargetException If adding the dependency JARs to the class loader fails.
      * @throws DependencyResolutionException If one of the dependencies could not be resolved.
      * @param plugin The injected {@link VipuPlugin} class.
+     * @see #resolveDependencies(Class)
+     * @see #inject(Resolution)
      * */
     public void injectDependencies(final Class<?> plugin)
         throws ClassNotFoundException, InvocationTargetException, DependencyResolutionException {
-        final String name = getName(plugin);
+        inject(resolveDependencies(plugin));
+    }
+
+    /**
+     * Resolves, and if necessary downloads, the libraries of an already-injected {@link VipuPlugin} class
+     * without injecting them. This method is thread-safe, and may be called for multiple plugins at once.
+     * <p>
+     *     If the plugin's lockfile matches its coordinates and the locked artifacts are intact, they are returned
+     *     without collecting the dependency graph. If resolving the same coordinates failed recently, this method
+     *     fails immediately instead of contacting the repositories again.
+     * </p>
+     * @hidden Internal use only.
+     * @throws ClassNotFoundException If the {@link Libraries} or {@link Name} annotations have not been injected into the server class loader.
+     * @throws DependencyResolutionException If one of the dependencies could not be resolved.
+     * @param plugin The injected {@link VipuPlugin} class.
+     * @return The resolved libraries of the plugin, in the order they should be injected.
+     * @see #resolveUnion(List)
+     * */
+    public Resolution resolveDependencies(final Class<?> plugin)
+        throws ClassNotFoundException, DependencyResolutionException {
+        return resolveDependencies(request(plugin));
+    }
+
+    /**
+     * Resolves, and if necessary downloads, the libraries of one plugin without injecting them, like
+     * {@link #resolveDependencies(Class)}, but without needing the plugin class to be loaded.
+     * @hidden Internal use only.
+     * @throws DependencyResolutionException If one of the dependencies could not be resolved.
+     * @param request The libraries requested by the plugin.
+     * @return The resolved libraries of the plugin, in the order they should be injected.
+     * */
+    public Resolution resolveDependencies(final Request request) throws DependencyResolutionException {
+        return resolve(request.id(), request.name(), List.of(request), Map.of());
+    }
 
+    /**
+     * Resolves, and if necessary downloads, the libraries of one plugin without injecting them, like
+     * {@link #resolveDependencies(Request)}, but keeps every library that an earlier resolution already contains
+     * in the version that resolution chose, whether the plugin requests it directly or transitively. Used for
+     * plugins whose libraries are injected after a {@link #resolveUnion(List) union}, so that they do not bring a
+     * second version of a library the union already injected.
+     * @hidden Internal use only.
+     * @throws DependencyResolutionException If one of the dependencies could not be resolved.
+     * @param request The libraries requested by the plugin.
+     * @param against The earlier resolution whose versions to keep.
+     * @return The resolved libraries of the plugin, in the order they should be injected.
+     * */
+    public Resolution resolveDependencies(final Request request, final Resolution against)
+        throws DependencyResolutionException {
+        final Map<String, String> pinned = new LinkedHashMap<>();
+        for (final Library library : against.libraries()) pinned.put(library.key(), library.version());
+        return resolve(request.id(), request.name(), List.of(request), pinned);
+    }
+
+    /**
+     * Resolves, and if necessary downloads, the libraries of many plugins as one dependency graph without
+     * injecting them. Every library appears in the result at most once, in the version chosen by this loader's
+     * {@link Mediation}, so that no JAR is injected twice and no two versions of a library end up on the classpath.
+     * <p>
+     *     Like {@link #resolveDependencies(Class)}, the result is locked, and recent failures are remembered, but for
+     *     the set of requests as a whole. A single unresolvable library therefore fails the whole union.
+     * </p>
+     * @hidden Internal use only.
+     * @throws DependencyResolutionException If one of the dependencies could not be resolved.
+     * @param requests The libraries requested by each plugin, in the order the plugins take precedence in.
+     * @return The resolved libraries of all plugins, in the order they should be injected.
+     * */
+    public Resolution resolveUnion(final List<Request> requests) throws DependencyResolutionException {
+        return resolve(UNION_KEY, "Vipu", requests, Map.of());
+    }
+
+    /**
+     * @return The name and requested libraries of an already-injected {@link VipuPlugin} class.
+     * @hidden Internal use only.
+     * @throws ClassNotFoundException If the {@link Libraries} or {@link Name} annotations have not been injected into the server class loader.
+     * @param plugin The injected {@link VipuPlugin} class.
+     * */
+    public Request request(final Class<?> plugin) throws ClassNotFoundException {
         final Annotation[] annotations = plugin.getAnnotationsByType(surma.loadInjected(Libraries.class));
         final Function<Object, Libraries> libraryByProxy = bind1(surma::reflectiveProxy, Libraries.class);
-        final String[] libraries = Arrays.stream(annotations)
-                                         .map(libraryByProxy).map(Libraries::value)
-                                         .flatMap(Arrays::stream).toArray(String[]::new);
+        final List<String> libraries = Arrays.stream(annotations)
+                                             .map(libraryByProxy).map(Libraries::value)
+                                             .flatMap(Arrays::stream).toList();
 
+        return new Request(plugin.getName(), getName(plugin), libraries);
+    }
 
-        if (libraries.length == 0) return;
-        logger.log(Level.INFO, "[{0}] Loading {1} libraries... please wait", new Object[] {
-            name, libraries.length
-        });
+    /**
+     * @param pinned The versions to keep libraries in, by {@link ConflictRecorder#key(Artifact) key}. Pinned
+     *               libraries that are requested directly are requested in the pinned version instead, and the
+     *               others are pinned through dependency management.
+     * */
+    private Resolution resolve(final String key, final String name, final List<Request> requests,
+                               final Map<String, String> pinned) throws DependencyResolutionException {
+        final ConflictRecorder recorder = new ConflictRecorder();
+        final Map<String, Dependency> roots = new LinkedHashMap<>();
+        final List<String> requested = new ArrayList<>();
+        for (final Request request : requests) {
+            for (final String library : request.libraries()) {
+                final Artifact artifact = new DefaultArtifact(library);
+                final String version = pinned.get(ConflictRecorder.key(artifact));
+                recorder.requested(request.name(), artifact);
+                roots.merge(ConflictRecorder.key(artifact), new Dependency(
+                    version != null ? artifact.setVersion(version) : artifact, null), mediation::prefer);
+                requested.add(request.name() + " " + library);
+            }
+        }
 
-        final List<Dependency> dependencies = new ArrayList<>();
-        for (final String library : libraries) {
-            final Artifact artifact = new DefaultArtifact(library);
-            final Dependency dependency = new Dependency(artifact, null);
-            dependencies.add(dependency);
+        if (roots.isEmpty()) return new Resolution(name, List.of(), List.of(), 0, 0);
+        requested.add("mediation " + mediation);
+        pinned.forEach((library, version) -> requested.add("pinned " + library + " " + version));
+
+        final Resolver resolver = resolver();
+        final String coordinates = ResolutionCache.coordinatesHash(requested,
+            resolver.repositories().stream().map(RemoteRepository::getUrl).toList());
+        try {
+            final Optional<List<Library>> locked = cache.readLock(key, coordinates);
+            if (locked.isPresent()) {
+                logger.log(Level.FINE, "[{0}] Using locked libraries", name);
+                return new Resolution(name, locked.get(), List.of(), 0, 0);
+            }
+        } catch (ResolutionCache.TamperedException e) {
+            logger.log(Level.WARNING, "[{0}] {1}, downloading it again", new Object[] {
+                name, e.getMessage()
+            });
+            discard(e.artifact());
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.FINE, "[" + name + "] Ignoring unreadable lockfile", e);
         }
 
-        final DependencyResult result = repository.resolveDependencies(session, new DependencyRequest(
-            new CollectRequest((Dependency) null, dependencies, repositories), null));
+        final DownloadCounter counter = new DownloadCounter();
+        final CollectRequest collectRequest = new CollectRequest((Dependency) null,
+            new ArrayList<>(roots.values()), resolver.repositories());
+        pinned.forEach((library, version) -> collectRequest.addManagedDependency(
+            new Dependency(new DefaultArtifact(library + ":" + version), null)));
+        collectRequest.setTrace(new RequestTrace(counter));
+        final DependencyRequest request = new DependencyRequest(collectRequest, null);
+        request.setTrace(new RequestTrace(counter));
+
+        final Optional<String> failure = cache.recentFailure(key, coordinates);
+        if (failure.isPresent()) throw new DependencyResolutionException(new DependencyResult(request),
+            "Not retrying a resolution that failed recently: " + failure.get(), null);
+
+        logger.log(Level.INFO, "[{0}] Resolving {1} libraries", new Object[] {
+            name, roots.size()
+        });
+
+        final DefaultRepositorySystemSession mediated = new DefaultRepositorySystemSession(resolver.session());
+        mediated.setDependencyGraphTransformer(new ChainedDependencyGraphTransformer(recorder,
+            new ConflictResolver(mediation.selector(), new JavaScopeSelector(),
+                new SimpleOptionalitySelector(), new JavaScopeDeriver()),
+            new JavaDependencyContextRefiner()));
+        mediated.setReadOnly();
+
+        final DependencyResult result;
+        try (final ArtifactStore.Lock ignored = lockStore(coordinates, name)) {
+            result = resolver.system().resolveDependencies(mediated, request);
+        } catch (DependencyResolutionException e) {
+            try {
+                cache.recordFailure(key, coordinates, e.getMessage());
+            } catch (IOException ex) {
+                e.addSuppressed(ex);
+            }
+
+            throw e;
+        }
 
+        final List<Library> libraries = new ArrayList<>();
+        final Map<String, String> selected = new HashMap<>();
+        int downloaded = 0;
         for (final ArtifactResult artifact : result.getArtifactResults()) {
-            final File file = artifact.getArtifact().getFile();
+            final Library library = new Library(ConflictRecorder.key(artifact.getArtifact()),
+                artifact.getArtifact().getVersion(), artifact.getArtifact().getFile());
+            libraries.add(library);
+            selected.put(library.key(), library.version());
+            if (artifact.getRepository() instanceof RemoteRepository) ++downloaded;
+        }
+
+        final List<Conflict> conflicts = recorder.conflicts(selected);
+        if (!conflicts.isEmpty()) {
+            logger.log(Level.WARNING, "[{0}] Mediated {1} library version conflicts:", new Object[] {
+                name, conflicts.size()
+            });
+
+            for (final Conflict conflict : conflicts) logger.log(Level.WARNING, "[{0}]   {1}", new Object[] {
+                name, conflict
+            });
+        }
+
+        try {
+            cache.writeLock(key, coordinates, libraries);
+            cache.clearFailure(key);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "[" + name + "] Failed to write lockfile", e);
+        }
+
+        return new Resolution(name, List.copyOf(libraries), conflicts, downloaded, counter.bytes.sum());
+    }
+
+    /**
+     * Deletes a library from the local repository, and from the shared library store, so that it is downloaded
+     * again instead of being found locally.
+     * @param artifact The library to delete.
+     * */
+    private void discard(final Path artifact) {
+        try {
+            Files.deleteIfExists(artifact);
+            final Path repository = repositoryPath.toAbsolutePath();
+            if (store != null && artifact.toAbsolutePath().startsWith(repository)) {
+                store.forget(repository.relativize(artifact.toAbsolutePath()).toString()
+                                       .replace(File.separatorChar, '/'));
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to delete " + artifact, e);
+        }
+    }
+
+    /**
+     * Takes the lock of the given coordinates in the shared library store, if there is one, so that servers that
+     * start at the same time do not download the same libraries at once.
+     * @return The lock, or <code>null</code> if there is no store or the lock could not be taken.
+     * */
+    private ArtifactStore.Lock lockStore(final String coordinates, final String name) {
+        if (store == null) return null;
+        try {
+            return store.lock(coordinates);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "[" + name + "] Failed to lock the library store, resolving anyway", e);
+            return null;
+        }
+    }
+
+    /**
+     * Injects previously resolved libraries into the server class loader. Libraries that this loader has already
+     * injected are skipped, and so are other versions of them, since the server class loader would only ever load
+     * the classes of the version that was injected first. Each version that is skipped for that reason is reported.
+     * @hidden Internal use only.
+     * @throws InvocationTargetException If adding the dependency JARs to the class loader fails.
+     * @param resolution The resolved libraries to inject.
+     * @see #resolveDependencies(Class)
+     * */
+    public synchronized void inject(final Resolution resolution) throws InvocationTargetException {
+        for (final Library library : resolution.libraries()) {
+            final Library present = injected.get(library.key());
+            if (present != null) {
+                if (!present.version().equals(library.version())) {
+                    logger.log(Level.WARNING, "[{0}] Not loading {1} {2}, because {3} is already loaded",
+                        new Object[] {
+                            resolution.name(), library.key(), library.version(), present.version()
+                        });
+                }
+
+                continue;
+            }
 
             try {
-                surma.injectJAR(file.toURI().toURL());
+                surma.injectJAR(library.file().toURI().toURL());
             } catch (MalformedURLException ex) {
                 throw new AssertionError("Path to file was not a valid URL?", ex);
             }
 
+            injected.put(library.key(), library);
             logger.log(Level.INFO, "[{0}] Loaded library {1}", new Object[] {
-                name, file
+                resolution.name(), library.file()
             });
         }
     }
 
+    /**
+     * @return The progress of the resolutions that are currently running, across all plugins.
+     * */
+    public Progress progress() {
+        return new Progress(Math.max(0, artifactsRemaining.sum()), Math.max(0, bytesRemaining.sum()),
+            bytesDownloaded.sum());
+    }
+
+    /**
+     * @return How fast each repository has served downloads so far, sorted by repository identifier.
+     * */
+    public List<Throughput> throughput() {
+        return throughput.values().stream().map(Throughput.Accumulator::snapshot)
+                         .sorted(Comparator.comparing(Throughput::repository)).toList();
+    }
+
     private String getName(final Class<?> plugin) throws ClassNotFoundException {
-        final Name nameAnnotation = surma.reflectiveProxy(Name.class,
-            plugin.getAnnotation(surma.loadInjected(Name.class)));
+        final Name nameAnnotation = surma.injectedAnnotation(plugin, Name.class);
         return nameAnnotation != null ? nameAnnotation.value() : plugin.getSimpleName();
     }
+
+    /**
+     * The repository system of a loader, with the session and remote repositories every resolution shares.
+     * @param system The repository system.
+     * @param session The read-only session, which pools connections to the repositories.
+     * @param repositories The remote repositories, with mirrors applied.
+     * */
+    private record Resolver(RepositorySystem system, DefaultRepositorySystemSession session,
+                            List<RemoteRepository> repositories) {
+    }
+
+    /**
+     * The libraries requested by a {@link VipuPlugin}.
+     * @param id The binary name of the plugin class, which identifies the lockfile of the plugin.
+     * @param name The name of the plugin.
+     * @param libraries The Maven coordinates of the libraries, as given in its {@link Libraries} annotations.
+     * */
+    public record Request(String id, String name, List<String> libraries) {
+    }
+
+    /**
+     * The resolved libraries of a {@link VipuPlugin}, or of many plugins at once.
+     * @param name The name of the plugin, for logging.
+     * @param libraries The libraries, in the order they should be injected.
+     * @param conflicts The libraries of which different versions were requested, and which version was chosen.
+     *                  Empty if the libraries were taken from a lockfile.
+     * @param downloadedArtifacts How many of the libraries were downloaded rather than found in the local repository.
+     * @param downloadedBytes How many bytes were downloaded, including metadata and POMs.
+     * */
+    public record Resolution(String name, List<Library> libraries, List<Conflict> conflicts,
+                             int downloadedArtifacts, long downloadedBytes) {
+    }
+
+    /**
+     * A resolved library.
+     * @param key The library regardless of its version, as <code>group:artifact:extension[:classifier]</code>.
+     * @param version The resolved version of the library.
+     * @param file The JAR file of the library.
+     * */
+    public record Library(String key, String version, File file) {
+    }
+
+    /**
+     * A snapshot of the progress of running resolutions.
+     * @param artifactsRemaining How many artifacts, including POMs, are being resolved.
+     * @param bytesRemaining How many bytes are left to download, counting only downloads that have started
+     *                       and whose size is known.
+     * @param bytesDownloaded How many bytes have been downloaded since the loader was created.
+     * */
+    public record Progress(long artifactsRemaining, long bytesRemaining, long bytesDownloaded) {
+    }
+
+    /**
+     * The downloads served by one repository.
+     * @param repository The identifier of the repository or mirror.
+     * @param downloads How many files were downloaded from it.
+     * @param bytes How many bytes were downloaded from it.
+     * @param transferTime The time the downloads took, added up. Downloads that ran in parallel are counted separately.
+     * */
+    public record Throughput(String repository, long downloads, long bytes, Duration transferTime) {
+        /**
+         * @return The average rate of a single download, in bytes per second.
+         * */
+        public long bytesPerSecond() {
+            return transferTime.isZero() ? bytes : bytes * 1000 / Math.max(1, transferTime.toMillis());
+        }
+
+        private static final class Accumulator {
+            private final String repository;
+            private final LongAdder downloads = new LongAdder();
+            private final LongAdder bytes = new LongAdder();
+            private final LongAdder millis = new LongAdder();
+
+            private Accumulator(final String repository) {
+                this.repository = repository;
+            }
+
+            private void add(final long transferred, final long elapsedMillis) {
+                downloads.increment();
+                bytes.add(transferred);
+                millis.add(Math.max(0, elapsedMillis));
+            }
+
+            private Throughput snapshot() {
+                return new Throughput(repository, downloads.sum(), bytes.sum(), Duration.ofMillis(millis.sum()));
+            }
+        }
+    }
+
+    /**
+     * A library of which more than one version was requested, directly or transitively.
+     * @param library The library, as <code>group:artifact:extension[:classifier]</code>.
+     * @param selected The version that was chosen, or <code>null</code> if the library was left out entirely.
+     * @param requested The versions requested through each plugin.
+     * */
+    public record Conflict(String library, String selected, Map<String, Set<String>> requested) {
+        @Override
+        public String toString() {
+            final StringJoiner joiner = new StringJoiner(", ", library + " -> " + selected + " (", ")");
+            requested.forEach((plugin, versions) -> joiner.add(plugin + ": " + String.join("/", versions)));
+            return joiner.toString();
+        }
+    }
+
+    /**
+     * Counts the bytes downloaded for one resolution. Attached to the {@link RequestTrace} of the resolution
+     * request, which the resolver passes on to the transfers it makes, so that downloads can be attributed to
+     * the plugin that caused them even when many plugins are resolved at once.
+     * */
+    private static final class DownloadCounter {
+        private final LongAdder bytes = new LongAdder();
+
+        static DownloadCounter of(RequestTrace trace) {
+            for (; trace != null; trace = trace.getParent()) {
+                if (trace.getData() instanceof DownloadCounter counter) return counter;
+            }
+
+            return null;
+        }
+    }
 }
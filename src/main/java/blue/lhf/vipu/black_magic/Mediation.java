@@ -0,0 +1,87 @@
+package blue.lhf.vipu.black_magic;
+
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.util.graph.transformer.*;
+import org.eclipse.aether.util.graph.transformer.ConflictResolver.*;
+import org.eclipse.aether.util.version.GenericVersionScheme;
+import org.eclipse.aether.version.*;
+
+/**
+ * How {@link InjectingLibraryLoader} picks one version of a library when several versions of it are requested,
+ * whether directly by different plugins or transitively by other libraries.
+ * */
+public enum Mediation {
+    /**
+     * The version closest to the root of the dependency graph wins, as in Maven. Between plugins that request
+     * a library directly, the plugin whose class name sorts first wins.
+     * */
+    NEAREST {
+        @Override
+        Dependency prefer(final Dependency current, final Dependency candidate) {
+            return current;
+        }
+
+        @Override
+        VersionSelector selector() {
+            return new NearestVersionSelector();
+        }
+    },
+
+    /**
+     * The highest requested version wins, regardless of where it is requested.
+     * */
+    HIGHEST {
+        @Override
+        Dependency prefer(final Dependency current, final Dependency candidate) {
+            return compare(candidate.getArtifact().getVersion(), current.getArtifact().getVersion()) > 0
+                ? candidate : current;
+        }
+
+        @Override
+        VersionSelector selector() {
+            return new VersionSelector() {
+                @Override
+                public void selectVersion(final ConflictContext context) {
+                    ConflictItem winner = null;
+                    for (final ConflictItem item : context.getItems()) {
+                        if (winner == null) {
+                            winner = item;
+                            continue;
+                        }
+
+                        final int comparison = compare(item.getNode().getVersion(), winner.getNode().getVersion());
+                        if (comparison > 0 || comparison == 0 && item.getDepth() < winner.getDepth()) winner = item;
+                    }
+
+                    context.setWinner(winner);
+                }
+            };
+        }
+    };
+
+    private static final GenericVersionScheme VERSIONS = new GenericVersionScheme();
+
+    /**
+     * @return The root dependency to keep out of two dependencies on the same library, requested directly by plugins.
+     * @param current The dependency requested first.
+     * @param candidate The dependency requested later.
+     * */
+    abstract Dependency prefer(Dependency current, Dependency candidate);
+
+    /**
+     * @return The version selector to resolve conflicts in the dependency graph with.
+     * */
+    abstract VersionSelector selector();
+
+    private static int compare(final Object first, final Object second) {
+        try {
+            return parse(first).compareTo(parse(second));
+        } catch (InvalidVersionSpecificationException e) {
+            return 0;
+        }
+    }
+
+    private static Version parse(final Object version) throws InvalidVersionSpecificationException {
+        return version instanceof Version parsed ? parsed : VERSIONS.parseVersion(String.valueOf(version));
+    }
+}
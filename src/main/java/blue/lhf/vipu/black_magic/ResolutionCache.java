@@ -0,0 +1,219 @@
+package blue.lhf.vipu.black_magic;
+
+import blue.lhf.vipu.scanning.JarFingerprints;
+
+import java.io.*;
+import java.nio.file.*;
+import java.security.*;
+import java.time.*;
+import java.util.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.*;
+
+/**
+ * Per-plugin resolution lockfiles and a negative cache of recent resolution failures.
+ * <p>
+ *     A lockfile records the hash of the coordinates a plugin asked for, followed by the ordered list of resolved
+ *     artifacts with their SHA-256 checksums, sizes, coordinates and paths. As long as the coordinates are unchanged
+ *     and every artifact on disk still matches, the artifacts can be injected without asking the
+ *     {@link org.eclipse.aether.RepositorySystem} to collect the dependency graph again. Checksums are taken from
+ *     the {@link JarFingerprints}, so an artifact is only hashed again when its size or modification time changed,
+ *     and an artifact whose size still matches but whose checksum does not is reported as
+ *     {@link TamperedException tampered with}.
+ * </p>
+ * <p>
+ *     A failure record remembers that resolving a set of coordinates failed, so that a node without network
+ *     access fails fast instead of waiting for repository timeouts on every plugin until the record expires.
+ * </p>
+ * */
+final class ResolutionCache {
+    private static final String HEADER = "# Vipu resolution lock v2";
+    private static final String LOCK_EXTENSION = ".lock";
+    private static final String FAILURE_EXTENSION = ".failed";
+
+    private final Path directory;
+    private final Duration failureTtl;
+    private final JarFingerprints fingerprints;
+
+    /**
+     * @param directory The directory to store lockfiles and failure records in.
+     * @param failureTtl How long a resolution failure is remembered before resolution is attempted again.
+     * @param fingerprints The fingerprints to take the checksums of artifacts from.
+     * */
+    ResolutionCache(final Path directory, final Duration failureTtl, final JarFingerprints fingerprints) {
+        this.directory = directory;
+        this.failureTtl = failureTtl;
+        this.fingerprints = fingerprints;
+    }
+
+    /**
+     * @return The hash identifying the given coordinates and repositories.
+     * @param coordinates The requested coordinates, in declaration order.
+     * @param repositories The URLs of the repositories the coordinates are resolved from.
+     * */
+    static String coordinatesHash(final Collection<String> coordinates, final Collection<String> repositories) {
+        final MessageDigest digest = sha256();
+        for (final String coordinate : coordinates) digest.update((coordinate + "\n").getBytes(UTF_8));
+        digest.update((byte) 0);
+        for (final String repository : repositories) digest.update((repository + "\n").getBytes(UTF_8));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Reads the lockfile of a plugin.
+     * @param key The key of the plugin, usually its class name.
+     * @param coordinatesHash The hash of the coordinates the plugin currently asks for.
+     * @return The locked artifacts, or nothing if there is no lock, the lock is stale, or it was written in an
+     *         older format.
+     * @throws TamperedException If an artifact has the locked size, but not the locked checksum.
+     * @throws IOException If the lockfile or one of the artifacts could not be read.
+     * */
+    Optional<List<InjectingLibraryLoader.Library>> readLock(final String key, final String coordinatesHash)
+        throws IOException {
+        final Path lock = directory.resolve(key + LOCK_EXTENSION);
+        if (!Files.isRegularFile(lock)) return Optional.empty();
+
+        final List<String> lines = Files.readAllLines(lock, UTF_8);
+        if (lines.size() < 2 || !HEADER.equals(lines.get(0))) return Optional.empty();
+        if (!lines.get(1).equals("coordinates " + coordinatesHash)) return Optional.empty();
+
+        final Map<Path, String> locked = new LinkedHashMap<>();
+        final List<InjectingLibraryLoader.Library> libraries = new ArrayList<>();
+        for (final String line : lines.subList(2, lines.size())) {
+            if (line.isBlank()) continue;
+            final String[] parts = line.split(" ", 5);
+            if (parts.length != 5) return Optional.empty();
+
+            final Path artifact = Path.of(parts[4]);
+            if (!Files.isRegularFile(artifact)) return Optional.empty();
+            if (Files.size(artifact) != Long.parseLong(parts[1])) return Optional.empty();
+            locked.put(artifact, parts[0]);
+            libraries.add(new InjectingLibraryLoader.Library(parts[2], parts[3], artifact.toFile()));
+        }
+
+        final List<IOException> failures = new ArrayList<>();
+        final Map<Path, JarFingerprints.Fingerprint> actual = fingerprints.fingerprint(locked.keySet(),
+            (artifact, e) -> failures.add(e instanceof IOException io ? io : new IOException(e)));
+        if (!failures.isEmpty()) throw failures.get(0);
+
+        for (final Map.Entry<Path, String> entry : locked.entrySet()) {
+            final String sha256 = actual.get(entry.getKey()).sha256();
+            if (!sha256.equals(entry.getValue())) {
+                throw new TamperedException(entry.getKey(), entry.getValue(), sha256);
+            }
+        }
+
+        return Optional.of(List.copyOf(libraries));
+    }
+
+    /**
+     * Writes the lockfile of a plugin, replacing any previous lock atomically.
+     * @param key The key of the plugin, usually its class name.
+     * @param coordinatesHash The hash of the coordinates that were resolved.
+     * @param libraries The resolved artifacts, in injection order.
+     * @throws IOException If the lockfile could not be written.
+     * */
+    void writeLock(final String key, final String coordinatesHash, final List<InjectingLibraryLoader.Library> libraries)
+        throws IOException {
+        final List<String> lines = new ArrayList<>();
+        lines.add(HEADER);
+        lines.add("coordinates " + coordinatesHash);
+        final List<IOException> failures = new ArrayList<>();
+        final Map<Path, JarFingerprints.Fingerprint> fingerprinted = fingerprints.fingerprint(
+            libraries.stream().map(library -> library.file().toPath().toAbsolutePath()).toList(),
+            (artifact, e) -> failures.add(e instanceof IOException io ? io : new IOException(e)));
+        if (!failures.isEmpty()) throw failures.get(0);
+
+        for (final InjectingLibraryLoader.Library library : libraries) {
+            final JarFingerprints.Fingerprint fingerprint = fingerprinted.get(library.file().toPath().toAbsolutePath());
+            lines.add(fingerprint.sha256() + " " + fingerprint.size() + " " + library.key() + " " + library.version()
+                + " " + fingerprint.jar());
+        }
+
+        writeAtomically(directory.resolve(key + LOCK_EXTENSION), lines);
+    }
+
+    /**
+     * @return The message of a resolution failure of the same coordinates that is younger than the failure TTL,
+     *         if there is one.
+     * @param key The key of the plugin, usually its class name.
+     * @param coordinatesHash The hash of the coordinates the plugin currently asks for.
+     * */
+    Optional<String> recentFailure(final String key, final String coordinatesHash) {
+        final Path record = directory.resolve(key + FAILURE_EXTENSION);
+        try {
+            if (!Files.isRegularFile(record)) return Optional.empty();
+            final List<String> lines = Files.readAllLines(record, UTF_8);
+            if (lines.size() < 3 || !lines.get(0).equals(coordinatesHash)) return Optional.empty();
+
+            final Instant failedAt = Instant.parse(lines.get(1));
+            if (failedAt.plus(failureTtl).isBefore(Instant.now())) return Optional.empty();
+            return Optional.of(String.join("\n", lines.subList(2, lines.size())));
+        } catch (IOException | DateTimeException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Remembers that resolving the given coordinates failed.
+     * @param key The key of the plugin, usually its class name.
+     * @param coordinatesHash The hash of the coordinates that failed to resolve.
+     * @param message A description of the failure.
+     * @throws IOException If the failure record could not be written.
+     * */
+    void recordFailure(final String key, final String coordinatesHash, final String message) throws IOException {
+        writeAtomically(directory.resolve(key + FAILURE_EXTENSION),
+            List.of(coordinatesHash, Instant.now().toString(), String.valueOf(message)));
+    }
+
+    /**
+     * Forgets any resolution failure of the given plugin.
+     * @param key The key of the plugin, usually its class name.
+     * @throws IOException If the failure record could not be deleted.
+     * */
+    void clearFailure(final String key) throws IOException {
+        Files.deleteIfExists(directory.resolve(key + FAILURE_EXTENSION));
+    }
+
+    private void writeAtomically(final Path target, final List<String> lines) throws IOException {
+        Files.createDirectories(directory);
+        final Path temporary = Files.createTempFile(directory, target.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temporary, lines, UTF_8);
+            Files.move(temporary, target, REPLACE_EXISTING, ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("SHA-256 is not supported?", e);
+        }
+    }
+
+    /**
+     * Thrown when a locked artifact no longer has the checksum it had when it was resolved.
+     * */
+    static final class TamperedException extends IOException {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final transient Path artifact;
+
+        private TamperedException(final Path artifact, final String expected, final String actual) {
+            super(artifact + " has the checksum " + actual + ", but was locked with " + expected);
+            this.artifact = artifact;
+        }
+
+        /**
+         * @return The tampered artifact.
+         * */
+        Path artifact() {
+            return artifact;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package blue.lhf.vipu.black_magic;
+
+import blue.lhf.vipu.escaping.VipuPlugin;
+import blue.lhf.vipu.timings.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.logging.*;
+
+import static blue.lhf.vipu.Threads.daemonFactory;
+import static java.util.Comparator.comparing;
+
+/**
+ * Resolves the libraries of many {@link VipuPlugin}s at once using an {@link InjectingLibraryLoader}.
+ * <p>
+ *     The libraries of all plugins are first resolved as a single {@link InjectingLibraryLoader#resolveUnion(List)
+ *     union}, so that each library is injected exactly once, in one mediated version. If the union cannot be
+ *     resolved, the plugins are resolved separately instead, so that one plugin's unresolvable library does not
+ *     prevent the others from loading.
+ * </p>
+ * <p>
+ *     Separate resolutions run concurrently on a bounded pool of daemon threads, sharing the loader's
+ *     {@link org.eclipse.aether.RepositorySystem} and its read-only session. The resolved JARs are then injected
+ *     on the calling thread in a deterministic order, sorted by plugin class name, so that the class path of the
+ *     server does not depend on which download finished first.
+ * </p>
+ * <p>
+ *     Resolution only needs the {@link InjectingLibraryLoader.Request}s of the plugins, which the
+ *     {@link blue.lhf.vipu.scanning.PluginScanner} reads from their class files, so it can be started with
+ *     {@link #resolve(Collection)} before the plugin classes are loaded, and finished with
+ *     {@link #inject(Pending, BiConsumer)} once they are. Plugins whose libraries are injected later can be
+ *     resolved separately against the union with {@link #resolveEach(Pending, Collection)} instead, and left
+ *     uninjected.
+ * </p>
+ * */
+public class ResolutionEngine implements AutoCloseable {
+    private final InjectingLibraryLoader loader;
+    private final StartupTimings timings;
+    private final ExecutorService executor;
+    private final Logger logger;
+
+    /**
+     * @param loader The library loader to resolve and inject with.
+     * @param parallelism The maximum number of plugins to resolve at once.
+     * @param timings The timings to record the resolution of each plugin in.
+     * @param logger The logger to report a failed union resolution to.
+     * */
+    public ResolutionEngine(final InjectingLibraryLoader loader, final int parallelism,
+                            final StartupTimings timings, final Logger logger) {
+        this.loader = loader;
+        this.timings = timings;
+        this.logger = logger;
+        this.executor = Executors.newFixedThreadPool(parallelism, daemonFactory("Vipu Resolver"));
+    }
+
+    /**
+     * Resolves and injects the libraries of the given plugins.
+     * @param requests The libraries requested by each plugin.
+     * @param onException The action to take when the libraries of a plugin fail to resolve or inject.
+     * @return The requests whose libraries were successfully injected, in injection order.
+     * */
+    public List<InjectingLibraryLoader.Request> injectDependencies(
+        final Collection<InjectingLibraryLoader.Request> requests,
+        final BiConsumer<InjectingLibraryLoader.Request, Exception> onException) {
+        return inject(resolve(requests), onException);
+    }
+
+    /**
+     * Starts resolving the libraries of the given plugins in the background, without injecting them,
+     * so that they can be downloaded while the plugins are still being loaded.
+     * @param requests The libraries requested by each plugin.
+     * @return The pending resolution, to be passed to {@link #inject(Pending, BiConsumer)}.
+     * */
+    public Pending resolve(final Collection<InjectingLibraryLoader.Request> requests) {
+        final List<InjectingLibraryLoader.Request> ordered = new ArrayList<>(requests);
+        ordered.sort(comparing(InjectingLibraryLoader.Request::id));
+        return new Pending(ordered, executor.submit(() -> resolveUnion(ordered)));
+    }
+
+    /**
+     * Waits for a pending resolution and injects its libraries.
+     * @param pending The pending resolution, as returned by {@link #resolve(Collection)}.
+     * @param onException The action to take when the libraries of a plugin fail to resolve or inject.
+     * @return The requests whose libraries were successfully injected, in injection order.
+     * */
+    public List<InjectingLibraryLoader.Request> inject(
+        final Pending pending, final BiConsumer<InjectingLibraryLoader.Request, Exception> onException) {
+        final InjectingLibraryLoader.Resolution union;
+        try {
+            union = await(pending.union);
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Failed to resolve the libraries of all plugins together, " +
+                "resolving them separately", e);
+            return injectSeparately(pending.requests, onException);
+        }
+
+        try {
+            loader.inject(union);
+        } catch (Exception e) {
+            pending.requests.forEach(request -> onException.accept(request, e));
+            return List.of();
+        }
+
+        return pending.requests;
+    }
+
+    /**
+     * Starts resolving the libraries of each of the given plugins separately in the background, without injecting
+     * them, for plugins whose libraries are injected later, one plugin at a time. Each plugin is resolved once the
+     * union of a pending resolution is, keeping every library of the union in the version the union chose, so that
+     * injecting the plugin later does not bring a second version of a library. If the union cannot be resolved,
+     * the plugins are resolved on their own.
+     * @param against The pending resolution of the plugins that are injected first.
+     * @param requests The libraries requested by each plugin.
+     * @return The pending resolution of each plugin, to be passed to {@link #await(Map, BiConsumer)}.
+     * */
+    public Map<InjectingLibraryLoader.Request, Future<InjectingLibraryLoader.Resolution>> resolveEach(
+        final Pending against, final Collection<InjectingLibraryLoader.Request> requests) {
+        final Map<InjectingLibraryLoader.Request, Future<InjectingLibraryLoader.Resolution>> pending =
+            new LinkedHashMap<>();
+        for (final InjectingLibraryLoader.Request request : requests) {
+            pending.put(request, executor.submit(() -> resolve(request, against.union)));
+        }
+
+        return pending;
+    }
+
+    /**
+     * Waits for pending resolutions without injecting their libraries.
+     * @param pending The pending resolutions, as returned by {@link #resolveEach(Pending, Collection)}.
+     * @param onException The action to take when the libraries of a plugin fail to resolve.
+     * @return The resolved libraries of each plugin whose libraries were successfully resolved.
+     * */
+    public Map<InjectingLibraryLoader.Request, InjectingLibraryLoader.Resolution> await(
+        final Map<InjectingLibraryLoader.Request, Future<InjectingLibraryLoader.Resolution>> pending,
+        final BiConsumer<InjectingLibraryLoader.Request, Exception> onException) {
+        final Map<InjectingLibraryLoader.Request, InjectingLibraryLoader.Resolution> resolved = new LinkedHashMap<>();
+        pending.forEach((request, resolution) -> {
+            try {
+                resolved.put(request, await(resolution));
+            } catch (Exception e) {
+                onException.accept(request, e);
+            }
+        });
+
+        return resolved;
+    }
+
+    private List<InjectingLibraryLoader.Request> injectSeparately(
+        final List<InjectingLibraryLoader.Request> ordered,
+        final BiConsumer<InjectingLibraryLoader.Request, Exception> onException) {
+        final Map<InjectingLibraryLoader.Request, Future<InjectingLibraryLoader.Resolution>> pending =
+            new LinkedHashMap<>();
+        for (final InjectingLibraryLoader.Request request : ordered) {
+            pending.put(request, executor.submit(() -> resolve(request)));
+        }
+
+        final List<InjectingLibraryLoader.Request> successful = new ArrayList<>();
+        for (final Map.Entry<InjectingLibraryLoader.Request, Future<InjectingLibraryLoader.Resolution>> entry
+            : pending.entrySet()) {
+            try {
+                loader.inject(await(entry.getValue()));
+                successful.add(entry.getKey());
+            } catch (Exception e) {
+                onException.accept(entry.getKey(), e);
+            }
+        }
+
+        return successful;
+    }
+
+    private InjectingLibraryLoader.Resolution resolveUnion(final List<InjectingLibraryLoader.Request> requests)
+        throws Exception {
+        try (final StartupTimings.Span span = timings.subject(Phase.RESOLUTION, "union")) {
+            return count(span, loader.resolveUnion(requests));
+        }
+    }
+
+    private InjectingLibraryLoader.Resolution resolve(final InjectingLibraryLoader.Request request) throws Exception {
+        try (final StartupTimings.Span span = timings.subject(Phase.RESOLUTION, request.id())) {
+            return count(span, loader.resolveDependencies(request));
+        }
+    }
+
+    private InjectingLibraryLoader.Resolution resolve(final InjectingLibraryLoader.Request request,
+                                                      final Future<InjectingLibraryLoader.Resolution> union)
+        throws Exception {
+        InjectingLibraryLoader.Resolution mediated;
+        try {
+            mediated = await(union);
+        } catch (Exception e) {
+            mediated = null;
+        }
+
+        try (final StartupTimings.Span span = timings.subject(Phase.RESOLUTION, request.id())) {
+            return count(span, mediated != null ? loader.resolveDependencies(request, mediated)
+                : loader.resolveDependencies(request));
+        }
+    }
+
+    private static InjectingLibraryLoader.Resolution count(final StartupTimings.Span span,
+                                                           final InjectingLibraryLoader.Resolution resolution) {
+        span.count(Counter.ARTIFACTS_DOWNLOADED, resolution.downloadedArtifacts())
+            .count(Counter.ARTIFACTS_LOCAL, resolution.libraries().size() - resolution.downloadedArtifacts())
+            .count(Counter.BYTES_DOWNLOADED, resolution.downloadedBytes());
+        return resolution;
+    }
+
+    private static <T> T await(final Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) throw cause;
+            throw e;
+        }
+    }
+
+    /**
+     * A resolution started by {@link #resolve(Collection)}.
+     * */
+    public static final class Pending {
+        private final List<InjectingLibraryLoader.Request> requests;
+        private final Future<InjectingLibraryLoader.Resolution> union;
+
+        private Pending(final List<InjectingLibraryLoader.Request> requests,
+                        final Future<InjectingLibraryLoader.Resolution> union) {
+            this.requests = requests;
+            this.union = union;
+        }
+    }
+
+    /**
+     * Stops the resolver threads. Resolutions that are still running are interrupted.
+     * */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
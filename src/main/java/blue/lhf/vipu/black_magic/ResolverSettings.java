@@ -0,0 +1,46 @@
+package blue.lhf.vipu.black_magic;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Where and how an {@link InjectingLibraryLoader} resolves libraries.
+ * @param repositories The remote repositories to resolve libraries from, in the order they are tried.
+ *                     URLs may use the <code>http</code>, <code>https</code> or <code>file</code> protocol.
+ * @param mirrors The mirrors that replace some of the repositories, in the order they are matched.
+ * @param downloadThreads The maximum number of artifacts to download from one repository at once.
+ * @param connectTimeout How long to wait for a connection to a repository, unless the repository overrides it.
+ * @param requestTimeout How long to wait for a response from a repository, unless the repository overrides it.
+ * @param mediation How to choose between different requested versions of the same library.
+ * @param failureTtl How long a failed resolution is remembered before it is attempted again.
+ * @param store The directory of the library store shared with other servers on the same host, or <code>null</code>
+ *              to keep libraries in the local repository of this server only.
+ * */
+public record ResolverSettings(List<Repository> repositories, List<Mirror> mirrors, int downloadThreads,
+                               Duration connectTimeout, Duration requestTimeout, Mediation mediation,
+                               Duration failureTtl, Path store) {
+    /** The settings Vipu uses without a configuration: Maven Central only. */
+    public static final ResolverSettings DEFAULTS = new ResolverSettings(
+        List.of(new Repository("central", "https://repo.maven.apache.org/maven2", null, null)), List.of(), 8,
+        Duration.ofSeconds(10), Duration.ofSeconds(60), Mediation.NEAREST, Duration.ofMinutes(5), null);
+
+    /**
+     * A remote repository.
+     * @param id The identifier of the repository, used to attribute downloads in logs.
+     * @param url The URL of the repository.
+     * @param connectTimeout The connect timeout of this repository, or <code>null</code> to use the default.
+     * @param requestTimeout The request timeout of this repository, or <code>null</code> to use the default.
+     * */
+    public record Repository(String id, String url, Duration connectTimeout, Duration requestTimeout) {
+    }
+
+    /**
+     * A repository that is used in place of others, for example a nearby proxy of Maven Central.
+     * @param repository The mirror repository.
+     * @param mirrorOf The identifiers of the repositories to replace, separated by commas, or <code>*</code>
+     *                 to replace all of them. Identifiers prefixed with <code>!</code> are excluded.
+     * */
+    public record Mirror(Repository repository, String mirrorOf) {
+    }
+}
@@ -1,24 +1,84 @@
 package blue.lhf.vipu.black_magic;
 
+import blue.lhf.vipu.escaping.ClassTransformer;
 import mx.kenzie.overlord.Overlord;
 
 import java.io.*;
+import java.lang.annotation.Annotation;
+import java.lang.invoke.*;
 import java.lang.reflect.Proxy;
 import java.lang.reflect.*;
 import java.net.*;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
 
 /**
  * Utility for injecting JARs and classes into a {@link URLClassLoader}.
  * */
 @SuppressWarnings("unchecked")
 public class Surma {
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+
     private final URLCLassLoaderAccess access;
 
+    /**
+     * The injected version of each class passed through {@link #injectedOrSelf(Class)}, or the class itself if
+     * it has not been injected. Cleared whenever something is injected, since that may change the answer.
+     * */
+    private final Map<Class<?>, Class<?>> injectedTypes = new ConcurrentHashMap<>();
+
+    /**
+     * The resolved target method of each proxied interface method, by target class.
+     * Cleared whenever something is injected, since that may change the parameter types to look up.
+     * */
+    private final Map<Class<?>, Map<Method, Invoker>> invokers = new ConcurrentHashMap<>();
+
+    private final Conversions conversions = new Conversions(this);
+
+    /**
+     * The index that JARs are injected into, or <code>null</code> if they are added to the class loader directly.
+     * */
+    private final ClassPathIndex index;
+
+    /** How many layers of the index have been added to the class loader. */
+    private int indexLayers;
+
+    /** The URLs passed to {@link #injectJAR(URL)}, in injection order. */
+    private final List<URL> injectedJARs = new CopyOnWriteArrayList<>();
+
+    private final ClassTransformation transformation;
+
     /**
      * @param access The {@link URLClassLoader} to inject into.
      * */
     public Surma(final URLClassLoader access) {
+        this(access, false);
+    }
+
+    /**
+     * @param access The {@link URLClassLoader} to inject into.
+     * @param indexed Whether to inject JAR files into a {@link ClassPathIndex package index} instead of adding each
+     *                as a separate URL, so that class and resource lookups do not slow down with every JAR injected.
+     *                Classes loaded from indexed JARs report the index, not their JAR, as their code source.
+     * */
+    public Surma(final URLClassLoader access, final boolean indexed) {
+        this(access, indexed, null, Logger.getLogger(Surma.class.getName()));
+    }
+
+    /**
+     * @param access The {@link URLClassLoader} to inject into.
+     * @param indexed Whether to inject JAR files into a {@link ClassPathIndex package index}.
+     *                Only the classes of indexed JARs are passed through the registered {@link ClassTransformer}s.
+     * @param transformCache The directory to cache transformed classes in, or <code>null</code> to not cache them.
+     * @param logger The logger to report failing transformers to.
+     * @see ClassTransformation
+     * */
+    public Surma(final URLClassLoader access, final boolean indexed, final Path transformCache, final Logger logger) {
         this.access = new URLCLassLoaderAccess(access);
+        this.transformation = new ClassTransformation(this, transformCache, logger);
+        this.index = indexed ? new ClassPathIndex(transformation) : null;
     }
 
     /**
@@ -37,17 +97,83 @@ public class Surma {
     }
 
     /**
-     * Adds the given {@link URL} to the {@link URLClassLoader}.
+     * Adds the given {@link URL} to the {@link URLClassLoader}. If this instance is indexed and the URL points to a
+     * local JAR file, the JAR is added to the index instead, and the class loader only gains a URL if the index
+     * needs another layer.
      * @param url The URL to add.
      * @see URLClassLoader#addURL(URL)
+     * @see ClassPathIndex
      * @throws InvocationTargetException If the underlying call to {@link URLClassLoader#addURL(URL)} throws an exception.
      * */
     public void injectJAR(final URL url) throws InvocationTargetException {
-        access.addURL(url);
+        if (index == null || !"file".equals(url.getProtocol()) || !url.getPath().endsWith(".jar")) {
+            access.addURL(url);
+        } else synchronized (index) {
+            try {
+                final int layers = index.add(Path.of(url.toURI()));
+                for (; indexLayers < layers; ++indexLayers) access.addURL(index.layer(indexLayers));
+            } catch (IOException | URISyntaxException | IllegalArgumentException unindexable) {
+                access.addURL(url);
+            }
+        }
+
+        injectedJARs.add(url);
+        invalidateCaches();
     }
 
     /**
-     * Injects a single class into the {@link URLClassLoader}. This action is idempotent.
+     * @return The URLs of the JARs injected with {@link #injectJAR(URL)}, in injection order.
+     * */
+    public List<URL> injectedJARs() {
+        return List.copyOf(injectedJARs);
+    }
+
+    /**
+     * @return Whether JAR files are injected into a {@link ClassPathIndex package index}, and so whether their
+     *         classes are passed through the registered {@link ClassTransformer}s.
+     * */
+    public boolean isIndexed() {
+        return index != null;
+    }
+
+    /**
+     * @return How many resources each JAR in the {@link ClassPathIndex package index} has served, by the path of
+     *         the JAR, in injection order, or an empty map if this instance is not indexed.
+     * */
+    public Map<Path, Long> indexedResourceHits() {
+        return index == null ? Map.of() : index.hits();
+    }
+
+    /**
+     * @return How many resources were looked up in the {@link ClassPathIndex package index} without being found,
+     *         or nothing if this instance is not indexed. Lookups of the server's own classes that reach the index
+     *         are included.
+     * */
+    public OptionalLong indexedResourceMisses() {
+        return index == null ? OptionalLong.empty() : OptionalLong.of(index.misses());
+    }
+
+    /**
+     * @return Whether the {@link URLClassLoader} has already loaded the class with the given name.
+     *         Unlike {@link #loadInjected(Class)}, this never loads the class.
+     * @param className The binary name of the class.
+     * @see ClassLoader#findLoadedClass(String)
+     * */
+    public boolean isLoaded(final String className) {
+        return access.findLoadedClass(className) != null;
+    }
+
+    /**
+     * @return The class with the given name if the {@link URLClassLoader} has already loaded it, or <code>null</code>.
+     * @param className The binary name of the class.
+     * */
+    Class<?> findLoaded(final String className) {
+        return access.findLoadedClass(className);
+    }
+
+    /**
+     * Injects a single class into the {@link URLClassLoader}, passing it through the registered
+     * {@link ClassTransformer}s. This action is idempotent.
      * @param clazz The class to inject. The bytecode of the class must be available at <code>/name/of/Class.class</code>
      *              in the class loader of the input class.
      * @throws Exception If the bytecode of the class could not be found or if the class could not be defined.
@@ -57,11 +183,120 @@ public class Surma {
         try {
             return loadInjected(clazz);
         } catch (ClassNotFoundException exception) {
-            final byte[] bytes = getBytecode(clazz);
-            return access.defineClass(bytes, 0, bytes.length);
+            final byte[] original = getBytecode(clazz);
+            final byte[] transformed = transformation.transform(clazz.getName(), () -> original);
+            final byte[] bytes = transformed != null ? transformed : original;
+            final Class<?> injected = access.defineClass(bytes, 0, bytes.length);
+            invalidateCaches();
+            return injected;
         }
     }
 
+    /**
+     * Injects every class in the package of the given class into the {@link URLClassLoader}, including nested
+     * classes but not subpackages. The package is listed from the JAR file or class directory the given class was
+     * loaded from. See {@link #injectAll(Collection)} for how the classes are injected.
+     * @param member A class in the package to inject.
+     * @return The injected version of each class in the package, by binary name.
+     * @throws IOException If the package could not be listed or the bytecode of a class could not be read.
+     * @throws InvocationTargetException If a class could not be defined.
+     * */
+    public Map<String, Class<?>> injectPackage(final Class<?> member) throws IOException, InvocationTargetException {
+        return inject(ClassBatch.packageSources(member));
+    }
+
+    /**
+     * Injects the given classes into the {@link URLClassLoader}, passing them through the registered
+     * {@link ClassTransformer}s. This action is idempotent.
+     * <p>
+     *     The bytecode of the classes is read in parallel, straight from the JAR files they were loaded from where
+     *     possible, and the classes are defined in an order where every superclass and interface in the batch comes
+     *     before the classes that extend it, so they may be given in any order. Classes that the class loader has
+     *     already loaded are not read again. If a class cannot be defined, the classes defined before it stay
+     *     injected, and injecting the batch again continues where it failed.
+     * </p>
+     * @param classes The classes to inject.
+     * @return The injected version of each class, by binary name.
+     * @throws IOException If the bytecode of a class could not be read.
+     * @throws InvocationTargetException If a class could not be defined.
+     * */
+    public Map<String, Class<?>> injectAll(final Collection<? extends Class<?>> classes)
+        throws IOException, InvocationTargetException {
+        final List<ClassBatch.Source> sources = new ArrayList<>(classes.size());
+        for (final Class<?> clazz : classes) sources.add(ClassBatch.Source.of(clazz));
+        return inject(sources);
+    }
+
+    private Map<String, Class<?>> inject(final List<ClassBatch.Source> sources)
+        throws IOException, InvocationTargetException {
+        final Map<String, Class<?>> injected = new LinkedHashMap<>();
+        final List<ClassBatch.Source> missing = new ArrayList<>();
+        for (final ClassBatch.Source source : sources) {
+            final Class<?> loaded = findLoaded(source.className());
+            if (loaded != null) injected.put(source.className(), loaded);
+            else missing.add(source);
+        }
+
+        if (missing.isEmpty()) return injected;
+        try {
+            for (final ClassBatch.Bytecode bytecode : ClassBatch.ordered(ClassBatch.read(missing, transformation))) {
+                injected.put(bytecode.className(), define(bytecode.className(), bytecode.bytecode()));
+            }
+        } finally {
+            invalidateCaches();
+        }
+
+        return injected;
+    }
+
+    /**
+     * Defines a class, or returns the class of the same name if another thread defined it first.
+     * */
+    private Class<?> define(final String className, final byte[] bytecode) throws InvocationTargetException {
+        try {
+            return access.defineClass(bytecode, 0, bytecode.length);
+        } catch (InvocationTargetException e) {
+            final Class<?> raced = e.getCause() instanceof LinkageError ? findLoaded(className) : null;
+            if (raced == null) throw e;
+            return raced;
+        }
+    }
+
+    /**
+     * Defines a class of the {@link URLClassLoader} itself, such as a server class, from its own bytecode after
+     * passing it through the registered {@link ClassTransformer}s, so that the transformed class is used in place
+     * of the original. The class must not have been loaded yet.
+     * @param className The binary name of the class.
+     * @return The defined class.
+     * @throws IllegalStateException If the class has already been loaded.
+     * @throws ClassNotFoundException If the class loader has no bytecode for the class.
+     * @throws Exception If the bytecode of the class could not be read or if the class could not be defined.
+     * */
+    public Class<?> defineTransformed(final String className) throws Exception {
+        if (findLoaded(className) != null) throw new IllegalStateException(className + " has already been loaded");
+
+        final String path = className.replace('.', '/') + ".class";
+        final byte[] original;
+        try (final InputStream stream = access.target().getResourceAsStream(path)) {
+            if (stream == null) throw new ClassNotFoundException(className);
+            original = stream.readAllBytes();
+        }
+
+        final byte[] transformed = transformation.transform(className, () -> original);
+        final byte[] bytes = transformed != null ? transformed : original;
+        final Class<?> defined = access.defineClass(bytes, 0, bytes.length);
+        invalidateCaches();
+        return defined;
+    }
+
+    /**
+     * @return The transformation that the registered {@link ClassTransformer}s are applied through,
+     *         for reporting the time they take.
+     * */
+    public ClassTransformation transformation() {
+        return transformation;
+    }
+
     /**
      * @return The version of the given class that is loaded by the {@link URLClassLoader}.
      * @throws ClassNotFoundException If the given class has not been injected.
@@ -78,6 +313,12 @@ public class Surma {
     /**
      * @return A proxy of the input {@link Object} that uses reflective access to invoke methods and implements
      *         the given interface.
+     * <p>
+     *     The target method of each interface method is looked up once per target class and cached as a
+     *     {@link MethodHandle}, so repeated calls do not repeat the reflective lookup. Only arguments whose
+     *     parameter type differs between the interface and the target are converted, using cached conversion
+     *     plans, so calls whose parameter types match on both sides do not allocate.
+     * </p>
      * @throws IllegalArgumentException If the argument restrictions placed by {@link Proxy#newProxyInstance(ClassLoader, Class[], InvocationHandler)} are not met
      * @param theInterface The interface to implement.
      * @param <T> The type of the interface.
@@ -88,12 +329,25 @@ public class Surma {
         if (target == null) return null;
         return (T) Proxy.newProxyInstance(theInterface.getClassLoader(), new Class<?>[]{theInterface},
             (proxy, method, args) -> {
-                final Class<?>[] injectedTypes = loadInjected(method.getParameterTypes());
-                return target.getClass().getMethod(method.getName(), injectedTypes).invoke(target,
-                    transform(args, injectedTypes));
+                final Invoker invoker = invoker(target.getClass(), method);
+                return invoker.handle().invokeExact(target, conversions.convert(args, invoker.conversions()));
             });
     }
 
+    /**
+     * @return The annotation of the given type on the given element, as a {@link #reflectiveProxy(Class, Object)
+     *         reflective proxy} of the annotation type, or <code>null</code> if the element is not annotated with it.
+     * @throws ClassNotFoundException If the annotation type has not been injected.
+     * @param element The element, usually an injected class, to read the annotation from.
+     * @param annotationType The non-injected version of the annotation type.
+     * @param <A> The annotation type.
+     * */
+    public <A extends Annotation> A injectedAnnotation(final AnnotatedElement element, final Class<A> annotationType)
+        throws ClassNotFoundException {
+        final Class<? extends Annotation> injected = loadInjected(annotationType);
+        return reflectiveProxy(annotationType, element.getAnnotation(injected));
+    }
+
     /**
      * @return The source class of a {@link Proxy} object.
      * @param proxy The proxy to get the source class of.
@@ -115,6 +369,39 @@ public class Surma {
         return access.target();
     }
 
+    /**
+     * @return The cached invoker of the given interface method on the given target class.
+     * @param targetClass The class of the proxied object.
+     * @param method The interface method that was called.
+     * @throws NoSuchMethodException If the target class has no matching public method.
+     * @throws IllegalAccessException If the matching method is not accessible.
+     * */
+    private Invoker invoker(final Class<?> targetClass, final Method method)
+        throws NoSuchMethodException, IllegalAccessException {
+        final Map<Method, Invoker> byMethod = invokers.computeIfAbsent(targetClass,
+            ignored -> new ConcurrentHashMap<>());
+        final Invoker cached = byMethod.get(method);
+        if (cached != null) return cached;
+
+        final Class<?>[] injectedTypes = loadInjected(method.getParameterTypes());
+        final Method targetMethod = targetClass.getMethod(method.getName(), injectedTypes);
+        targetMethod.trySetAccessible();
+
+        final MethodHandle handle = MethodHandles.lookup().unreflect(targetMethod)
+            .asSpreader(Object[].class, injectedTypes.length)
+            .asType(INVOKER_TYPE);
+
+        final Class<?>[] parameterTypes = method.getParameterTypes();
+        final Class<?>[] conversions = new Class<?>[injectedTypes.length];
+        for (int i = 0; i < injectedTypes.length; ++i) {
+            if (injectedTypes[i] != parameterTypes[i]) conversions[i] = injectedTypes[i];
+        }
+
+        final Invoker invoker = new Invoker(handle, conversions);
+        byMethod.putIfAbsent(method, invoker);
+        return invoker;
+    }
+
     /**
      * Maps the given array of classes to their injected versions, or themselves if they are not injected.
      * @param parameterTypes The classes to map.
@@ -122,42 +409,60 @@ public class Surma {
      * */
     private Class<?>[] loadInjected(Class<?>[] parameterTypes) {
         if (parameterTypes == null) return null;
-        final Class<?>[] injected = new Class[parameterTypes.length];
+        final Class<?>[] injected = new Class<?>[parameterTypes.length];
         for (int i = 0; i < parameterTypes.length; ++i) {
-            try {
-                injected[i] = loadInjected(parameterTypes[i]);
-            } catch (ClassNotFoundException notInjected) {
-                injected[i] = parameterTypes[i];
-            }
+            injected[i] = injectedOrSelf(parameterTypes[i]);
         }
 
         return injected;
     }
 
     /**
-     * Forcibly transforms the given array of objects to the specified types.
-     * @param args The objects to transform.
-     * @param parameterTypes The types to transform the objects to.
-     * @return The transformed objects.
+     * @return The injected version of the given class, or the class itself if it has not been injected.
+     *         Both answers are cached, so classes that are not injected do not cost a failed lookup every time.
+     * @param type The class to map.
      * */
-    private Object[] transform(final Object[] args, final Class<?>[] parameterTypes) {
-        if (args == null) return null;
-        final Object[] output = new Object[args.length];
-        for (int i = 0; i < parameterTypes.length; ++i) {
-            if (parameterTypes[i].isInterface()) {
-                output[i] = reflectiveProxy(parameterTypes[i], args[i]);
-                continue;
-            }
+    private Class<?> injectedOrSelf(final Class<?> type) {
+        final Class<?> cached = injectedTypes.get(type);
+        if (cached != null) return cached;
 
-            output[i] = Overlord.transform(args[i], parameterTypes[i]);
+        Class<?> injected;
+        try {
+            injected = type.isPrimitive() ? type : loadInjected(type);
+        } catch (ClassNotFoundException notInjected) {
+            injected = type;
         }
 
-        return output;
+        injectedTypes.putIfAbsent(type, injected);
+        return injected;
+    }
+
+    /**
+     * Drops the injected types and proxy call targets cached while plugins were bootstrapped. They are looked up
+     * again when they are next needed, so this only frees the entries that are not used after startup.
+     * */
+    public void trim() {
+        invalidateCaches();
+    }
+
+    private void invalidateCaches() {
+        injectedTypes.clear();
+        invokers.clear();
+    }
+
+    /**
+     * A resolved proxy call target.
+     * @param handle The target method, taking the receiver and a spread argument array.
+     * @param conversions The type to convert each argument to, or <code>null</code> where no conversion is needed.
+     * @see Conversions#convert(Object[], Class[])
+     * */
+    private record Invoker(MethodHandle handle, Class<?>[] conversions) {
     }
 
     private record URLCLassLoaderAccess(URLClassLoader target) {
         private static final Method addURL;
         private static final Method defineClass;
+        private static final Method findLoadedClass;
 
         static {
             try {
@@ -172,6 +477,9 @@ public class Surma {
                     byte[].class, int.class, int.class);
 
                 defineClass.setAccessible(true);
+
+                findLoadedClass = ClassLoader.class.getDeclaredMethod("findLoadedClass", String.class);
+                findLoadedClass.setAccessible(true);
             } catch (Exception exc) {
                 throw new ExceptionInInitializerError(exc);
             }
@@ -193,5 +501,15 @@ public class Surma {
                 throw new AssertionError("URLClassLoader#defineClass is not accessible", e);
             }
         }
+
+        public Class<?> findLoadedClass(final String name) {
+            try {
+                return (Class<?>) findLoadedClass.invoke(target, name);
+            } catch (IllegalAccessException e) {
+                throw new AssertionError("URLClassLoader#findLoadedClass is not accessible", e);
+            } catch (InvocationTargetException e) {
+                throw new AssertionError("URLClassLoader#findLoadedClass threw an exception", e.getCause());
+            }
+        }
     }
 }
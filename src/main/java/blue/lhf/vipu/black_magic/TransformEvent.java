@@ -0,0 +1,18 @@
+package blue.lhf.vipu.black_magic;
+
+import jdk.jfr.*;
+
+/**
+ * A JFR event spanning one {@link blue.lhf.vipu.escaping.ClassTransformer} transforming one class.
+ * */
+@Name("blue.lhf.vipu.Transform")
+@Label("Vipu Class Transformation")
+@Category("Vipu")
+@StackTrace(false)
+class TransformEvent extends Event {
+    @Label("Transformer")
+    String transformer;
+
+    @Label("Class")
+    String className;
+}
@@ -0,0 +1,40 @@
+package blue.lhf.vipu.escaping;
+
+import java.lang.annotation.*;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Annotation to defer the initialisation of a {@link VipuPlugin} until it is first needed.
+ * <p>
+ *     The plugin class is loaded at startup, but its {@link Libraries} are not injected and its static initialiser
+ *     does not run until one of the triggers fires: one of the commands is run, one of the events is called, or one
+ *     of the services is looked up from {@link Services} without being registered. The plugin is then initialised
+ *     on the thread that fired the trigger, after the plugins it {@link LoadAfter loads after}, if they are deferred
+ *     too. Plugins that are initialised at startup do not wait for deferred plugins.
+ * </p>
+ * <p>
+ *     The plugin should register the commands, listeners and services that trigger it when it is initialised.
+ *     A command that triggers the plugin is run again once the plugin is initialised. An event that triggers the
+ *     plugin is not delivered to the listeners it registers, since the event is already being called.
+ * </p>
+ * */
+@Retention(RUNTIME)
+@Target(TYPE)
+public @interface ActivateOn {
+    /**
+     * @return The names of the commands that initialise the plugin when run.
+     * */
+    String[] commands() default {};
+
+    /**
+     * @return The Bukkit event classes that initialise the plugin when called.
+     * */
+    Class<?>[] events() default {};
+
+    /**
+     * @return The service interfaces that initialise the plugin when looked up.
+     * */
+    Class<?>[] services() default {};
+}
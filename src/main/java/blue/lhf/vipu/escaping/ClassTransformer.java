@@ -0,0 +1,35 @@
+package blue.lhf.vipu.escaping;
+
+/**
+ * Rewrites the bytecode of classes as Vipu loads them. Register transformers with {@link Transformers}.
+ * <p>
+ *     Transformers are applied to classes injected one by one, to classes defined with
+ *     <code>Surma#defineTransformed</code>, and, if the class path is indexed, to the classes of injected JARs.
+ *     Transformed classes are cached on disk, keyed by their original bytecode and the {@link #id() identifiers} of
+ *     the transformers that transformed them, so a transformer is only called again for a class if one of the two
+ *     changes. Classes loaded while a transformer runs are not transformed.
+ * </p>
+ * */
+public interface ClassTransformer {
+    /**
+     * @return The identifier of this transformer, like <code>example-plugin:world-generation:3</code>.
+     *         Must change whenever the output of {@link #transform(String, byte[])} changes, since it is part of the
+     *         cache key of the transformed classes.
+     * */
+    String id();
+
+    /**
+     * @return Whether this transformer transforms the class with the given name. Classes that no transformer
+     *         transforms are loaded without being hashed, cached or copied.
+     * @param className The binary name of the class, like <code>org.example.Example</code>.
+     * */
+    boolean transforms(String className);
+
+    /**
+     * @return The transformed bytecode of the class.
+     * @param className The binary name of the class.
+     * @param bytecode The bytecode of the class, as given by the previous transformer.
+     * @throws Exception If the class could not be transformed. The class is then loaded without this transformer.
+     * */
+    byte[] transform(String className, byte[] bytecode) throws Exception;
+}
@@ -0,0 +1,22 @@
+package blue.lhf.vipu.escaping;
+
+import java.lang.annotation.*;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Annotation to specify the plugins that must be initialised before a {@link VipuPlugin}.
+ * <p>
+ *     Plugins that are not ordered relative to each other may be initialised in parallel.
+ *     Plugins that are not installed are ignored.
+ * </p>
+ * */
+@Retention(RUNTIME)
+@Target(TYPE)
+public @interface LoadAfter {
+    /**
+     * @return The names of the plugins, as given by their {@link Name} annotation or their simple class name.
+     * */
+    String[] value();
+}
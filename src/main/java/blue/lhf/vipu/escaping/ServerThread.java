@@ -0,0 +1,15 @@
+package blue.lhf.vipu.escaping;
+
+import java.lang.annotation.*;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Annotation to specify that a {@link VipuPlugin} must be initialised on the server thread,
+ * for example because its static initialiser uses the Bukkit API.
+ * */
+@Retention(RUNTIME)
+@Target(TYPE)
+public @interface ServerThread {
+}
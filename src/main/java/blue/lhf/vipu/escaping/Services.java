@@ -0,0 +1,141 @@
+package blue.lhf.vipu.escaping;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.*;
+
+/**
+ * The registry of services that Vipu plugins provide to each other. A plugin registers an implementation under an
+ * interface, and other plugins look it up by the same interface. This class is thread-safe.
+ * <p>
+ *     Services are registered by the binary name of their interface, so a plugin may look a service up with its own
+ *     copy of the interface. If the implementation implements the interface the caller looks it up with, which is
+ *     the case when both resolve it from the server class loader, the implementation itself is returned, and calls
+ *     cost the same as any other interface call. Otherwise, it is wrapped in a bridge that implements the caller's
+ *     interface, which Vipu creates as a reflective proxy. Either answer is cached per interface until a service is
+ *     registered or unregistered, so a lookup is a single hash table access.
+ * </p>
+ * <p>
+ *     Looking up a service that is not registered initialises the plugins that are {@link ActivateOn activated} by
+ *     it, if there are any, and then looks it up again.
+ * </p>
+ * */
+public final class Services {
+    /** The registered implementations, by the binary name of their interface. Replaced, not changed. */
+    private static volatile Map<String, Object> registered = Map.of();
+
+    /** The answer of each lookup, by the interface it was looked up with. */
+    private static final Map<Class<?>, Resolved> resolved = new ConcurrentHashMap<>();
+
+    private static volatile BiFunction<Class<?>, Object, Object> bridgeFactory;
+    private static volatile Predicate<String> activator;
+
+    private Services() {
+
+    }
+
+    /**
+     * Registers an implementation of a service, replacing the implementation registered before it, if any.
+     * @param service The interface of the service.
+     * @param implementation The implementation of the service.
+     * @param <T> The type of the service.
+     * @throws IllegalArgumentException If the service is not an interface.
+     * */
+    public static synchronized <T> void register(final Class<T> service, final T implementation) {
+        if (!service.isInterface()) throw new IllegalArgumentException(service.getName() + " is not an interface");
+        final Map<String, Object> copy = new HashMap<>(registered);
+        copy.put(service.getName(), service.cast(Objects.requireNonNull(implementation)));
+        registered = Map.copyOf(copy);
+        resolved.clear();
+    }
+
+    /**
+     * Unregisters an implementation of a service, if it is the registered implementation.
+     * @param service The interface of the service.
+     * @param implementation The implementation to unregister.
+     * @param <T> The type of the service.
+     * */
+    public static synchronized <T> void unregister(final Class<T> service, final T implementation) {
+        if (registered.get(service.getName()) != implementation) return;
+        final Map<String, Object> copy = new HashMap<>(registered);
+        copy.remove(service.getName());
+        registered = Map.copyOf(copy);
+        resolved.clear();
+    }
+
+    /**
+     * @return The implementation of the given service, as an instance of the given interface, or <code>null</code>
+     *         if none is registered.
+     * @param service The interface of the service, which may be loaded by another class loader than the one
+     *                it was registered with.
+     * @param <T> The type of the service.
+     * @throws IllegalStateException If the implementation does not implement the given interface, and no bridge
+     *                               can be created because Vipu has not been loaded.
+     * */
+    public static <T> T get(final Class<T> service) {
+        Map<String, Object> current = registered;
+        final Resolved cached = resolved.get(service);
+        if (cached != null && cached.source() == current) return service.cast(cached.service());
+
+        Object implementation = current.get(service.getName());
+        final Predicate<String> activate = activator;
+        if (implementation == null && activate != null && activate.test(service.getName())) {
+            current = registered;
+            implementation = current.get(service.getName());
+        }
+
+        final Object answer;
+        if (implementation == null || service.isInstance(implementation)) {
+            answer = implementation;
+        } else {
+            final BiFunction<Class<?>, Object, Object> factory = bridgeFactory;
+            if (factory == null) {
+                throw new IllegalStateException("No bridge to " + service.getName() + " in "
+                    + service.getClassLoader() + ", since Vipu has not been loaded");
+            }
+
+            answer = factory.apply(service, implementation);
+        }
+
+        resolved.put(service, new Resolved(current, answer));
+        return service.cast(answer);
+    }
+
+    /**
+     * @return The implementation of the given service, as an instance of the given interface, if one is registered.
+     * @param service The interface of the service.
+     * @param <T> The type of the service.
+     * @see #get(Class)
+     * */
+    public static <T> Optional<T> find(final Class<T> service) {
+        return Optional.ofNullable(get(service));
+    }
+
+    /**
+     * Sets how implementations are bridged to interfaces they do not implement. Called by Vipu when it loads.
+     * @param factory The function that creates an instance of the given interface that delegates to
+     *                the given implementation.
+     * */
+    public static void bridgeFactory(final BiFunction<Class<?>, Object, Object> factory) {
+        bridgeFactory = factory;
+        resolved.clear();
+    }
+
+    /**
+     * Sets how plugins that are activated by a service are initialised. Called by Vipu when it enables.
+     * @param activator The function that initialises the plugins activated by the service with the given
+     *                  interface name, and returns whether it initialised any.
+     * */
+    public static void activator(final Predicate<String> activator) {
+        Services.activator = activator;
+        resolved.clear();
+    }
+
+    /**
+     * A cached lookup.
+     * @param source The registered implementations the lookup was answered from.
+     * @param service The answer, which may be <code>null</code>.
+     * */
+    private record Resolved(Map<String, Object> source, Object service) {
+    }
+}
@@ -0,0 +1,44 @@
+package blue.lhf.vipu.escaping;
+
+import java.util.*;
+
+/**
+ * The registry of {@link ClassTransformer}s. Transformers are applied in the order they were registered.
+ * This class is thread-safe.
+ * */
+public final class Transformers {
+    private static volatile List<ClassTransformer> registered = List.of();
+
+    private Transformers() {
+
+    }
+
+    /**
+     * Registers a transformer, to be applied after those registered before it.
+     * Classes that have already been loaded are not transformed.
+     * @param transformer The transformer to register.
+     * */
+    public static synchronized void register(final ClassTransformer transformer) {
+        final List<ClassTransformer> copy = new ArrayList<>(registered);
+        copy.add(Objects.requireNonNull(transformer));
+        registered = List.copyOf(copy);
+    }
+
+    /**
+     * Unregisters a transformer. Classes it has already transformed stay transformed.
+     * @param transformer The transformer to unregister.
+     * */
+    public static synchronized void unregister(final ClassTransformer transformer) {
+        final List<ClassTransformer> copy = new ArrayList<>(registered);
+        copy.remove(transformer);
+        registered = List.copyOf(copy);
+    }
+
+    /**
+     * @return The registered transformers, in registration order. The list is replaced, not changed,
+     *         when transformers are registered or unregistered.
+     * */
+    public static List<ClassTransformer> registered() {
+        return registered;
+    }
+}
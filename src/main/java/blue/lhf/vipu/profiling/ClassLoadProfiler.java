@@ -0,0 +1,312 @@
+package blue.lhf.vipu.profiling;
+
+import blue.lhf.vipu.black_magic.Surma;
+import blue.lhf.vipu.escaping.VipuPlugin;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.consumer.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.*;
+
+/**
+ * Attributes the classes loaded by the server class loader to the injected JARs they came from, and through the
+ * JARs to the plugins that own them.
+ * <p>
+ *     Class loading is observed through a JFR {@link RecordingStream} of the <code>jdk.ClassDefine</code>,
+ *     <code>jdk.ClassLoad</code> and <code>jdk.ClassLoaderStatistics</code> events, so nothing is added to the
+ *     class loading path itself. Each defined class is attributed by its package to the first injected JAR that
+ *     contains it, which is the JAR the class loader finds it in, or by its name if several JARs share the package.
+ *     Classes defined before the JARs are {@link #attribute(Map) known} are kept aside and attributed later.
+ * </p>
+ * <p>
+ *     The server class loader is told apart from other loaders of the same type, such as those the server creates
+ *     for the libraries of Bukkit plugins, by its JFR identifier. The identifier is taken from the definition of
+ *     {@link VipuPlugin}, which Vipu injects into the server class loader before any plugin JAR, so the profiler must
+ *     be started before that.
+ * </p>
+ * <p>
+ *     For each JAR, the profiler counts the classes defined from it, before and after startup completed, and adds
+ *     up their load times. Only loads the JVM itself initiates, such as resolving a reference or
+ *     {@link Class#forName(String)}, have a load time. Metaspace use is estimated by giving each JAR the share of the
+ *     class loader's metaspace that matches its share of the loader's classes. If the class path is indexed, the
+ *     resources each JAR served are counted too. The same figures are emitted periodically as
+ *     <code>blue.lhf.vipu.ClassLoading</code> JFR events.
+ * </p>
+ * */
+public final class ClassLoadProfiler implements AutoCloseable {
+    private static final Duration STATISTICS_PERIOD = Duration.ofSeconds(30);
+    private static final String CLASS_SUFFIX = ".class";
+
+    /** A class that is injected into the server class loader, and defined by no other loader of its type. */
+    private static final String ANCHOR = VipuPlugin.class.getName();
+
+    private final Surma surma;
+    private final String loaderType;
+    private final RecordingStream stream = new RecordingStream();
+    private final Runnable emitter = this::emit;
+
+    /** The JAR that serves each package, for packages in exactly one JAR. */
+    private final Map<String, Source> byPackage = new HashMap<>();
+
+    /** The JAR that serves each class, for classes in packages shared by several JARs. */
+    private final Map<String, Source> byClass = new HashMap<>();
+
+    /** The JARs in injection order. */
+    private final List<Source> sources = new ArrayList<>();
+
+    /** The classes seen before the JARs were known, or <code>null</code> once they are or startup completed. */
+    private List<Pending> pending = new ArrayList<>();
+
+    /** The JFR identifier of the server class loader, or <code>-1</code> until the {@link #ANCHOR} is defined. */
+    private volatile long loaderId = -1;
+
+    private volatile boolean startupComplete;
+    private volatile long loaderClasses;
+    private volatile long loaderMetaspace;
+
+    /**
+     * @param surma The {@link Surma} instance whose class loader and injected JARs to profile.
+     * */
+    public ClassLoadProfiler(final Surma surma) {
+        this.surma = surma;
+        this.loaderType = surma.getTarget().getClass().getName();
+    }
+
+    /**
+     * Starts observing class loading in the background.
+     * @throws IllegalStateException If JFR is not available in this JVM.
+     * */
+    public void start() {
+        stream.enable("jdk.ClassDefine").withoutStackTrace();
+        stream.enable("jdk.ClassLoad").withoutStackTrace().withThreshold(Duration.ZERO);
+        stream.enable("jdk.ClassLoaderStatistics").withPeriod(STATISTICS_PERIOD);
+        stream.disable(ClassLoadingEvent.class);
+        stream.onEvent("jdk.ClassDefine", this::onDefine);
+        stream.onEvent("jdk.ClassLoad", this::onLoad);
+        stream.onEvent("jdk.ClassLoaderStatistics", this::onStatistics);
+        stream.startAsync();
+
+        FlightRecorder.addPeriodicEvent(ClassLoadingEvent.class, emitter);
+    }
+
+    /**
+     * Sets the injected JARs to attribute classes to, and attributes the classes that were defined before.
+     * May only be called once, after all JARs have been injected and before {@link #startupComplete()}.
+     * @param owners The owner of each injected JAR, such as the names of the plugins in it, in injection order.
+     * @throws IOException If one of the JARs could not be read.
+     * @throws IllegalStateException If the JARs have already been set, or startup has completed.
+     * */
+    public void attribute(final Map<Path, String> owners) throws IOException {
+        synchronized (this) {
+            if (pending == null) {
+                throw new IllegalStateException("The injected JARs have already been set, or startup has completed");
+            }
+        }
+
+        final Map<String, Map<Source, List<String>>> classesByPackage = new HashMap<>();
+        final List<Source> added = new ArrayList<>();
+        for (final Map.Entry<Path, String> entry : owners.entrySet()) {
+            final Source source = new Source(entry.getKey(), entry.getValue());
+            added.add(source);
+            try (final ZipFile zip = new ZipFile(entry.getKey().toFile())) {
+                final Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    final String name = entries.nextElement().getName();
+                    if (!name.endsWith(CLASS_SUFFIX) || name.startsWith("META-INF/")) continue;
+
+                    final String className = name.substring(0, name.length() - CLASS_SUFFIX.length()).replace('/', '.');
+                    classesByPackage.computeIfAbsent(packageOf(className), ignored -> new LinkedHashMap<>())
+                                    .computeIfAbsent(source, ignored -> new ArrayList<>()).add(className);
+                }
+            }
+        }
+
+        synchronized (this) {
+            if (pending == null) return;
+            classesByPackage.forEach((pkg, bySource) -> {
+                if (bySource.size() == 1) {
+                    byPackage.put(pkg, bySource.keySet().iterator().next());
+                    return;
+                }
+
+                bySource.forEach((source, classes) -> classes.forEach(name -> byClass.putIfAbsent(name, source)));
+            });
+
+            sources.addAll(added);
+            for (final Pending defined : pending) {
+                final Source source = source(defined.className());
+                if (source == null) continue;
+                if (defined.loadNanos() < 0) source.classes.increment();
+                else source.loadNanos.add(defined.loadNanos());
+            }
+
+            pending = null;
+        }
+    }
+
+    /**
+     * Marks the end of startup. Classes defined afterwards are counted separately, since a plugin that keeps
+     * defining classes during gameplay may cause lag spikes or grow the metaspace. Classes still kept aside are
+     * discarded, since the JARs are not set after startup.
+     * */
+    public void startupComplete() {
+        this.startupComplete = true;
+        synchronized (this) {
+            pending = null;
+        }
+    }
+
+    /**
+     * @return The class loading of each injected JAR so far, in injection order.
+     * */
+    public List<JarUsage> snapshot() {
+        final Map<Path, Long> hits = surma.indexedResourceHits();
+        final long classes = loaderClasses;
+        final long metaspace = loaderMetaspace;
+
+        final List<JarUsage> usage = new ArrayList<>();
+        synchronized (this) {
+            for (final Source source : sources) {
+                final long defined = source.classes.sum();
+                usage.add(new JarUsage(source.jar, source.owner, defined, source.classesAfterStartup.sum(),
+                    Duration.ofNanos(source.loadNanos.sum()), hits.getOrDefault(source.jar, 0L),
+                    classes == 0 ? 0 : metaspace * defined / classes));
+            }
+        }
+
+        return usage;
+    }
+
+    /**
+     * @return How many resources were looked up without being found in any injected JAR,
+     *         or nothing if the class path is not indexed.
+     * @see Surma#indexedResourceMisses()
+     * */
+    public OptionalLong resourceMisses() {
+        return surma.indexedResourceMisses();
+    }
+
+    private void onDefine(final RecordedEvent event) {
+        final RecordedClassLoader loader = event.getValue("definingClassLoader");
+        final String className = event.getClass("definedClass").getName();
+        if (loaderId == -1 && ANCHOR.equals(className) && loader != null && loader.getType() != null
+            && loaderType.equals(loader.getType().getName())) {
+            loaderId = loader.getId();
+        }
+
+        if (!isTarget(loader)) return;
+        synchronized (this) {
+            if (pending != null) {
+                pending.add(new Pending(className, -1));
+                return;
+            }
+
+            final Source source = source(className);
+            if (source == null) return;
+            source.classes.increment();
+            if (startupComplete) source.classesAfterStartup.increment();
+        }
+    }
+
+    private void onLoad(final RecordedEvent event) {
+        final RecordedClassLoader loader = event.getValue("definingClassLoader");
+        final RecordedClassLoader initiating = event.getValue("initiatingClassLoader");
+        if (!isTarget(loader) || initiating == null || initiating.getId() != loader.getId()) return;
+
+        final String className = event.getClass("loadedClass").getName();
+        final long nanos = event.getDuration().toNanos();
+        synchronized (this) {
+            if (pending != null) {
+                pending.add(new Pending(className, nanos));
+                return;
+            }
+
+            final Source source = source(className);
+            if (source != null) source.loadNanos.add(nanos);
+        }
+    }
+
+    private void onStatistics(final RecordedEvent event) {
+        final RecordedClassLoader loader = event.getValue("classLoader");
+        if (!isTarget(loader)) return;
+
+        loaderClasses = event.getLong("classCount");
+        loaderMetaspace = event.getLong("blockSize");
+    }
+
+    private boolean isTarget(final RecordedClassLoader loader) {
+        return loader != null && loaderId != -1 && loader.getId() == loaderId;
+    }
+
+    private Source source(final String className) {
+        final Source source = byPackage.get(packageOf(className));
+        return source != null ? source : byClass.get(className);
+    }
+
+    private static String packageOf(final String className) {
+        final int dot = className.lastIndexOf('.');
+        return dot < 0 ? "" : className.substring(0, dot);
+    }
+
+    private void emit() {
+        for (final JarUsage usage : snapshot()) {
+            final ClassLoadingEvent event = new ClassLoadingEvent();
+            event.jar = usage.jar().toString();
+            event.owner = usage.owner();
+            event.classesDefined = usage.classesDefined();
+            event.classesDefinedAfterStartup = usage.classesDefinedAfterStartup();
+            event.loadTime = usage.loadTime().toNanos();
+            event.resourceHits = usage.resourceHits();
+            event.metaspaceEstimate = usage.metaspaceEstimate();
+            event.commit();
+        }
+    }
+
+    /**
+     * Stops observing class loading.
+     * */
+    @Override
+    public void close() {
+        FlightRecorder.removePeriodicEvent(emitter);
+        stream.close();
+    }
+
+    /**
+     * The class loading of one injected JAR.
+     * @param jar The path of the JAR.
+     * @param owner The owner of the JAR, such as the names of the plugins in it.
+     * @param classesDefined How many classes were defined from the JAR.
+     * @param classesDefinedAfterStartup How many of those classes were defined after startup completed.
+     * @param loadTime The time it took to load the classes, added up, where known.
+     * @param resourceHits How many resources, including classes, the JAR served, if the class path is indexed.
+     * @param metaspaceEstimate The estimated metaspace used by the classes of the JAR, in bytes.
+     * */
+    public record JarUsage(Path jar, String owner, long classesDefined, long classesDefinedAfterStartup,
+                           Duration loadTime, long resourceHits, long metaspaceEstimate) {
+    }
+
+    /**
+     * A class seen before the JARs were known.
+     * @param className The binary name of the class.
+     * @param loadNanos The load time of the class, or <code>-1</code> if the class was defined rather than loaded.
+     * */
+    private record Pending(String className, long loadNanos) {
+    }
+
+    private static final class Source {
+        private final Path jar;
+        private final String owner;
+        private final LongAdder classes = new LongAdder();
+        private final LongAdder classesAfterStartup = new LongAdder();
+        private final LongAdder loadNanos = new LongAdder();
+
+        private Source(final Path jar, final String owner) {
+            this.jar = jar;
+            this.owner = owner;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package blue.lhf.vipu.profiling;
+
+import jdk.jfr.*;
+
+/**
+ * A periodic JFR event describing the class loading of one injected JAR so far.
+ * @see ClassLoadProfiler.JarUsage
+ * */
+@Name("blue.lhf.vipu.ClassLoading")
+@Label("Vipu Class Loading")
+@Category("Vipu")
+@Period("30 s")
+@StackTrace(false)
+class ClassLoadingEvent extends Event {
+    @Label("JAR")
+    String jar;
+
+    @Label("Owner")
+    String owner;
+
+    @Label("Classes Defined")
+    long classesDefined;
+
+    @Label("Classes Defined After Startup")
+    long classesDefinedAfterStartup;
+
+    @Label("Load Time")
+    @Timespan
+    long loadTime;
+
+    @Label("Resource Hits")
+    long resourceHits;
+
+    @Label("Estimated Metaspace")
+    @DataAmount
+    long metaspaceEstimate;
+}
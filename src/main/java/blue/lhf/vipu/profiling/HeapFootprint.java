@@ -0,0 +1,222 @@
+package blue.lhf.vipu.profiling;
+
+import org.bukkit.Server;
+import org.bukkit.plugin.Plugin;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Estimates how much heap the parts of Vipu retain, by walking the objects reachable from each part.
+ * <p>
+ *     The walk assumes a 64-bit JVM with compressed object pointers: 12-byte object headers, 16-byte array headers,
+ *     4-byte references, and objects aligned to 8 bytes. It only descends into Vipu's own classes, arrays and the
+ *     JDK's collections, and counts strings and boxed primitives as leaves. Every other object, such as a command
+ *     map, a plugin or an object of the server's implementation, belongs to the JVM or the server rather than to
+ *     Vipu, and the walk stops there, so that it does not cover the server's object graph. Classes, class loaders,
+ *     threads, loggers, enum constants and plugins stop the walk even if they are Vipu's own. An object reachable
+ *     from several parts is counted only for the first of them, so the parts add up.
+ * </p>
+ * <p>
+ *     The JDK's maps and collections are walked through their entries rather than their fields, with an estimate of
+ *     the size of each entry, since their fields cannot be read unless their module is open to Vipu. Vipu's objects
+ *     whose fields cannot be read are counted by their shallow size. The result is therefore an estimate, not an exact
+ *     retained size as a heap dump would report.
+ * </p>
+ * */
+public final class HeapFootprint {
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+    private static final int ALIGNMENT = 8;
+
+    /** The estimated size of the node that holds one entry of a hash map or hash set. */
+    private static final int HASH_ENTRY = 36;
+
+    /** The package of the classes the walk descends into, besides arrays and the JDK's collections. */
+    private static final String VIPU_PACKAGE = "blue.lhf.vipu.";
+
+    private static final List<Class<?>> BOUNDARIES = List.of(Class.class, ClassLoader.class, Thread.class,
+        ThreadGroup.class, Logger.class, Member.class, MethodHandle.class, Enum.class, Server.class, Plugin.class);
+
+    private final Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Map<Class<?>, Layout> layouts = new HashMap<>();
+
+    private HeapFootprint() {
+
+    }
+
+    /**
+     * The estimated heap retained by one part of Vipu.
+     * @param name The name of the part.
+     * @param bytes The estimated number of bytes.
+     * @param objects The number of objects counted.
+     * */
+    public record Part(String name, long bytes, long objects) {
+    }
+
+    /**
+     * Estimates the heap retained by each of the given parts.
+     * @param parts The root object of each part, by name, in the order to attribute shared objects in.
+     *              Parts that are <code>null</code> are left out.
+     * @return The estimate of each part, in the given order.
+     * */
+    public static List<Part> measure(final Map<String, ?> parts) {
+        final HeapFootprint footprint = new HeapFootprint();
+        final List<Part> measured = new ArrayList<>();
+        parts.forEach((name, root) -> {
+            if (root != null) measured.add(footprint.walk(name, root));
+        });
+
+        return measured;
+    }
+
+    private Part walk(final String name, final Object root) {
+        long bytes = 0, objects = 0;
+        final Deque<Object> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            final Object object = stack.pop();
+            if (isBoundary(object) || !visited.add(object)) continue;
+
+            bytes += size(object, stack);
+            ++objects;
+        }
+
+        return new Part(name, bytes, objects);
+    }
+
+    /**
+     * @return The estimated size of the given object, not counting the objects it refers to.
+     * @param object The object.
+     * @param stack The stack to push the objects it refers to onto.
+     * */
+    private long size(final Object object, final Deque<Object> stack) {
+        final Class<?> type = object.getClass();
+        if (type.isArray()) {
+            final int length = Array.getLength(object);
+            final Class<?> component = type.getComponentType();
+            if (!component.isPrimitive()) {
+                for (final Object element : (Object[]) object) if (element != null) stack.push(element);
+            }
+
+            return align(ARRAY_HEADER + (long) length * width(component));
+        }
+
+        final Layout layout = layouts.computeIfAbsent(type, Layout::of);
+        if (layout.readable() && type.getName().startsWith(VIPU_PACKAGE)) {
+            for (final Field field : layout.references()) {
+                try {
+                    final Object value = field.get(object);
+                    if (value != null) stack.push(value);
+                } catch (IllegalAccessException ignored) {
+                }
+            }
+
+            return layout.size();
+        }
+
+        return layout.size() + opaque(object, stack);
+    }
+
+    /**
+     * Walks an object whose fields cannot be read through its public interface, where it has one.
+     * @return The estimated size of the objects it holds that are not reached that way.
+     * */
+    private static long opaque(final Object object, final Deque<Object> stack) {
+        try {
+            if (object instanceof String string) {
+                return align(ARRAY_HEADER + string.length());
+            } else if (object instanceof Map<?, ?> map) {
+                int entries = 0;
+                for (final Map.Entry<?, ?> entry : map.entrySet()) {
+                    if (entry.getKey() != null) stack.push(entry.getKey());
+                    if (entry.getValue() != null) stack.push(entry.getValue());
+                    ++entries;
+                }
+
+                return (long) entries * HASH_ENTRY;
+            } else if (object instanceof Collection<?> collection) {
+                int elements = 0;
+                for (final Object element : collection) {
+                    if (element != null) stack.push(element);
+                    ++elements;
+                }
+
+                return (long) elements * (collection instanceof Set<?> ? HASH_ENTRY : REFERENCE);
+            }
+        } catch (RuntimeException concurrentlyModified) {
+            return 0;
+        }
+
+        return 0;
+    }
+
+    private static boolean isBoundary(final Object object) {
+        for (final Class<?> boundary : BOUNDARIES) if (boundary.isInstance(object)) return true;
+
+        final Class<?> type = object.getClass();
+        if (type.isArray() || type.getName().startsWith(VIPU_PACKAGE) || isCollection(object)) return false;
+        return !isLeaf(object);
+    }
+
+    /**
+     * @return Whether the object is one of the JDK's maps or collections, which are walked through their entries.
+     * */
+    private static boolean isCollection(final Object object) {
+        return (object instanceof Map<?, ?> || object instanceof Collection<?>)
+            && object.getClass().getName().startsWith("java.util.");
+    }
+
+    /**
+     * @return Whether the object is a string or boxed primitive, which is counted but refers to nothing else.
+     * */
+    private static boolean isLeaf(final Object object) {
+        return (object instanceof String || object instanceof Number || object instanceof Boolean
+            || object instanceof Character) && object.getClass().getName().startsWith("java.lang.");
+    }
+
+    private static int width(final Class<?> type) {
+        if (type == long.class || type == double.class) return 8;
+        if (type == int.class || type == float.class) return 4;
+        if (type == short.class || type == char.class) return 2;
+        if (type == byte.class || type == boolean.class) return 1;
+        return REFERENCE;
+    }
+
+    private static long align(final long size) {
+        return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    /**
+     * The instance fields of a class.
+     * @param size The shallow size of an instance.
+     * @param references The fields that hold references, if they can be read.
+     * @param readable Whether the fields can be read.
+     * */
+    private record Layout(long size, List<Field> references, boolean readable) {
+        private static Layout of(final Class<?> type) {
+            long size = OBJECT_HEADER;
+            boolean readable = true;
+            final List<Field> references = new ArrayList<>();
+            for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+                for (final Field field : current.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) continue;
+                    size += width(field.getType());
+                    if (field.getType().isPrimitive() || !readable) continue;
+
+                    try {
+                        field.setAccessible(true);
+                        references.add(field);
+                    } catch (RuntimeException inaccessible) {
+                        readable = false;
+                    }
+                }
+            }
+
+            return new Layout(align(size), readable ? List.copyOf(references) : List.of(), readable);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package blue.lhf.vipu.scanning;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Reads the runtime-visible annotations of a class straight from its class file, without loading the class.
+ * <p>
+ *     String values, arrays and nested annotations are decoded, into {@link String}s, {@link List}s and
+ *     {@link Map}s respectively. Class values are decoded into {@link Type}s. Elements of other kinds, such as
+ *     numbers and enums, are left out.
+ * </p>
+ * */
+final class ClassAnnotations {
+    private static final String RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations";
+
+    private ClassAnnotations() {
+
+    }
+
+    /**
+     * @return The values of the runtime-visible annotations of a class, by annotation type descriptor, like
+     *         <code>Lblue/lhf/vipu/escaping/Name;</code>, and then by element name.
+     * @param bytecode The class file.
+     * @throws IOException If the class file is malformed.
+     * */
+    static Map<String, Map<String, Object>> read(final byte[] bytecode) throws IOException {
+        try {
+            return read(ByteBuffer.wrap(bytecode));
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed class file", e);
+        }
+    }
+
+    private static Map<String, Map<String, Object>> read(final ByteBuffer buffer) throws IOException {
+        final int[] offsets = ClassHeader.constantPool(buffer);
+        buffer.position(buffer.position() + 6); // access flags, this class and superclass
+        final int interfaceCount = Short.toUnsignedInt(buffer.getShort());
+        buffer.position(buffer.position() + 2 * interfaceCount);
+
+        skipMembers(buffer); // fields
+        skipMembers(buffer); // methods
+
+        final Map<String, Map<String, Object>> annotations = new LinkedHashMap<>();
+        final int attributeCount = Short.toUnsignedInt(buffer.getShort());
+        for (int i = 0; i < attributeCount; ++i) {
+            final String name = ClassHeader.utf8(buffer, offsets, Short.toUnsignedInt(buffer.getShort()));
+            final int length = buffer.getInt();
+            if (!RUNTIME_VISIBLE_ANNOTATIONS.equals(name)) {
+                buffer.position(buffer.position() + length);
+                continue;
+            }
+
+            final int annotationCount = Short.toUnsignedInt(buffer.getShort());
+            for (int j = 0; j < annotationCount; ++j) {
+                final String type = ClassHeader.utf8(buffer, offsets, Short.toUnsignedInt(buffer.getShort()));
+                annotations.put(type, annotation(buffer, offsets));
+            }
+        }
+
+        return annotations;
+    }
+
+    private static void skipMembers(final ByteBuffer buffer) {
+        final int count = Short.toUnsignedInt(buffer.getShort());
+        for (int i = 0; i < count; ++i) {
+            buffer.position(buffer.position() + 6); // access flags, name and descriptor
+            final int attributeCount = Short.toUnsignedInt(buffer.getShort());
+            for (int j = 0; j < attributeCount; ++j) {
+                buffer.getShort(); // name
+                final int length = buffer.getInt();
+                buffer.position(buffer.position() + length);
+            }
+        }
+    }
+
+    private static Map<String, Object> annotation(final ByteBuffer buffer, final int[] offsets) throws IOException {
+        final Map<String, Object> elements = new LinkedHashMap<>();
+        final int pairCount = Short.toUnsignedInt(buffer.getShort());
+        for (int i = 0; i < pairCount; ++i) {
+            final String name = ClassHeader.utf8(buffer, offsets, Short.toUnsignedInt(buffer.getShort()));
+            final Object value = elementValue(buffer, offsets);
+            if (value != null) elements.put(name, value);
+        }
+
+        return elements;
+    }
+
+    private static Object elementValue(final ByteBuffer buffer, final int[] offsets) throws IOException {
+        final char tag = (char) Byte.toUnsignedInt(buffer.get());
+        return switch (tag) {
+            case 's' -> ClassHeader.utf8(buffer, offsets, Short.toUnsignedInt(buffer.getShort()));
+            case 'c' -> new Type(ClassHeader.utf8(buffer, offsets, Short.toUnsignedInt(buffer.getShort())));
+            case 'B', 'C', 'D', 'F', 'I', 'J', 'S', 'Z' -> {
+                buffer.getShort();
+                yield null;
+            }
+            case 'e' -> {
+                buffer.getInt();
+                yield null;
+            }
+            case '@' -> {
+                buffer.getShort(); // type
+                yield annotation(buffer, offsets);
+            }
+            case '[' -> {
+                final int count = Short.toUnsignedInt(buffer.getShort());
+                final List<Object> values = new ArrayList<>(count);
+                for (int i = 0; i < count; ++i) {
+                    final Object value = elementValue(buffer, offsets);
+                    if (value != null) values.add(value);
+                }
+
+                yield values;
+            }
+            default -> throw new IOException("Unknown element value tag " + tag);
+        };
+    }
+
+    /**
+     * A class value.
+     * @param descriptor The descriptor of the class, like <code>Lorg/bukkit/event/Event;</code>.
+     * */
+    record Type(String descriptor) {
+        /**
+         * @return The binary name of the class, like <code>org.bukkit.event.Event</code>, or the descriptor
+         *         itself if it is not a class or interface type.
+         * */
+        String className() {
+            if (!descriptor.startsWith("L") || !descriptor.endsWith(";")) return descriptor;
+            return descriptor.substring(1, descriptor.length() - 1).replace('/', '.');
+        }
+    }
+}
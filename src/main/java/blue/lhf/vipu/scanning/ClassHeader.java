@@ -0,0 +1,135 @@
+package blue.lhf.vipu.scanning;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * The header of a class file: its name, access flags, superclass and directly implemented interfaces.
+ * <p>
+ *     Parsing stops after the interfaces table, so fields, methods and attributes are never looked at.
+ *     See {@link ClassAnnotations} for reading the annotations of a class.
+ * </p>
+ * @param name The internal name of the class, like <code>blue/lhf/vipu/Vipu</code>.
+ * @param access The access flags of the class.
+ * @param superName The internal name of the superclass, or <code>null</code> for {@link Object} and modules.
+ * @param interfaces The internal names of the interfaces the class directly implements.
+ * */
+public record ClassHeader(String name, int access, String superName, List<String> interfaces) {
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int ACC_INTERFACE = 0x0200;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    /**
+     * @return Whether this class is an interface or an annotation interface.
+     * */
+    public boolean isInterface() {
+        return (access & ACC_INTERFACE) != 0;
+    }
+
+    /**
+     * Parses the header of a class file.
+     * @param bytecode The class file.
+     * @return The parsed header.
+     * @throws IOException If the class file is malformed.
+     * */
+    public static ClassHeader parse(final byte[] bytecode) throws IOException {
+        try {
+            return parse(ByteBuffer.wrap(bytecode));
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed class file", e);
+        }
+    }
+
+    private static ClassHeader parse(final ByteBuffer buffer) throws IOException {
+        final int[] offsets = constantPool(buffer);
+        final int access = Short.toUnsignedInt(buffer.getShort());
+        final String name = className(buffer, offsets, Short.toUnsignedInt(buffer.getShort()));
+        final String superName = className(buffer, offsets, Short.toUnsignedInt(buffer.getShort()));
+
+        final int interfaceCount = Short.toUnsignedInt(buffer.getShort());
+        final String[] interfaces = new String[interfaceCount];
+        for (int i = 0; i < interfaceCount; ++i) {
+            interfaces[i] = className(buffer, offsets, Short.toUnsignedInt(buffer.getShort()));
+        }
+
+        return new ClassHeader(name, access, superName, List.of(interfaces));
+    }
+
+    /**
+     * Reads the magic number, version and constant pool of a class file, leaving the buffer at the access flags.
+     * @return The offset of each constant pool entry in the buffer, by constant pool index.
+     * @throws IOException If the class file is malformed.
+     * */
+    static int[] constantPool(final ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC) throw new IOException("Not a class file");
+        buffer.getInt(); // minor and major version
+
+        final int count = Short.toUnsignedInt(buffer.getShort());
+        final int[] offsets = new int[count];
+        for (int i = 1; i < count; ++i) {
+            offsets[i] = buffer.position();
+            final int tag = Byte.toUnsignedInt(buffer.get());
+            switch (tag) {
+                case CONSTANT_UTF8 -> buffer.position(buffer.position() + 2 + Short.toUnsignedInt(buffer.getShort()));
+                case CONSTANT_CLASS, CONSTANT_STRING, CONSTANT_METHOD_TYPE, CONSTANT_MODULE, CONSTANT_PACKAGE ->
+                    buffer.position(buffer.position() + 2);
+                case CONSTANT_METHOD_HANDLE -> buffer.position(buffer.position() + 3);
+                case CONSTANT_INTEGER, CONSTANT_FLOAT, CONSTANT_FIELDREF, CONSTANT_METHODREF,
+                    CONSTANT_INTERFACE_METHODREF, CONSTANT_NAME_AND_TYPE, CONSTANT_DYNAMIC,
+                    CONSTANT_INVOKE_DYNAMIC -> buffer.position(buffer.position() + 4);
+                case CONSTANT_LONG, CONSTANT_DOUBLE -> {
+                    buffer.position(buffer.position() + 8);
+                    ++i;
+                }
+                default -> throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+
+        return offsets;
+    }
+
+    private static String className(final ByteBuffer buffer, final int[] offsets, final int index) throws IOException {
+        if (index == 0) return null;
+        if (buffer.get(offsets[index]) != CONSTANT_CLASS) {
+            throw new IOException("Expected a class constant at " + index);
+        }
+        return utf8(buffer, offsets, Short.toUnsignedInt(buffer.getShort(offsets[index] + 1)));
+    }
+
+    /**
+     * Decodes a <code>CONSTANT_Utf8</code> entry, which uses the modified UTF-8 of {@link DataInput#readUTF()}.
+     * */
+    static String utf8(final ByteBuffer buffer, final int[] offsets, final int index) throws IOException {
+        final int offset = offsets[index];
+        if (buffer.get(offset) != CONSTANT_UTF8) throw new IOException("Expected a UTF-8 constant at " + index);
+
+        final int length = Short.toUnsignedInt(buffer.getShort(offset + 1));
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; ++i) {
+            final byte b = buffer.get(offset + 3 + i);
+            if (b < 0) return new DataInputStream(new ByteArrayInputStream(
+                buffer.array(), buffer.arrayOffset() + offset + 1, length + 2)).readUTF();
+            chars[i] = (char) b;
+        }
+
+        return new String(chars);
+    }
+}
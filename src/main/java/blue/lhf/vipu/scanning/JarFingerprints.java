@@ -0,0 +1,315 @@
+package blue.lhf.vipu.scanning;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.zip.ZipException;
+
+import static blue.lhf.vipu.Threads.daemonFactory;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.*;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Fingerprints JAR files by their SHA-256, and remembers the fingerprints across restarts, so that a JAR is only read
+ * again when its size or modification time changes.
+ * <p>
+ *     Fingerprints are kept in a manifest file, with one line per JAR holding its checksum, size, modification time
+ *     and absolute path. A JAR whose size and modification time match the manifest is assumed to be unchanged, so
+ *     a change that keeps both is not noticed. Other JARs are hashed through memory-mapped reads, in parallel on a
+ *     shared pool when many are fingerprinted at once, and checked to end with a complete ZIP central directory, so
+ *     that a truncated JAR is reported before it is injected rather than when a class is missing from it.
+ * </p>
+ * <p>
+ *     The checksums let later stages key their caches by content: a scan or class-load profile of a JAR stays valid
+ *     when the JAR is copied over with identical content, and a library whose checksum no longer matches its
+ *     lockfile is known to have been tampered with. This class is thread-safe.
+ * </p>
+ * */
+public final class JarFingerprints {
+    private static final String HEADER = "# Vipu JAR manifest v1";
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+    private static final Duration IDLE_TIMEOUT = Duration.ofSeconds(30);
+
+    /** Files smaller than this are read into the heap instead of mapped, since mapping them costs more. */
+    private static final long MAP_THRESHOLD = 256 * 1024;
+    private static final long MAP_CHUNK = 64 * 1024 * 1024;
+
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int END_RECORD_SIZE = 22;
+    private static final int MAX_COMMENT = 0xFFFF;
+    private static final long ZIP64_MARKER = 0xFFFFFFFFL;
+
+    private final Path manifest;
+
+    /** The fingerprint of each JAR, as read from the manifest or computed since. */
+    private final Map<Path, Fingerprint> known = new ConcurrentHashMap<>();
+
+    /** The checksum each JAR had in the manifest when it was read. */
+    private final Map<Path, String> previous = new HashMap<>();
+
+    /** The threads that hash JARs, or <code>null</code> until more than one JAR needs hashing at once. */
+    private volatile ExecutorService executor;
+
+    /**
+     * @param manifest The file to read and save the fingerprints in, or <code>null</code> to only keep them
+     *                 in memory.
+     * */
+    public JarFingerprints(final Path manifest) {
+        this.manifest = manifest;
+        if (manifest == null) return;
+
+        try {
+            if (!Files.isRegularFile(manifest)) return;
+            final List<String> lines = Files.readAllLines(manifest, UTF_8);
+            if (lines.isEmpty() || !HEADER.equals(lines.get(0))) return;
+
+            for (final String line : lines.subList(1, lines.size())) {
+                final String[] parts = line.split(" ", 4);
+                if (parts.length != 4) continue;
+
+                final Path jar = Path.of(parts[3]);
+                known.put(jar, new Fingerprint(jar, Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[0],
+                    false));
+                previous.put(jar, parts[0]);
+            }
+        } catch (IOException | RuntimeException e) {
+            known.clear();
+            previous.clear();
+        }
+    }
+
+    /**
+     * A fingerprinted JAR.
+     * @param jar The absolute path of the JAR.
+     * @param size The size of the JAR in bytes.
+     * @param modified The modification time of the JAR, in milliseconds since the epoch.
+     * @param sha256 The SHA-256 of the content of the JAR, in lowercase hexadecimal.
+     * @param changed Whether the content of the JAR is new or differs from the last time the manifest was saved.
+     * */
+    public record Fingerprint(Path jar, long size, long modified, String sha256, boolean changed) {
+    }
+
+    /**
+     * Fingerprints a file, hashing it only if its size or modification time changed.
+     * @param file The file to fingerprint.
+     * @return The fingerprint of the file.
+     * @throws ZipException If the file is named like a JAR or ZIP archive, but does not end with a complete
+     *                      central directory.
+     * @throws IOException If the file could not be read.
+     * */
+    public Fingerprint fingerprint(final Path file) throws IOException {
+        final Path jar = file.toAbsolutePath();
+        final long size = Files.size(jar);
+        final long modified = Files.getLastModifiedTime(jar).toMillis();
+
+        final Fingerprint cached = known.get(jar);
+        if (cached != null && cached.size() == size && cached.modified() == modified) return cached;
+        return hash(jar, size, modified);
+    }
+
+    /**
+     * @return The known fingerprint of a file, or <code>null</code> if its size or modification time changed
+     *         since, or it is not known.
+     * @param file The file.
+     * @throws IOException If the attributes of the file could not be read.
+     * */
+    private Fingerprint cached(final Path file) throws IOException {
+        final Path jar = file.toAbsolutePath();
+        final Fingerprint cached = known.get(jar);
+        if (cached == null || cached.size() != Files.size(jar)) return null;
+        return cached.modified() == Files.getLastModifiedTime(jar).toMillis() ? cached : null;
+    }
+
+    private Fingerprint hash(final Path jar, final long size, final long modified) throws IOException {
+        final String sha256 = sha256(jar, size);
+        final String before;
+        synchronized (previous) {
+            before = previous.get(jar);
+        }
+
+        final Fingerprint fingerprint = new Fingerprint(jar, size, modified, sha256, !sha256.equals(before));
+        known.put(jar, fingerprint);
+        return fingerprint;
+    }
+
+    /**
+     * Fingerprints many files, hashing those whose size or modification time changed in parallel.
+     * @param files The files to fingerprint.
+     * @param onException The action to take when a file cannot be fingerprinted.
+     * @return The fingerprint of each file that could be fingerprinted, in the order of the given files.
+     * @see #fingerprint(Path)
+     * */
+    public Map<Path, Fingerprint> fingerprint(final Collection<Path> files,
+                                              final BiConsumer<Path, Exception> onException) {
+        final Map<Path, Fingerprint> found = new HashMap<>();
+        final List<Path> changed = new ArrayList<>();
+        for (final Path file : files) {
+            try {
+                final Fingerprint cached = cached(file);
+                if (cached != null) found.put(file, cached);
+                else changed.add(file);
+            } catch (IOException | RuntimeException e) {
+                onException.accept(file, e);
+            }
+        }
+
+        if (changed.size() == 1) {
+            try {
+                found.put(changed.get(0), fingerprint(changed.get(0)));
+            } catch (IOException | RuntimeException e) {
+                onException.accept(changed.get(0), e);
+            }
+        } else if (!changed.isEmpty()) {
+            final Map<Path, Future<Fingerprint>> pending = new LinkedHashMap<>();
+            for (final Path file : changed) pending.put(file, executor().submit(() -> fingerprint(file)));
+            for (final Map.Entry<Path, Future<Fingerprint>> entry : pending.entrySet()) {
+                try {
+                    found.put(entry.getKey(), entry.getValue().get());
+                } catch (ExecutionException e) {
+                    onException.accept(entry.getKey(), e.getCause() instanceof Exception cause ? cause : e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    onException.accept(entry.getKey(), e);
+                }
+            }
+        }
+
+        final Map<Path, Fingerprint> fingerprints = new LinkedHashMap<>();
+        for (final Path file : files) {
+            final Fingerprint fingerprint = found.get(file);
+            if (fingerprint != null) fingerprints.put(file, fingerprint);
+        }
+
+        return fingerprints;
+    }
+
+    /**
+     * @return The threads that hash JARs, which are created on first use and stop when idle.
+     * */
+    private ExecutorService executor() {
+        ExecutorService current = executor;
+        if (current != null) return current;
+        synchronized (this) {
+            current = executor;
+            if (current == null) {
+                final ThreadPoolExecutor pool = new ThreadPoolExecutor(PARALLELISM, PARALLELISM,
+                    IDLE_TIMEOUT.toMillis(), MILLISECONDS, new LinkedBlockingQueue<>(),
+                    daemonFactory("Vipu Fingerprints"));
+                pool.allowCoreThreadTimeOut(true);
+                executor = current = pool;
+            }
+
+            return current;
+        }
+    }
+
+    /**
+     * Saves the fingerprints of the files that still exist to the manifest, replacing it atomically. The saved
+     * fingerprints are no longer {@link Fingerprint#changed() changed} when computed again.
+     * @throws IOException If the manifest could not be written.
+     * */
+    public void save() throws IOException {
+        if (manifest == null) return;
+
+        final List<Fingerprint> fingerprints = new ArrayList<>(known.values());
+        fingerprints.sort(Comparator.comparing(Fingerprint::jar));
+        final List<String> lines = new ArrayList<>();
+        lines.add(HEADER);
+        synchronized (previous) {
+            previous.clear();
+            for (final Fingerprint fingerprint : fingerprints) {
+                if (!Files.isRegularFile(fingerprint.jar())) continue;
+                lines.add(fingerprint.sha256() + " " + fingerprint.size() + " " + fingerprint.modified() + " "
+                    + fingerprint.jar());
+                previous.put(fingerprint.jar(), fingerprint.sha256());
+            }
+        }
+
+        Files.createDirectories(manifest.toAbsolutePath().getParent());
+        final Path temporary = Files.createTempFile(manifest.toAbsolutePath().getParent(),
+            manifest.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temporary, lines, UTF_8);
+            Files.move(temporary, manifest, REPLACE_EXISTING, ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static String sha256(final Path file, final long size) throws IOException {
+        final MessageDigest digest = sha256();
+        try (final FileChannel channel = FileChannel.open(file)) {
+            if (size < MAP_THRESHOLD) {
+                final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+                while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                    // Keep reading until the whole file is in the buffer.
+                }
+
+                buffer.flip();
+                digest.update(buffer.duplicate());
+                if (isArchive(file)) checkComplete(file, buffer, size);
+            } else {
+                for (long position = 0; position < size; position += MAP_CHUNK) {
+                    digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(MAP_CHUNK, size - position)));
+                }
+
+                if (isArchive(file)) {
+                    final long tail = Math.min(size, END_RECORD_SIZE + MAX_COMMENT);
+                    checkComplete(file, channel.map(FileChannel.MapMode.READ_ONLY, size - tail, tail), size);
+                }
+            }
+        }
+
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Checks that a ZIP archive ends with an end of central directory record, and that the central directory it
+     * points to ends before the record.
+     * @param file The archive, for the message of the exception.
+     * @param tail The last bytes of the archive, including at least the end record and its comment.
+     * @param size The size of the archive.
+     * */
+    private static void checkComplete(final Path file, final ByteBuffer tail, final long size)
+        throws ZipException {
+        final ByteBuffer end = tail.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        final int limit = end.limit();
+        for (int record = limit - END_RECORD_SIZE; record >= 0 && limit - record <= END_RECORD_SIZE + MAX_COMMENT;
+             --record) {
+            if (end.getInt(record) != END_OF_CENTRAL_DIRECTORY) continue;
+            if (record + END_RECORD_SIZE + Short.toUnsignedInt(end.getShort(record + 20)) != limit) continue;
+
+            final long directorySize = Integer.toUnsignedLong(end.getInt(record + 12));
+            final long directoryOffset = Integer.toUnsignedLong(end.getInt(record + 16));
+            final long recordOffset = size - limit + record;
+            if (directoryOffset != ZIP64_MARKER && directoryOffset + directorySize > recordOffset) {
+                throw new ZipException(file + " is truncated: its central directory ends past its end record");
+            }
+
+            return;
+        }
+
+        throw new ZipException(file + " is truncated: it does not end with a ZIP central directory");
+    }
+
+    private static boolean isArchive(final Path file) {
+        final String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".jar") || name.endsWith(".zip");
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("SHA-256 is not supported?", e);
+        }
+    }
+}
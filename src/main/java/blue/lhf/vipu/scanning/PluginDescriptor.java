@@ -0,0 +1,18 @@
+package blue.lhf.vipu.scanning;
+
+import blue.lhf.vipu.escaping.*;
+
+import java.net.URI;
+import java.util.List;
+
+/**
+ * A lightweight description of a {@link VipuPlugin} implementation found by the {@link PluginScanner}.
+ * @param jar The URI of the JAR file containing the plugin class.
+ * @param className The binary name of the plugin class, like <code>org.example.ExamplePlugin</code>.
+ * @param name The name of the plugin, as given in its {@link Name} annotation, or the simple name of its class.
+ * @param libraries The Maven coordinates of the libraries of the plugin, as given in its {@link Libraries} annotation.
+ * @param triggers The triggers of the plugin, as given in its {@link ActivateOn} annotation,
+ *                 or {@link Triggers#NONE} if it is initialised at startup.
+ * */
+public record PluginDescriptor(URI jar, String className, String name, List<String> libraries, Triggers triggers) {
+}
@@ -0,0 +1,119 @@
+package blue.lhf.vipu.scanning;
+
+import java.io.*;
+import java.net.URI;
+import java.util.*;
+import java.util.zip.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Reads the plugin index that the <code>vipu-processor</code> annotation processor writes into plugin JARs at
+ * compile time, so that the classes of indexed JARs do not need to be scanned.
+ * <p>
+ *     The index is the UTF-8 text file <code>META-INF/vipu/plugins</code>, which starts with the header
+ *     <code># Vipu plugin index v1</code>, followed by one line per plugin with three fields separated by tabs:
+ *     the binary name of the plugin class, the name of the plugin, and its library coordinates separated by commas.
+ *     Plugins that are {@link blue.lhf.vipu.escaping.ActivateOn activated} on demand have a fourth field with their
+ *     triggers separated by commas, each written as <code>command:</code>, <code>event:</code> or
+ *     <code>service:</code> followed by the command name or the binary class name.
+ * </p>
+ * <p>
+ *     The {@link PluginScanner} also writes the plugins it finds in unindexed JARs to its cache in this format.
+ * </p>
+ * */
+final class PluginIndex {
+    static final String INDEX = "META-INF/vipu/plugins";
+    private static final String HEADER = "# Vipu plugin index v1";
+
+    private PluginIndex() {
+
+    }
+
+    /**
+     * @return The plugins listed in the index of a JAR, or nothing if the JAR has no index.
+     * @param zip The opened JAR file.
+     * @param jar The URI of the JAR file.
+     * @throws IOException If the index could not be read, or is malformed or of an unknown version.
+     * */
+    static Optional<List<PluginDescriptor>> read(final ZipFile zip, final URI jar) throws IOException {
+        final ZipEntry entry = zip.getEntry(INDEX);
+        if (entry == null) return Optional.empty();
+
+        try (final BufferedReader reader = new BufferedReader(
+            new InputStreamReader(zip.getInputStream(entry), UTF_8))) {
+            return Optional.of(read(reader, jar));
+        }
+    }
+
+    /**
+     * @return The plugins listed in an index.
+     * @param reader The reader of the index, positioned at its header.
+     * @param jar The URI of the JAR file the plugins are in.
+     * @throws IOException If the index could not be read, or is malformed or of an unknown version.
+     * */
+    static List<PluginDescriptor> read(final BufferedReader reader, final URI jar) throws IOException {
+        final String header = reader.readLine();
+        if (!HEADER.equals(header)) throw new IOException("Unknown plugin index header " + header + " in " + jar);
+
+        final List<PluginDescriptor> plugins = new ArrayList<>();
+        for (String line; (line = reader.readLine()) != null; ) {
+            if (line.isEmpty()) continue;
+            final String[] fields = line.split("\t", -1);
+            if (fields.length != 3 && fields.length != 4) {
+                throw new IOException("Malformed plugin index line " + line + " in " + jar);
+            }
+
+            plugins.add(new PluginDescriptor(jar, fields[0], fields[1], list(fields[2]),
+                fields.length == 4 ? triggers(fields[3], line, jar) : Triggers.NONE));
+        }
+
+        return plugins;
+    }
+
+    /**
+     * Writes an index of the given plugins, in the same format as the annotation processor.
+     * @param writer The writer to write the index to.
+     * @param plugins The plugins to list.
+     * @throws IOException If the index could not be written.
+     * */
+    static void write(final Writer writer, final List<PluginDescriptor> plugins) throws IOException {
+        writer.write(HEADER + "\n");
+        for (final PluginDescriptor plugin : plugins) {
+            writer.write(plugin.className() + "\t" + plugin.name() + "\t" + String.join(",", plugin.libraries()));
+            final Triggers triggers = plugin.triggers();
+            if (!triggers.isEmpty()) {
+                final List<String> fields = new ArrayList<>();
+                for (final String command : triggers.commands()) fields.add("command:" + command);
+                for (final String event : triggers.events()) fields.add("event:" + event);
+                for (final String service : triggers.services()) fields.add("service:" + service);
+                writer.write("\t" + String.join(",", fields));
+            }
+
+            writer.write("\n");
+        }
+    }
+
+    private static List<String> list(final String field) {
+        return field.isEmpty() ? List.of() : List.of(field.split(","));
+    }
+
+    private static Triggers triggers(final String field, final String line, final URI jar) throws IOException {
+        final List<String> commands = new ArrayList<>();
+        final List<String> events = new ArrayList<>();
+        final List<String> services = new ArrayList<>();
+        for (final String trigger : list(field)) {
+            final int colon = trigger.indexOf(':');
+            final String value = trigger.substring(colon + 1);
+            switch (colon < 0 ? "" : trigger.substring(0, colon)) {
+                case "command" -> commands.add(value);
+                case "event" -> events.add(value);
+                case "service" -> services.add(value);
+                default -> throw new IOException("Malformed trigger " + trigger + " on line " + line + " in " + jar);
+            }
+        }
+
+        final Triggers triggers = new Triggers(List.copyOf(commands), List.copyOf(events), List.copyOf(services));
+        return triggers.isEmpty() ? Triggers.NONE : triggers;
+    }
+}
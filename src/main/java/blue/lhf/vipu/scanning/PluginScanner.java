@@ -0,0 +1,292 @@
+package blue.lhf.vipu.scanning;
+
+import blue.lhf.vipu.escaping.*;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import java.util.logging.*;
+import java.util.zip.*;
+
+import static blue.lhf.vipu.Threads.daemonFactory;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.*;
+import static java.util.Comparator.comparing;
+
+/**
+ * Finds implementations of {@link VipuPlugin} in JAR files.
+ * <p>
+ *     JARs built with the <code>vipu-processor</code> annotation processor list their plugins in a
+ *     {@link PluginIndex}, which is read instead of scanning, so that their scan does not get slower as they grow.
+ * </p>
+ * <p>
+ *     Each JAR is scanned by its own task. The central directory of the JAR is read once by {@link ZipFile},
+ *     after which only the header of each class file is parsed (see {@link ClassHeader}), and nothing but the
+ *     resulting {@link PluginDescriptor}s outlives the scan. The {@link Name}, {@link Libraries} and
+ *     {@link ActivateOn} annotations of the plugins are read from their class files too, so that their libraries
+ *     can be resolved before the plugin classes are loaded. Classes implement {@link VipuPlugin} if they, one of their superclasses or one
+ *     of their interfaces declares it, as long as the whole chain is in the same JAR. Class files that cannot be
+ *     parsed are logged and skipped, so that they do not hide the other plugins of their JAR.
+ * </p>
+ * <p>
+ *     Given the {@link JarFingerprints checksum} of each JAR, the plugins found in it are cached by that checksum,
+ *     so that a JAR is only scanned again when its content changes, or when it was cached by a version of the scanner
+ *     that recorded less about its plugins.
+ * </p>
+ * */
+public class PluginScanner implements AutoCloseable {
+    private static final String PLUGIN_INTERFACE = VipuPlugin.class.getName().replace('.', '/');
+    private static final String NAME_ANNOTATION = descriptor(Name.class);
+    private static final String LIBRARIES_ANNOTATION = descriptor(Libraries.class);
+    private static final String ACTIVATE_ON_ANNOTATION = descriptor(ActivateOn.class);
+    private static final String CLASS_SUFFIX = ".class";
+
+    /**
+     * The header of a cached scan, followed by a plugin index. Its version is raised whenever the scanner records
+     * more about a plugin, so that scans cached by an older Vipu are not read back without it.
+     * */
+    private static final String CACHE_HEADER = "# Vipu scan cache v2";
+
+    private final ExecutorService executor;
+    private final Path cache;
+    private final Logger logger;
+
+    /**
+     * @param parallelism The maximum number of JARs to scan at once.
+     * */
+    public PluginScanner(final int parallelism) {
+        this(parallelism, null, Logger.getLogger(PluginScanner.class.getName()));
+    }
+
+    /**
+     * @param parallelism The maximum number of JARs to scan at once.
+     * @param cache The directory to cache the plugins of each JAR in by its checksum, or <code>null</code> to not
+     *              cache them.
+     * @param logger The logger to report skipped class files to.
+     * */
+    public PluginScanner(final int parallelism, final Path cache, final Logger logger) {
+        this.executor = Executors.newFixedThreadPool(parallelism, daemonFactory("Vipu Scanner"));
+        this.cache = cache;
+        this.logger = logger;
+    }
+
+    /**
+     * Scans the given JAR files for classes that implement {@link VipuPlugin}.
+     * @param jars The URIs of the JAR files to scan.
+     * @param onException The action to take when a JAR cannot be scanned.
+     * @return The plugins that were found, sorted by JAR and class name.
+     * */
+    public List<PluginDescriptor> scan(final Collection<URI> jars, final BiConsumer<URI, Exception> onException) {
+        return scan(jars, jar -> null, onException);
+    }
+
+    /**
+     * Scans the given JAR files for classes that implement {@link VipuPlugin}, reading the plugins of JARs whose
+     * content was scanned before from the cache. Cached scans of JARs that are not given are removed.
+     * @param jars The URIs of the JAR files to scan, and the SHA-256 of the content of each.
+     * @param onException The action to take when a JAR cannot be scanned.
+     * @return The plugins that were found, sorted by JAR and class name.
+     * */
+    public List<PluginDescriptor> scan(final Map<URI, String> jars, final BiConsumer<URI, Exception> onException) {
+        final List<PluginDescriptor> plugins = scan(jars.keySet(), jars::get, onException);
+        if (cache != null) prune(new HashSet<>(jars.values()));
+        return plugins;
+    }
+
+    private List<PluginDescriptor> scan(final Collection<URI> jars, final Function<URI, String> checksums,
+                                        final BiConsumer<URI, Exception> onException) {
+        final List<URI> ordered = new ArrayList<>(jars);
+        ordered.sort(comparing(URI::toString));
+
+        final Map<URI, Future<List<PluginDescriptor>>> pending = new LinkedHashMap<>();
+        for (final URI jar : ordered) {
+            final String checksum = checksums.apply(jar);
+            pending.put(jar, executor.submit(() -> scanCached(jar, checksum)));
+        }
+
+        final List<PluginDescriptor> plugins = new ArrayList<>();
+        for (final Map.Entry<URI, Future<List<PluginDescriptor>>> entry : pending.entrySet()) {
+            try {
+                plugins.addAll(entry.getValue().get());
+            } catch (ExecutionException e) {
+                onException.accept(entry.getKey(), e.getCause() instanceof Exception cause ? cause : e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                onException.accept(entry.getKey(), e);
+            }
+        }
+
+        return plugins;
+    }
+
+    /**
+     * Scans a single JAR file for classes that implement {@link VipuPlugin}. If the JAR has a {@link PluginIndex},
+     * the plugins are read from it instead, and no class files are read.
+     * @param jar The URI of the JAR file.
+     * @return The plugins in the JAR, sorted by class name.
+     * @throws IOException If the JAR could not be read.
+     * */
+    public static List<PluginDescriptor> scan(final URI jar) throws IOException {
+        return scan(jar, Logger.getLogger(PluginScanner.class.getName()));
+    }
+
+    /**
+     * Scans a single JAR file for classes that implement {@link VipuPlugin}. If the JAR has a {@link PluginIndex},
+     * the plugins are read from it instead, and no class files are read.
+     * @param jar The URI of the JAR file.
+     * @param logger The logger to report class files that cannot be parsed to.
+     * @return The plugins in the JAR, sorted by class name.
+     * @throws IOException If the JAR could not be read.
+     * */
+    public static List<PluginDescriptor> scan(final URI jar, final Logger logger) throws IOException {
+        final Map<String, ClassHeader> headers = new HashMap<>();
+        final Map<String, ZipEntry> entriesByClass = new HashMap<>();
+        try (final ZipFile zip = new ZipFile(Path.of(jar).toFile())) {
+            final Optional<List<PluginDescriptor>> indexed = PluginIndex.read(zip, jar);
+            if (indexed.isPresent()) {
+                final List<PluginDescriptor> plugins = new ArrayList<>(indexed.get());
+                plugins.sort(comparing(PluginDescriptor::className));
+                return plugins;
+            }
+
+            final Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                if (!isClass(entry)) continue;
+
+                try (final InputStream stream = zip.getInputStream(entry)) {
+                    final ClassHeader header = ClassHeader.parse(stream.readAllBytes());
+                    headers.put(header.name(), header);
+                    entriesByClass.put(header.name(), entry);
+                } catch (IOException | RuntimeException e) {
+                    logger.log(Level.FINE, "Skipping " + entry.getName() + " in " + jar
+                        + ", it could not be parsed", e);
+                }
+            }
+
+            final Map<String, Boolean> memo = new HashMap<>();
+            final List<PluginDescriptor> plugins = new ArrayList<>();
+            for (final ClassHeader header : headers.values()) {
+                if (header.isInterface() || !implementsPlugin(header.name(), headers, memo)) continue;
+
+                final ZipEntry entry = entriesByClass.get(header.name());
+                try (final InputStream stream = zip.getInputStream(entry)) {
+                    plugins.add(describe(jar, header.name(), ClassAnnotations.read(stream.readAllBytes())));
+                } catch (IOException | RuntimeException e) {
+                    logger.log(Level.WARNING, "Skipping the plugin " + entry.getName() + " in " + jar
+                        + ", its annotations could not be read", e);
+                }
+            }
+
+            plugins.sort(comparing(PluginDescriptor::className));
+            return plugins;
+        }
+    }
+
+    private List<PluginDescriptor> scanCached(final URI jar, final String checksum) throws IOException {
+        if (cache == null || checksum == null) return scan(jar, logger);
+
+        final Path cached = cache.resolve(checksum);
+        try (final BufferedReader reader = Files.newBufferedReader(cached, UTF_8)) {
+            if (CACHE_HEADER.equals(reader.readLine())) return PluginIndex.read(reader, jar);
+        } catch (IOException notCached) {
+            // A missing or corrupt cache entry is replaced by scanning again.
+        }
+
+        final List<PluginDescriptor> plugins = scan(jar, logger);
+        try {
+            Files.createDirectories(cache);
+            final Path temporary = Files.createTempFile(cache, checksum, ".tmp");
+            try {
+                try (final Writer writer = Files.newBufferedWriter(temporary, UTF_8)) {
+                    writer.write(CACHE_HEADER + "\n");
+                    PluginIndex.write(writer, plugins);
+                }
+
+                Files.move(temporary, cached, REPLACE_EXISTING, ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException ignored) {
+            // The JAR is scanned again next time.
+        }
+
+        return plugins;
+    }
+
+    private void prune(final Set<String> checksums) {
+        try (final DirectoryStream<Path> entries = Files.newDirectoryStream(cache)) {
+            for (final Path entry : entries) {
+                if (!checksums.contains(entry.getFileName().toString())) Files.deleteIfExists(entry);
+            }
+        } catch (IOException ignored) {
+            // Stale entries are removed next time.
+        }
+    }
+
+    private static PluginDescriptor describe(final URI jar, final String internalName,
+                                             final Map<String, Map<String, Object>> annotations) {
+        final String className = internalName.replace('/', '.');
+        final int separator = Math.max(className.lastIndexOf('.'), className.lastIndexOf('$'));
+        final String simpleName = className.substring(separator + 1);
+
+        final Object name = annotations.getOrDefault(NAME_ANNOTATION, Map.of()).get("value");
+        final Object libraries = annotations.getOrDefault(LIBRARIES_ANNOTATION, Map.of()).get("value");
+        final Map<String, Object> activateOn = annotations.getOrDefault(ACTIVATE_ON_ANNOTATION, Map.of());
+        final Triggers triggers = new Triggers(strings(activateOn.get("commands")), strings(activateOn.get("events")),
+            strings(activateOn.get("services")));
+        return new PluginDescriptor(jar, className, name instanceof String string ? string : simpleName,
+            strings(libraries), triggers.isEmpty() ? Triggers.NONE : triggers);
+    }
+
+    /**
+     * @return The strings and class names in an array element value, or an empty list if it is not an array.
+     * */
+    private static List<String> strings(final Object value) {
+        if (!(value instanceof List<?> list)) return List.of();
+        return list.stream().map(element -> element instanceof ClassAnnotations.Type type
+            ? type.className() : String.valueOf(element)).toList();
+    }
+
+    private static String descriptor(final Class<?> type) {
+        return "L" + type.getName().replace('.', '/') + ";";
+    }
+
+    private static boolean isClass(final ZipEntry entry) {
+        final String name = entry.getName();
+        return !entry.isDirectory() && name.endsWith(CLASS_SUFFIX) && !name.startsWith("META-INF/")
+            && !name.endsWith("module-info.class") && !name.endsWith("package-info.class");
+    }
+
+    private static boolean implementsPlugin(final String name, final Map<String, ClassHeader> headers,
+                                            final Map<String, Boolean> memo) {
+        if (name == null) return false;
+        if (name.equals(PLUGIN_INTERFACE)) return true;
+
+        final Boolean known = memo.get(name);
+        if (known != null) return known;
+
+        final ClassHeader header = headers.get(name);
+        if (header == null) return false;
+
+        memo.put(name, false); // guards against cycles in malformed input
+        boolean result = implementsPlugin(header.superName(), headers, memo);
+        for (int i = 0; !result && i < header.interfaces().size(); ++i) {
+            result = implementsPlugin(header.interfaces().get(i), headers, memo);
+        }
+
+        memo.put(name, result);
+        return result;
+    }
+
+    /**
+     * Stops the scanner threads.
+     * */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
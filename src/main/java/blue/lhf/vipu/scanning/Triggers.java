@@ -0,0 +1,23 @@
+package blue.lhf.vipu.scanning;
+
+import blue.lhf.vipu.escaping.ActivateOn;
+
+import java.util.List;
+
+/**
+ * The triggers that initialise a plugin that is {@link ActivateOn activated} on demand.
+ * @param commands The names of the commands that initialise the plugin.
+ * @param events The binary names of the event classes that initialise the plugin.
+ * @param services The binary names of the service interfaces that initialise the plugin.
+ * */
+public record Triggers(List<String> commands, List<String> events, List<String> services) {
+    /** The triggers of a plugin that is initialised at startup. */
+    public static final Triggers NONE = new Triggers(List.of(), List.of(), List.of());
+
+    /**
+     * @return Whether there are no triggers, so that the plugin is initialised at startup.
+     * */
+    public boolean isEmpty() {
+        return commands.isEmpty() && events.isEmpty() && services.isEmpty();
+    }
+}
@@ -0,0 +1,19 @@
+package blue.lhf.vipu.timings;
+
+/**
+ * A quantity counted during a phase of Vipu's startup, in addition to its wall time.
+ * */
+public enum Counter {
+    /** The number of bytes downloaded from remote repositories. */
+    BYTES_DOWNLOADED,
+    /** The number of artifacts that were already in the local repository. */
+    ARTIFACTS_LOCAL,
+    /** The number of artifacts that were downloaded from a remote repository. */
+    ARTIFACTS_DOWNLOADED,
+    /** The number of JARs whose content is new or changed since the last start. */
+    JARS_CHANGED,
+    /** The number of classes loaded by the JVM, on any thread, while the phase ran. */
+    CLASSES_LOADED,
+    /** The estimated number of bytes of heap that Vipu retains once startup is complete. */
+    BYTES_RETAINED
+}
@@ -0,0 +1,45 @@
+package blue.lhf.vipu.timings;
+
+/**
+ * A phase of Vipu's startup.
+ * */
+public enum Phase {
+    /** Hashing the plugin JARs whose size or modification time changed, and checking that they are complete. */
+    FINGERPRINT("JAR fingerprinting"),
+    /** Injecting the plugin JARs into the server class loader. */
+    JAR_INJECTION("JAR injection"),
+    /** Scanning the plugin JARs for plugin classes. */
+    SCAN("Plugin scan"),
+    /** Loading the plugin classes without initialising them. */
+    PRELOAD("Class preloading"),
+    /**
+     * Waiting for the plugin libraries that are still being resolved and downloaded once the plugin classes are
+     * loaded, and injecting them. Resolution starts before {@link #PRELOAD}, so the wall time of this phase only
+     * counts what preloading did not hide, while its subjects measure each resolution in full.
+     * */
+    RESOLUTION("Library resolution"),
+    /** Running the static initialisers of the plugin classes. */
+    INITIALIZATION("Plugin initialisation"),
+    /** Loading the classes of a recorded class-load profile in the background. */
+    WARM_START("Warm start"),
+    /**
+     * Releasing what only startup needed, once the server has started. The heap Vipu retains afterwards is counted
+     * in this phase, but estimating it happens in the background and is not timed.
+     * */
+    RELEASE("Resource release"),
+    /** Injecting the libraries of on-demand plugins and initialising them when they are first needed. */
+    ACTIVATION("Lazy activation");
+
+    private final String label;
+
+    Phase(final String label) {
+        this.label = label;
+    }
+
+    /**
+     * @return A human-readable name of the phase.
+     * */
+    public String label() {
+        return label;
+    }
+}
@@ -0,0 +1,18 @@
+package blue.lhf.vipu.timings;
+
+import jdk.jfr.*;
+
+/**
+ * A JFR event spanning a phase of Vipu's startup.
+ * */
+@Name("blue.lhf.vipu.Phase")
+@Label("Vipu Startup Phase")
+@Category("Vipu")
+@StackTrace(false)
+class PhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Classes Loaded")
+    long classesLoaded;
+}
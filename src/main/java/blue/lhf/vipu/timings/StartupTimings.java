@@ -0,0 +1,205 @@
+package blue.lhf.vipu.timings;
+
+import com.google.gson.*;
+import jdk.jfr.Event;
+
+import java.lang.management.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * Measures the phases of Vipu's startup, and the plugins and JARs processed inside each phase.
+ * <p>
+ *     Every {@link Span} is also emitted as a JFR event, in the <code>Vipu</code> category.
+ *     This class is thread-safe.
+ * </p>
+ * */
+public final class StartupTimings {
+    private static final ClassLoadingMXBean CLASS_LOADING = ManagementFactory.getClassLoadingMXBean();
+
+    private final Map<Phase, PhaseRecord> phases = new EnumMap<>(Phase.class);
+
+    /**
+     * Starts measuring a phase. The phase ends when the returned span is closed.
+     * @param phase The phase to measure.
+     * @return The span of the phase.
+     * */
+    public Span phase(final Phase phase) {
+        final PhaseEvent event = new PhaseEvent();
+        event.phase = phase.label();
+        final long classesBefore = CLASS_LOADING.getTotalLoadedClassCount();
+        return new Span(event, counters -> {
+            final long classesLoaded = CLASS_LOADING.getTotalLoadedClassCount() - classesBefore;
+            counters.merge(Counter.CLASSES_LOADED, classesLoaded, Long::sum);
+            event.classesLoaded = classesLoaded;
+        }, (elapsed, counters) -> {
+            synchronized (phases) {
+                final PhaseRecord record = record(phase);
+                record.wallTime = record.wallTime.plus(elapsed);
+                counters.forEach((counter, amount) -> record.counters.merge(counter, amount, Long::sum));
+            }
+        });
+    }
+
+    /**
+     * Starts measuring the work done for one plugin or JAR during a phase.
+     * The work ends when the returned span is closed.
+     * @param phase The phase the work belongs to.
+     * @param subject The plugin or JAR the work is done for.
+     * @return The span of the work.
+     * */
+    public Span subject(final Phase phase, final String subject) {
+        final SubjectEvent event = new SubjectEvent();
+        event.phase = phase.label();
+        event.subject = subject;
+        return new Span(event, counters -> {
+            event.bytesDownloaded = counters.getOrDefault(Counter.BYTES_DOWNLOADED, 0L);
+            event.artifactsLocal = counters.getOrDefault(Counter.ARTIFACTS_LOCAL, 0L);
+            event.artifactsDownloaded = counters.getOrDefault(Counter.ARTIFACTS_DOWNLOADED, 0L);
+        }, (elapsed, counters) -> {
+            synchronized (phases) {
+                final PhaseRecord record = record(phase);
+                record.subjects.add(new SubjectTiming(subject, elapsed, Map.copyOf(counters)));
+                counters.forEach((counter, amount) -> record.counters.merge(counter, amount, Long::sum));
+            }
+        });
+    }
+
+    /**
+     * Adds to a counter of a phase without measuring any time, for quantities that are only known once the phase
+     * has ended. Unlike spans, this is not emitted as a JFR event.
+     * @param phase The phase the quantity belongs to.
+     * @param counter The counter.
+     * @param amount The amount to add.
+     * */
+    public void count(final Phase phase, final Counter counter, final long amount) {
+        synchronized (phases) {
+            record(phase).counters.merge(counter, amount, Long::sum);
+        }
+    }
+
+    /**
+     * @return The measurements so far, in phase order.
+     * */
+    public List<PhaseTiming> snapshot() {
+        synchronized (phases) {
+            final List<PhaseTiming> snapshot = new ArrayList<>();
+            phases.forEach((phase, record) -> snapshot.add(new PhaseTiming(phase, record.wallTime,
+                Map.copyOf(record.counters), List.copyOf(record.subjects))));
+            return snapshot;
+        }
+    }
+
+    /**
+     * @return The measurements so far, as a JSON object suitable for comparing startups across deploys.
+     * */
+    public JsonObject toJson() {
+        final JsonArray phaseArray = new JsonArray();
+        for (final PhaseTiming phase : snapshot()) {
+            final JsonObject phaseObject = new JsonObject();
+            phaseObject.addProperty("phase", phase.phase().name());
+            phaseObject.addProperty("wallTimeMillis", phase.wallTime().toMillis());
+            phaseObject.add("counters", countersToJson(phase.counters()));
+
+            final JsonArray subjects = new JsonArray();
+            for (final SubjectTiming subject : phase.subjects()) {
+                final JsonObject subjectObject = new JsonObject();
+                subjectObject.addProperty("subject", subject.subject());
+                subjectObject.addProperty("wallTimeMillis", subject.wallTime().toMillis());
+                subjectObject.add("counters", countersToJson(subject.counters()));
+                subjects.add(subjectObject);
+            }
+
+            phaseObject.add("subjects", subjects);
+            phaseArray.add(phaseObject);
+        }
+
+        final JsonObject root = new JsonObject();
+        root.add("phases", phaseArray);
+        return root;
+    }
+
+    private static JsonObject countersToJson(final Map<Counter, Long> counters) {
+        final JsonObject object = new JsonObject();
+        for (final Counter counter : Counter.values()) {
+            final Long amount = counters.get(counter);
+            if (amount != null) object.addProperty(counter.name(), amount);
+        }
+
+        return object;
+    }
+
+    private PhaseRecord record(final Phase phase) {
+        return phases.computeIfAbsent(phase, ignored -> new PhaseRecord());
+    }
+
+    private static final class PhaseRecord {
+        private Duration wallTime = Duration.ZERO;
+        private final Map<Counter, Long> counters = new EnumMap<>(Counter.class);
+        private final List<SubjectTiming> subjects = new ArrayList<>();
+    }
+
+    /**
+     * The measurements of a phase.
+     * @param phase The phase.
+     * @param wallTime The wall time the phase took.
+     * @param counters The quantities counted during the phase, including those of its subjects.
+     * @param subjects The measurements of the plugins and JARs processed during the phase.
+     * */
+    public record PhaseTiming(Phase phase, Duration wallTime, Map<Counter, Long> counters,
+                              List<SubjectTiming> subjects) {
+    }
+
+    /**
+     * The measurements of the work done for one plugin or JAR during a phase.
+     * @param subject The plugin or JAR.
+     * @param wallTime The wall time the work took.
+     * @param counters The quantities counted during the work.
+     * */
+    public record SubjectTiming(String subject, Duration wallTime, Map<Counter, Long> counters) {
+    }
+
+    /**
+     * An ongoing measurement. Closing the span records it and commits its JFR event.
+     * */
+    public static final class Span implements AutoCloseable {
+        private final Event event;
+        private final Consumer<Map<Counter, Long>> beforeCommit;
+        private final BiConsumer<Duration, Map<Counter, Long>> onClose;
+        private final Map<Counter, Long> counters = new EnumMap<>(Counter.class);
+        private final long start = System.nanoTime();
+        private boolean closed;
+
+        private Span(final Event event, final Consumer<Map<Counter, Long>> beforeCommit,
+                     final BiConsumer<Duration, Map<Counter, Long>> onClose) {
+            this.event = event;
+            this.beforeCommit = beforeCommit;
+            this.onClose = onClose;
+            event.begin();
+        }
+
+        /**
+         * Adds to a counter of this span.
+         * @param counter The counter.
+         * @param amount The amount to add.
+         * @return This span.
+         * */
+        public Span count(final Counter counter, final long amount) {
+            counters.merge(counter, amount, Long::sum);
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+
+            final Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+            event.end();
+            beforeCommit.accept(counters);
+            event.commit();
+            onClose.accept(elapsed, counters);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package blue.lhf.vipu.timings;
+
+import jdk.jfr.*;
+
+/**
+ * A JFR event spanning the work done for one plugin or JAR during a phase of Vipu's startup.
+ * */
+@Name("blue.lhf.vipu.Subject")
+@Label("Vipu Startup Subject")
+@Category("Vipu")
+@StackTrace(false)
+class SubjectEvent extends Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Subject")
+    String subject;
+
+    @Label("Bytes Downloaded")
+    @DataAmount
+    long bytesDownloaded;
+
+    @Label("Local Artifacts")
+    long artifactsLocal;
+
+    @Label("Downloaded Artifacts")
+    long artifactsDownloaded;
+}
@@ -0,0 +1,120 @@
+package blue.lhf.vipu.warmup;
+
+import blue.lhf.vipu.scanning.JarFingerprints;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.zip.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.*;
+
+/**
+ * The injected classes that were loaded while a server was running, recorded so that the next startup can load
+ * them ahead of time with a {@link Preloader}.
+ * <p>
+ *     A profile is only valid for the exact set of JARs it was recorded from. Its fingerprint covers the path and
+ *     the SHA-256 of each JAR, so adding, removing or updating a plugin or library invalidates it, but copying a JAR
+ *     over with the same content does not.
+ * </p>
+ * @param fingerprint The {@link #fingerprint(Collection) fingerprint} of the JARs the profile was recorded from.
+ * @param classes The binary names of the loaded classes, in the order they appear in the JARs.
+ * */
+public record ClassProfile(String fingerprint, List<String> classes) {
+    private static final String HEADER = "# Vipu class-load profile v1";
+    private static final String CLASS_EXTENSION = ".class";
+
+    /**
+     * @return The fingerprint of the given JARs.
+     * @param jars The fingerprints of the JARs, in any order.
+     * */
+    public static String fingerprint(final Collection<JarFingerprints.Fingerprint> jars) {
+        final List<String> lines = new ArrayList<>();
+        for (final JarFingerprints.Fingerprint jar : jars) lines.add(jar.jar() + " " + jar.sha256());
+
+        Collections.sort(lines);
+        final MessageDigest digest = sha256();
+        for (final String line : lines) digest.update((line + "\n").getBytes(UTF_8));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Records which classes of the given JARs have been loaded.
+     * @param fingerprint The fingerprint of the JARs.
+     * @param jars The JARs to record the classes of.
+     * @param loaded Whether the class with the given binary name has been loaded.
+     * @return The recorded profile.
+     * @throws IOException If a JAR could not be read.
+     * */
+    public static ClassProfile record(final String fingerprint, final Collection<Path> jars,
+                                      final Predicate<String> loaded) throws IOException {
+        final Set<String> classes = new LinkedHashSet<>();
+        for (final Path jar : jars) {
+            try (final ZipFile zip = new ZipFile(jar.toFile())) {
+                final Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    final String name = entries.nextElement().getName();
+                    if (!name.endsWith(CLASS_EXTENSION) || name.startsWith("META-INF/")) continue;
+                    if (name.endsWith("module-info.class") || name.endsWith("package-info.class")) continue;
+
+                    final String className = name.substring(0, name.length() - CLASS_EXTENSION.length())
+                                                 .replace('/', '.');
+                    if (loaded.test(className)) classes.add(className);
+                }
+            }
+        }
+
+        return new ClassProfile(fingerprint, List.copyOf(classes));
+    }
+
+    /**
+     * Reads a profile.
+     * @param file The file to read the profile from.
+     * @param fingerprint The fingerprint of the JARs that are currently injected.
+     * @return The profile, or nothing if there is no profile or it was recorded from different JARs.
+     * @throws IOException If the profile could not be read.
+     * */
+    public static Optional<ClassProfile> read(final Path file, final String fingerprint) throws IOException {
+        if (!Files.isRegularFile(file)) return Optional.empty();
+
+        final List<String> lines = Files.readAllLines(file, UTF_8);
+        if (lines.size() < 2 || !HEADER.equals(lines.get(0))) return Optional.empty();
+        if (!lines.get(1).equals("fingerprint " + fingerprint)) return Optional.empty();
+
+        return Optional.of(new ClassProfile(fingerprint, lines.subList(2, lines.size()).stream()
+                                                              .filter(line -> !line.isBlank()).toList()));
+    }
+
+    /**
+     * Writes this profile, replacing any previous profile atomically.
+     * @param file The file to write the profile to.
+     * @throws IOException If the profile could not be written.
+     * */
+    public void write(final Path file) throws IOException {
+        final List<String> lines = new ArrayList<>(classes.size() + 2);
+        lines.add(HEADER);
+        lines.add("fingerprint " + fingerprint);
+        lines.addAll(classes);
+
+        final Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        final Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temporary, lines, UTF_8);
+            Files.move(temporary, file, REPLACE_EXISTING, ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("SHA-256 is not available?", e);
+        }
+    }
+}
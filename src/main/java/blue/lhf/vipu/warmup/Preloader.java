@@ -0,0 +1,66 @@
+package blue.lhf.vipu.warmup;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static blue.lhf.vipu.Threads.daemonFactory;
+
+/**
+ * Loads and links classes ahead of time on background threads, so that the first use of a class on a running
+ * server does not pay for reading, defining and verifying it.
+ * <p>
+ *     Classes are loaded without being initialised, so that no plugin code runs early. Asking for the declared
+ *     constructors of a class makes the JVM link, and therefore verify, the class as well.
+ * </p>
+ * */
+public final class Preloader implements AutoCloseable {
+    private static final int BATCH_SIZE = 64;
+
+    private final ExecutorService executor;
+
+    /**
+     * @param parallelism The maximum number of classes to load at once.
+     * */
+    public Preloader(final int parallelism) {
+        this.executor = Executors.newFixedThreadPool(parallelism, daemonFactory("Vipu Preloader"));
+    }
+
+    /**
+     * Loads and links the given classes in parallel. Classes that cannot be loaded are skipped.
+     * @param classes The binary names of the classes to load.
+     * @param loader The class loader to load the classes with.
+     * @return A future of the number of classes that were loaded.
+     * */
+    public CompletableFuture<Integer> preload(final List<String> classes, final ClassLoader loader) {
+        final AtomicInteger loaded = new AtomicInteger();
+        final List<CompletableFuture<Void>> batches = new ArrayList<>();
+        for (int start = 0; start < classes.size(); start += BATCH_SIZE) {
+            final List<String> batch = classes.subList(start, Math.min(start + BATCH_SIZE, classes.size()));
+            batches.add(CompletableFuture.runAsync(() -> {
+                for (final String className : batch) {
+                    if (preload(className, loader)) loaded.incrementAndGet();
+                }
+            }, executor));
+        }
+
+        return CompletableFuture.allOf(batches.toArray(CompletableFuture[]::new)).thenApply(ignored -> loaded.get());
+    }
+
+    private static boolean preload(final String className, final ClassLoader loader) {
+        try {
+            Class.forName(className, false, loader).getDeclaredConstructors();
+            return true;
+        } catch (ClassNotFoundException | LinkageError | SecurityException skipped) {
+            return false;
+        }
+    }
+
+    /**
+     * Stops the preloader threads. Classes that are still being loaded are finished, the rest are skipped.
+     * */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
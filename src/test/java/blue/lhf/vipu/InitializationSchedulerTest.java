@@ -0,0 +1,114 @@
+package blue.lhf.vipu;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InitializationSchedulerTest {
+    private static final Logger LOGGER = Logger.getLogger(InitializationSchedulerTest.class.getName());
+
+    @Test
+    void initialisesPluginsAfterTheirDependencies() {
+        final List<Class<?>> order = Collections.synchronizedList(new ArrayList<>());
+        final List<InitializationScheduler.Task> tasks = List.of(
+            task(Integer.class, "Third", "Second", "First"),
+            task(String.class, "First"),
+            task(Long.class, "Second", "First", "Missing"));
+
+        final List<Class<?>> initialized = initialize(tasks, plugin -> {
+            order.add(plugin);
+            return plugin;
+        }, new HashMap<>());
+
+        assertEquals(List.of(String.class, Long.class, Integer.class), order);
+        assertEquals(order, initialized);
+    }
+
+    @Test
+    void skipsPluginsInACycle() {
+        final Map<Class<?>, Exception> failures = new HashMap<>();
+        final List<Class<?>> initialized = initialize(List.of(
+            task(String.class, "First", "Second"),
+            task(Integer.class, "Second", "First"),
+            task(Long.class, "Independent"),
+            task(Short.class, "Outside", "First")), plugin -> plugin, failures);
+
+        assertEquals(List.of(Long.class), initialized);
+        assertEquals(Set.of(String.class, Integer.class, Short.class), failures.keySet());
+        failures.values().forEach(e -> assertInstanceOf(IllegalStateException.class, e));
+    }
+
+    @Test
+    void skipsPluginsThatDependOnAFailedPlugin() {
+        final IllegalArgumentException broken = new IllegalArgumentException("broken");
+        final Map<Class<?>, Exception> failures = new HashMap<>();
+        final List<Class<?>> initialized = initialize(List.of(
+            task(String.class, "Broken"),
+            task(Integer.class, "Dependent", "Broken"),
+            task(Long.class, "Transitive", "Dependent"),
+            task(Short.class, "Independent")), plugin -> {
+                if (plugin == String.class) throw broken;
+                return plugin;
+            }, failures);
+
+        assertEquals(List.of(Short.class), initialized);
+        assertSame(broken, failures.get(String.class));
+        assertInstanceOf(IllegalStateException.class, failures.get(Integer.class));
+        assertInstanceOf(IllegalStateException.class, failures.get(Long.class));
+    }
+
+    @Test
+    void initialisesServerThreadPluginsOnTheCallingThread() {
+        final Map<Class<?>, Thread> threads = new ConcurrentHashMap<>();
+        initialize(List.of(
+            new InitializationScheduler.Task(String.class, "Worker", Set.of(), false),
+            new InitializationScheduler.Task(Integer.class, "Server", Set.of("Worker"), true)), plugin -> {
+                threads.put(plugin, Thread.currentThread());
+                return plugin;
+            }, new HashMap<>());
+
+        assertSame(Thread.currentThread(), threads.get(Integer.class));
+        assertNotSame(Thread.currentThread(), threads.get(String.class));
+    }
+
+    @Test
+    void stopsWaitingForPluginsThatTimeOut() {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Map<Class<?>, Exception> failures = new HashMap<>();
+        try (final InitializationScheduler scheduler = new InitializationScheduler(2, Duration.ofMillis(200),
+            LOGGER)) {
+            final List<Class<?>> initialized = scheduler.initialize(List.of(
+                task(String.class, "Stuck"),
+                task(Integer.class, "Dependent", "Stuck"),
+                task(Long.class, "Independent")), plugin -> {
+                    if (plugin == String.class) release.await();
+                    return plugin;
+                }, failures::put);
+
+            assertEquals(List.of(Long.class), initialized);
+            assertInstanceOf(TimeoutException.class, failures.get(String.class));
+            assertInstanceOf(IllegalStateException.class, failures.get(Integer.class));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private static List<Class<?>> initialize(final List<InitializationScheduler.Task> tasks,
+                                             final Functional.Throwing<Class<?>, ?> initializer,
+                                             final Map<Class<?>, Exception> failures) {
+        try (final InitializationScheduler scheduler = new InitializationScheduler(2, Duration.ofSeconds(10),
+            LOGGER)) {
+            return scheduler.initialize(tasks, initializer, failures::put);
+        }
+    }
+
+    private static InitializationScheduler.Task task(final Class<?> plugin, final String name,
+                                                     final String... after) {
+        return new InitializationScheduler.Task(plugin, name, Set.of(after), false);
+    }
+}
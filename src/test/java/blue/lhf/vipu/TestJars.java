@@ -0,0 +1,73 @@
+package blue.lhf.vipu;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.Map;
+import java.util.zip.*;
+
+/**
+ * Builds JAR files out of the class files of the test classes, for tests that scan, fingerprint or index JARs.
+ * */
+public final class TestJars {
+    private TestJars() {
+
+    }
+
+    /**
+     * @return The class file of the given class, as served by its class loader.
+     * @param type The class to read.
+     * @throws IOException If the class file could not be read.
+     * */
+    public static byte[] bytecode(final Class<?> type) throws IOException {
+        try (final InputStream stream = type.getResourceAsStream("/" + entryName(type))) {
+            if (stream == null) throw new FileNotFoundException("No class file for " + type.getName());
+            return stream.readAllBytes();
+        }
+    }
+
+    /**
+     * @return The name of the JAR entry of the given class, like <code>blue/lhf/vipu/Vipu.class</code>.
+     * @param type The class.
+     * */
+    public static String entryName(final Class<?> type) {
+        return type.getName().replace('.', '/') + ".class";
+    }
+
+    /**
+     * Writes a JAR file with the class files of the given classes.
+     * @param jar The path to write the JAR to.
+     * @param classes The classes to include.
+     * @return The given path.
+     * @throws IOException If the JAR could not be written.
+     * */
+    public static Path jarOf(final Path jar, final Class<?>... classes) throws IOException {
+        try (final ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(jar))) {
+            for (final Class<?> type : classes) {
+                zip.putNextEntry(new ZipEntry(entryName(type)));
+                zip.write(bytecode(type));
+                zip.closeEntry();
+            }
+        }
+
+        return jar;
+    }
+
+    /**
+     * Writes a JAR file with the given entries.
+     * @param jar The path to write the JAR to.
+     * @param entries The content of each entry, by entry name, in the order to write them in.
+     * @return The given path.
+     * @throws IOException If the JAR could not be written.
+     * */
+    public static Path jar(final Path jar, final Map<String, byte[]> entries) throws IOException {
+        try (final ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(jar))) {
+            for (final Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                zip.putNextEntry(new ZipEntry(entry.getKey()));
+                zip.write(entry.getValue());
+                zip.closeEntry();
+            }
+        }
+
+        return jar;
+    }
+}
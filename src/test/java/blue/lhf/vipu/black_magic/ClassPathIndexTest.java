@@ -0,0 +1,107 @@
+package blue.lhf.vipu.black_magic;
+
+import blue.lhf.vipu.TestJars;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.Path;
+import java.util.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClassPathIndexTest {
+    private static final String SERVICE = "META-INF/services/org.example.Service";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void servesTheFirstOccurrenceOfAResource() throws IOException {
+        final ClassPathIndex index = index();
+        final Path first = jar("first.jar", Map.of("data/value.txt", "first"));
+        final Path second = jar("second.jar", Map.of("data/value.txt", "second", "data/other.txt", "other"));
+        index.add(first);
+        index.add(second);
+
+        try (final URLClassLoader loader = new URLClassLoader(new URL[] {index.layer(0)}, null)) {
+            assertEquals("first", read(loader.getResource("data/value.txt")));
+            assertEquals(List.of(first, second), List.copyOf(index.hits().keySet()));
+            assertTrue(index.hits().get(first) > 0);
+            assertEquals(0, index.hits().get(second).longValue());
+
+            assertEquals("other", read(loader.getResource("data/other.txt")));
+            assertTrue(index.hits().get(second) > 0);
+        }
+    }
+
+    @Test
+    void countsLookupsThatNoJarCanServe() throws IOException {
+        final ClassPathIndex index = index();
+        index.add(jar("plugin.jar", Map.of("data/value.txt", "value", "root.txt", "root")));
+
+        try (final URLClassLoader loader = new URLClassLoader(new URL[] {index.layer(0)}, null)) {
+            assertNull(loader.getResource("data/missing.txt"));
+            assertNull(loader.getResource("unknown/value.txt"));
+            assertEquals("root", read(loader.getResource("root.txt")));
+        }
+
+        assertEquals(2, index.misses());
+    }
+
+    @Test
+    void loadsClassesFromTheAddedJars() throws Exception {
+        final ClassPathIndex index = index();
+        index.add(TestJars.jarOf(directory.resolve("classes.jar"), Greeting.class));
+
+        try (final URLClassLoader loader = new URLClassLoader(new URL[] {index.layer(0)}, null)) {
+            final Class<?> loaded = loader.loadClass(Greeting.class.getName());
+            assertNotSame(Greeting.class, loaded);
+            assertSame(loader, loaded.getClassLoader());
+            assertEquals("Hello", loaded.getConstructor().newInstance().toString());
+        }
+    }
+
+    @Test
+    void servesFurtherServiceProvidersThroughFurtherLayers() throws IOException {
+        final ClassPathIndex index = index();
+        assertEquals(1, index.add(jar("first.jar", Map.of(SERVICE, "org.example.First", "data/value.txt", "v"))));
+        assertEquals(2, index.add(jar("second.jar", Map.of(SERVICE, "org.example.Second"))));
+
+        try (final URLClassLoader loader = new URLClassLoader(new URL[] {index.layer(0), index.layer(1)}, null)) {
+            final List<String> providers = new ArrayList<>();
+            for (final URL url : Collections.list(loader.getResources(SERVICE))) providers.add(read(url));
+            assertEquals(List.of("org.example.First", "org.example.Second"), providers);
+        }
+
+        try (final URLClassLoader loader = new URLClassLoader(new URL[] {index.layer(1)}, null)) {
+            assertNull(loader.getResource("data/value.txt"), "Further layers only serve service providers");
+        }
+    }
+
+    private static ClassPathIndex index() {
+        return new ClassPathIndex(new Surma(new URLClassLoader(new URL[0], null)).transformation());
+    }
+
+    private Path jar(final String name, final Map<String, String> entries) throws IOException {
+        final Map<String, byte[]> content = new LinkedHashMap<>();
+        entries.forEach((entry, text) -> content.put(entry, text.getBytes(UTF_8)));
+        return TestJars.jar(directory.resolve(name), content);
+    }
+
+    private static String read(final URL url) throws IOException {
+        assertNotNull(url);
+        try (final InputStream stream = url.openStream()) {
+            return new String(stream.readAllBytes(), UTF_8);
+        }
+    }
+
+    public static final class Greeting {
+        @Override
+        public String toString() {
+            return "Hello";
+        }
+    }
+}
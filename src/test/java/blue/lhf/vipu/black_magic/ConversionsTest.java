@@ -0,0 +1,63 @@
+package blue.lhf.vipu.black_magic;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConversionsTest {
+    private final Conversions conversions = new Conversions(new Surma(new URLClassLoader(new URL[0], null)));
+
+    @Test
+    void passesInstancesOfTheTargetClassThrough() {
+        final List<String> value = new ArrayList<>();
+        assertSame(value, conversions.plan(ArrayList.class, List.class).convert(value, List.class));
+        assertSame(value, conversions.plan(ArrayList.class, Object.class).convert(value, Object.class));
+    }
+
+    @Test
+    void passesPrimitivesThrough() {
+        assertSame(42, conversions.plan(Integer.class, int.class).convert(42, int.class));
+    }
+
+    @Test
+    void proxiesObjectsToInterfacesTheyDoNotImplement() {
+        final Counter counter = new Counter();
+        final Object converted = conversions.plan(Counter.class, Runnable.class).convert(counter, Runnable.class);
+
+        assertInstanceOf(Runnable.class, converted);
+        ((Runnable) converted).run();
+        ((Runnable) converted).run();
+        assertEquals(2, counter.runs);
+    }
+
+    @Test
+    void cachesOnePlanPerSourceAndTarget() {
+        final Conversions.Conversion proxy = conversions.plan(Counter.class, Runnable.class);
+        assertSame(proxy, conversions.plan(Counter.class, Runnable.class));
+        assertNotSame(proxy, conversions.plan(String.class, CharSequence.class));
+        assertNotSame(proxy, conversions.plan(Counter.class, StringBuilder.class));
+        assertSame(conversions.plan(String.class, CharSequence.class), conversions.plan(Integer.class, Number.class));
+    }
+
+    @Test
+    void leavesUnconvertedArgumentsAlone() {
+        final Counter counter = new Counter();
+        final Object[] args = {counter, "text", null};
+        assertSame(args, conversions.convert(args, new Class<?>[] {null, CharSequence.class, Runnable.class}));
+        assertSame(counter, args[0]);
+        assertEquals("text", args[1]);
+        assertNull(args[2]);
+        assertNull(conversions.convert(null, new Class<?>[0]));
+    }
+
+    public static final class Counter {
+        private int runs;
+
+        public void run() {
+            ++runs;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package blue.lhf.vipu.black_magic;
+
+import org.eclipse.aether.*;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.collection.DependencyGraphTransformationContext;
+import org.eclipse.aether.graph.*;
+import org.eclipse.aether.util.graph.transformer.*;
+import org.eclipse.aether.util.version.GenericVersionScheme;
+import org.eclipse.aether.version.InvalidVersionSpecificationException;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MediationTest {
+    private static final GenericVersionScheme VERSIONS = new GenericVersionScheme();
+
+    @Test
+    void nearestKeepsTheFirstDirectRequest() {
+        final Dependency first = dependency("org.example:lib:1.0");
+        assertSame(first, Mediation.NEAREST.prefer(first, dependency("org.example:lib:2.0")));
+    }
+
+    @Test
+    void highestKeepsTheHighestDirectRequest() {
+        final Dependency older = dependency("org.example:lib:1.9");
+        final Dependency newer = dependency("org.example:lib:1.10");
+        assertSame(newer, Mediation.HIGHEST.prefer(older, newer));
+        assertSame(newer, Mediation.HIGHEST.prefer(newer, older));
+
+        final Dependency same = dependency("org.example:lib:1.10");
+        assertSame(newer, Mediation.HIGHEST.prefer(newer, same));
+    }
+
+    @Test
+    void nearestPicksTheVersionClosestToTheRoot() throws Exception {
+        assertEquals(List.of("1.0"), mediate(Mediation.NEAREST).get("org.example:lib"));
+    }
+
+    @Test
+    void highestPicksTheHighestVersionAtAnyDepth() throws Exception {
+        assertEquals(List.of("2.0"), mediate(Mediation.HIGHEST).get("org.example:lib"));
+    }
+
+    @Test
+    void highestPrefersTheShallowerOfEqualVersions() throws Exception {
+        final DefaultDependencyNode root = new DefaultDependencyNode(new DefaultArtifact("org.example:root:1"));
+        final DefaultDependencyNode other = node("org.example:other:1.0");
+        other.setChildren(new ArrayList<>(List.of(node("org.example:lib:2.0"))));
+        final DefaultDependencyNode direct = node("org.example:lib:2.0");
+        root.setChildren(new ArrayList<>(List.of(other, direct)));
+
+        transform(Mediation.HIGHEST, root);
+        assertTrue(root.getChildren().contains(direct));
+        assertEquals(List.of(), other.getChildren());
+    }
+
+    /**
+     * Mediates a graph in which the root depends on <code>other:1.0</code>, which depends on <code>lib:2.0</code>,
+     * and then directly on <code>lib:1.0</code>.
+     * @return The versions left in the graph, by group and artifact.
+     * */
+    private static Map<String, List<String>> mediate(final Mediation mediation) throws Exception {
+        final DefaultDependencyNode root = new DefaultDependencyNode(new DefaultArtifact("org.example:root:1"));
+        final DefaultDependencyNode other = node("org.example:other:1.0");
+        other.setChildren(new ArrayList<>(List.of(node("org.example:lib:2.0"))));
+        root.setChildren(new ArrayList<>(List.of(other, node("org.example:lib:1.0"))));
+
+        final Map<String, List<String>> versions = new TreeMap<>();
+        transform(mediation, root).accept(new DependencyVisitor() {
+            @Override
+            public boolean visitEnter(final DependencyNode node) {
+                if (node.getDependency() == null) return true;
+                final String key = node.getArtifact().getGroupId() + ":" + node.getArtifact().getArtifactId();
+                versions.computeIfAbsent(key, ignored -> new ArrayList<>()).add(node.getVersion().toString());
+                return true;
+            }
+
+            @Override
+            public boolean visitLeave(final DependencyNode node) {
+                return true;
+            }
+        });
+
+        return versions;
+    }
+
+    private static DependencyNode transform(final Mediation mediation, final DependencyNode root) throws Exception {
+        final ConflictResolver resolver = new ConflictResolver(mediation.selector(), new JavaScopeSelector(),
+            new SimpleOptionalitySelector(), new JavaScopeDeriver());
+        return resolver.transformGraph(root, new Context());
+    }
+
+    private static Dependency dependency(final String coordinates) {
+        return new Dependency(new DefaultArtifact(coordinates), "compile");
+    }
+
+    private static DefaultDependencyNode node(final String coordinates) {
+        final Dependency dependency = dependency(coordinates);
+        final DefaultDependencyNode node = new DefaultDependencyNode(dependency);
+        try {
+            node.setVersion(VERSIONS.parseVersion(dependency.getArtifact().getVersion()));
+            node.setVersionConstraint(VERSIONS.parseVersionConstraint(dependency.getArtifact().getVersion()));
+        } catch (InvalidVersionSpecificationException e) {
+            throw new AssertionError(e);
+        }
+
+        return node;
+    }
+
+    private static final class Context implements DependencyGraphTransformationContext {
+        private final RepositorySystemSession session = new DefaultRepositorySystemSession();
+        private final Map<Object, Object> values = new HashMap<>();
+
+        @Override
+        public RepositorySystemSession getSession() {
+            return session;
+        }
+
+        @Override
+        public Object get(final Object key) {
+            return values.get(key);
+        }
+
+        @Override
+        public Object put(final Object key, final Object value) {
+            return values.put(key, value);
+        }
+    }
+}
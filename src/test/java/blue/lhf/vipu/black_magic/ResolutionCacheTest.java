@@ -0,0 +1,124 @@
+package blue.lhf.vipu.black_magic;
+
+import blue.lhf.vipu.TestJars;
+import blue.lhf.vipu.scanning.JarFingerprints;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.time.*;
+import java.util.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResolutionCacheTest {
+    private static final Duration FAILURE_TTL = Duration.ofMinutes(10);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsTheLockedLibrariesInOrder() throws IOException {
+        final List<InjectingLibraryLoader.Library> libraries = libraries();
+        final ResolutionCache cache = cache();
+        cache.writeLock("org.example.Plugin", "hash", libraries);
+
+        final List<InjectingLibraryLoader.Library> locked = cache().readLock("org.example.Plugin", "hash")
+            .orElseThrow();
+        assertEquals(List.of("org.example:first:jar", "org.example:second:jar"),
+            locked.stream().map(InjectingLibraryLoader.Library::key).toList());
+        assertEquals(List.of("1.0", "2.0"), locked.stream().map(InjectingLibraryLoader.Library::version).toList());
+        assertEquals(libraries.stream().map(library -> library.file().getAbsoluteFile()).toList(),
+            locked.stream().map(InjectingLibraryLoader.Library::file).toList());
+    }
+
+    @Test
+    void ignoresLocksOfOtherCoordinates() throws IOException {
+        cache().writeLock("org.example.Plugin", "hash", libraries());
+        assertEquals(Optional.empty(), cache().readLock("org.example.Plugin", "other"));
+        assertEquals(Optional.empty(), cache().readLock("org.example.Other", "hash"));
+    }
+
+    @Test
+    void ignoresLocksOfAnOlderFormat() throws IOException {
+        final ResolutionCache cache = cache();
+        cache.writeLock("org.example.Plugin", "hash", libraries());
+
+        final Path lock = directory.resolve("locks").resolve("org.example.Plugin.lock");
+        final List<String> lines = new ArrayList<>(Files.readAllLines(lock, UTF_8));
+        lines.set(0, "# Vipu resolution lock v1");
+        Files.write(lock, lines, UTF_8);
+
+        assertEquals(Optional.empty(), cache.readLock("org.example.Plugin", "hash"));
+    }
+
+    @Test
+    void ignoresLocksWhoseArtifactsChangedSize() throws IOException {
+        final List<InjectingLibraryLoader.Library> libraries = libraries();
+        final ResolutionCache cache = cache();
+        cache.writeLock("org.example.Plugin", "hash", libraries);
+
+        TestJars.jarOf(libraries.get(1).file().toPath(), ResolutionCacheTest.class, TestJars.class);
+        assertEquals(Optional.empty(), cache.readLock("org.example.Plugin", "hash"));
+    }
+
+    @Test
+    void reportsArtifactsThatWereTamperedWith() throws IOException {
+        final List<InjectingLibraryLoader.Library> libraries = libraries();
+        final ResolutionCache cache = cache();
+        cache.writeLock("org.example.Plugin", "hash", libraries);
+
+        final Path artifact = libraries.get(0).file().toPath().toAbsolutePath();
+        final byte[] content = Files.readAllBytes(artifact);
+        content[0] ^= 1;
+        Files.write(artifact, content);
+        Files.setLastModifiedTime(artifact, FileTime.from(Instant.now().plusSeconds(60)));
+
+        final ResolutionCache.TamperedException tampered = assertThrows(ResolutionCache.TamperedException.class,
+            () -> cache.readLock("org.example.Plugin", "hash"));
+        assertEquals(artifact, tampered.artifact());
+    }
+
+    @Test
+    void remembersRecentFailures() throws IOException {
+        final ResolutionCache cache = cache();
+        cache.recordFailure("org.example.Plugin", "hash", "Could not reach the repository");
+
+        assertEquals(Optional.of("Could not reach the repository"), cache.recentFailure("org.example.Plugin", "hash"));
+        assertEquals(Optional.empty(), cache.recentFailure("org.example.Plugin", "other"));
+
+        cache.clearFailure("org.example.Plugin");
+        assertEquals(Optional.empty(), cache.recentFailure("org.example.Plugin", "hash"));
+    }
+
+    @Test
+    void forgetsFailuresOlderThanTheirTtl() throws IOException {
+        Files.createDirectories(directory.resolve("locks"));
+        Files.write(directory.resolve("locks").resolve("org.example.Plugin.failed"),
+            List.of("hash", Instant.now().minus(FAILURE_TTL).minusSeconds(1).toString(), "message"), UTF_8);
+
+        assertEquals(Optional.empty(), cache().recentFailure("org.example.Plugin", "hash"));
+    }
+
+    @Test
+    void hashesCoordinatesInOrderAndApartFromRepositories() {
+        final String hash = ResolutionCache.coordinatesHash(List.of("a:b:1", "c:d:2"), List.of("https://repo"));
+        assertEquals(hash, ResolutionCache.coordinatesHash(List.of("a:b:1", "c:d:2"), List.of("https://repo")));
+        assertNotEquals(hash, ResolutionCache.coordinatesHash(List.of("c:d:2", "a:b:1"), List.of("https://repo")));
+        assertNotEquals(hash, ResolutionCache.coordinatesHash(List.of("a:b:1", "c:d:2", "https://repo"), List.of()));
+    }
+
+    private ResolutionCache cache() {
+        return new ResolutionCache(directory.resolve("locks"), FAILURE_TTL, new JarFingerprints(null));
+    }
+
+    private List<InjectingLibraryLoader.Library> libraries() throws IOException {
+        final Path first = TestJars.jarOf(directory.resolve("first-1.0.jar"), ResolutionCacheTest.class);
+        final Path second = TestJars.jarOf(directory.resolve("second-2.0.jar"), TestJars.class);
+        return List.of(new InjectingLibraryLoader.Library("org.example:first:jar", "1.0", first.toFile()),
+            new InjectingLibraryLoader.Library("org.example:second:jar", "2.0", second.toFile()));
+    }
+}
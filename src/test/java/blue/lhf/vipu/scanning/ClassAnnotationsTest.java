@@ -0,0 +1,81 @@
+package blue.lhf.vipu.scanning;
+
+import blue.lhf.vipu.escaping.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.annotation.*;
+import java.util.*;
+
+import static blue.lhf.vipu.TestJars.bytecode;
+import static java.lang.annotation.RetentionPolicy.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClassAnnotationsTest {
+    private static final String NAME = "Lblue/lhf/vipu/escaping/Name;";
+    private static final String LIBRARIES = "Lblue/lhf/vipu/escaping/Libraries;";
+    private static final String ACTIVATE_ON = "Lblue/lhf/vipu/escaping/ActivateOn;";
+    private static final String MIXED = "Lblue/lhf/vipu/scanning/ClassAnnotationsTest$Mixed;";
+
+    @Test
+    void readsStringsArraysAndClasses() throws IOException {
+        final Map<String, Map<String, Object>> annotations = ClassAnnotations.read(bytecode(Annotated.class));
+        assertEquals(Map.of("value", "Annotated"), annotations.get(NAME));
+        assertEquals(Map.of("value", List.of("org.example:first:1.0", "org.example:second:2.0")),
+            annotations.get(LIBRARIES));
+
+        final Map<String, Object> activateOn = annotations.get(ACTIVATE_ON);
+        assertEquals(List.of("annotated"), activateOn.get("commands"));
+        assertEquals(List.of(new ClassAnnotations.Type("Ljava/lang/Runnable;")), activateOn.get("services"));
+        assertFalse(activateOn.containsKey("events"), "Defaults are not in the class file");
+    }
+
+    @Test
+    void leavesOutNumbersAndEnumsButKeepsNestedAnnotations() throws IOException {
+        final Map<String, Object> mixed = ClassAnnotations.read(bytecode(Annotated.class)).get(MIXED);
+        assertEquals(Set.of("text", "nested", "numbers"), mixed.keySet());
+        assertEquals("kept", mixed.get("text"));
+        assertEquals(Map.of("value", "Nested"), mixed.get("nested"));
+        assertEquals(List.of(), mixed.get("numbers"));
+    }
+
+    @Test
+    void ignoresAnnotationsThatAreNotVisibleAtRuntime() throws IOException {
+        assertEquals(Map.of(), ClassAnnotations.read(bytecode(Unannotated.class)));
+    }
+
+    @Test
+    void convertsClassDescriptorsToBinaryNames() {
+        assertEquals("java.util.Map$Entry", new ClassAnnotations.Type("Ljava/util/Map$Entry;").className());
+        assertEquals("I", new ClassAnnotations.Type("I").className());
+    }
+
+    @Test
+    void rejectsMalformedClassFiles() {
+        assertThrows(IOException.class, () -> ClassAnnotations.read(new byte[] {(byte) 0xCA, (byte) 0xFE}));
+    }
+
+    @Retention(RUNTIME)
+    @interface Mixed {
+        String text();
+        int number();
+        RetentionPolicy policy();
+        Name nested();
+        int[] numbers();
+    }
+
+    @Retention(CLASS)
+    @interface Invisible {
+    }
+
+    @Name("Annotated")
+    @Libraries({"org.example:first:1.0", "org.example:second:2.0"})
+    @ActivateOn(commands = "annotated", services = Runnable.class)
+    @Mixed(text = "kept", number = 3, policy = SOURCE, nested = @Name("Nested"), numbers = {1, 2})
+    private static final class Annotated {
+    }
+
+    @Invisible
+    private static final class Unannotated {
+    }
+}
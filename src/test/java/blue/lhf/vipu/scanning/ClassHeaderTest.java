@@ -0,0 +1,67 @@
+package blue.lhf.vipu.scanning;
+
+import blue.lhf.vipu.escaping.VipuPlugin;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.util.*;
+
+import static blue.lhf.vipu.TestJars.bytecode;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClassHeaderTest {
+    @Test
+    void readsNameSuperclassAndInterfaces() throws IOException {
+        final ClassHeader header = ClassHeader.parse(bytecode(Sample.class));
+        assertEquals("blue/lhf/vipu/scanning/ClassHeaderTest$Sample", header.name());
+        assertEquals("java/util/AbstractList", header.superName());
+        assertEquals(List.of("blue/lhf/vipu/escaping/VipuPlugin", "java/util/RandomAccess"), header.interfaces());
+        assertFalse(header.isInterface());
+    }
+
+    @Test
+    void recognisesInterfaces() throws IOException {
+        final ClassHeader header = ClassHeader.parse(bytecode(SampleApi.class));
+        assertTrue(header.isInterface());
+        assertEquals("java/lang/Object", header.superName());
+        assertEquals(List.of("blue/lhf/vipu/escaping/VipuPlugin"), header.interfaces());
+    }
+
+    @Test
+    void objectHasNoSuperclass() throws IOException {
+        assertNull(ClassHeader.parse(bytecode(Object.class)).superName());
+    }
+
+    @Test
+    void rejectsFilesThatAreNotClassFiles() {
+        assertThrows(IOException.class, () -> ClassHeader.parse("not a class".getBytes()));
+    }
+
+    @Test
+    void rejectsTruncatedClassFiles() throws IOException {
+        final byte[] bytecode = bytecode(Sample.class);
+        assertThrows(IOException.class, () -> ClassHeader.parse(Arrays.copyOf(bytecode, 24)));
+    }
+
+    @Test
+    void rejectsUnknownConstantPoolTags() throws IOException {
+        final byte[] bytecode = bytecode(Sample.class);
+        bytecode[10] = (byte) 99; // the tag of the first constant
+        assertThrows(IOException.class, () -> ClassHeader.parse(bytecode));
+    }
+
+    private static final class Sample extends AbstractList<String> implements VipuPlugin, RandomAccess {
+        @Override
+        public String get(final int index) {
+            throw new IndexOutOfBoundsException(index);
+        }
+
+        @Override
+        public int size() {
+            return 0;
+        }
+    }
+
+    private interface SampleApi extends VipuPlugin {
+    }
+}
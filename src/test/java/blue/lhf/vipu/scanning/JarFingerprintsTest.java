@@ -0,0 +1,101 @@
+package blue.lhf.vipu.scanning;
+
+import blue.lhf.vipu.TestJars;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.zip.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JarFingerprintsTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void hashesTheContentOfJars() throws IOException, NoSuchAlgorithmException {
+        final Path jar = TestJars.jarOf(directory.resolve("plugin.jar"), JarFingerprintsTest.class);
+        final JarFingerprints.Fingerprint fingerprint = new JarFingerprints(null).fingerprint(jar);
+
+        final byte[] content = Files.readAllBytes(jar);
+        assertEquals(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content)),
+            fingerprint.sha256());
+        assertEquals(content.length, fingerprint.size());
+        assertEquals(jar.toAbsolutePath(), fingerprint.jar());
+        assertTrue(fingerprint.changed());
+    }
+
+    @Test
+    void acceptsArchivesWithComments() throws IOException {
+        final Path jar = directory.resolve("commented.jar");
+        try (final ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(jar))) {
+            zip.setComment("A comment that follows the end of central directory record");
+            zip.putNextEntry(new ZipEntry("entry.txt"));
+            zip.closeEntry();
+        }
+
+        assertNotNull(new JarFingerprints(null).fingerprint(jar).sha256());
+    }
+
+    @Test
+    void rejectsArchivesCutOffAtTheEnd() throws IOException {
+        final Path jar = TestJars.jarOf(directory.resolve("truncated.jar"), JarFingerprintsTest.class);
+        final byte[] content = Files.readAllBytes(jar);
+        Files.write(jar, Arrays.copyOf(content, content.length - 10));
+
+        assertThrows(ZipException.class, () -> new JarFingerprints(null).fingerprint(jar));
+    }
+
+    @Test
+    void rejectsArchivesMissingPartOfTheirCentralDirectory() throws IOException {
+        final Path jar = TestJars.jarOf(directory.resolve("truncated.jar"), JarFingerprintsTest.class);
+        final byte[] content = Files.readAllBytes(jar);
+        Files.write(jar, Arrays.copyOfRange(content, 16, content.length));
+
+        assertThrows(ZipException.class, () -> new JarFingerprints(null).fingerprint(jar));
+    }
+
+    @Test
+    void doesNotCheckFilesThatAreNotArchives() throws IOException {
+        final Path file = Files.writeString(directory.resolve("notes.txt"), "not an archive");
+        assertNotNull(new JarFingerprints(null).fingerprint(file).sha256());
+    }
+
+    @Test
+    void remembersSavedFingerprintsAcrossInstances() throws IOException {
+        final Path manifest = directory.resolve("cache").resolve("jars.manifest");
+        final Path jar = TestJars.jarOf(directory.resolve("plugin.jar"), JarFingerprintsTest.class);
+
+        final JarFingerprints first = new JarFingerprints(manifest);
+        final String sha256 = first.fingerprint(jar).sha256();
+        first.save();
+
+        final JarFingerprints second = new JarFingerprints(manifest);
+        final JarFingerprints.Fingerprint unchanged = second.fingerprint(jar);
+        assertEquals(sha256, unchanged.sha256());
+        assertFalse(unchanged.changed());
+
+        TestJars.jarOf(jar, JarFingerprintsTest.class, TestJars.class);
+        final JarFingerprints.Fingerprint changed = second.fingerprint(jar);
+        assertNotEquals(sha256, changed.sha256());
+        assertTrue(changed.changed());
+    }
+
+    @Test
+    void reportsFilesThatCannotBeFingerprinted() throws IOException {
+        final Path first = TestJars.jarOf(directory.resolve("first.jar"), JarFingerprintsTest.class);
+        final Path missing = directory.resolve("missing.jar");
+        final Path second = TestJars.jarOf(directory.resolve("second.jar"), TestJars.class);
+
+        final List<Path> failed = new ArrayList<>();
+        final Map<Path, JarFingerprints.Fingerprint> fingerprints = new JarFingerprints(null).fingerprint(
+            List.of(second, missing, first), (file, e) -> failed.add(file));
+
+        assertEquals(List.of(second, first), List.copyOf(fingerprints.keySet()));
+        assertEquals(List.of(missing), failed);
+    }
+}
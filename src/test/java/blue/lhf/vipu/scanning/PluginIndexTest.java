@@ -0,0 +1,62 @@
+package blue.lhf.vipu.scanning;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.net.URI;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PluginIndexTest {
+    private static final URI JAR = URI.create("file:/plugins/example.jar");
+
+    @Test
+    void readsWhatItWrites() throws IOException {
+        final List<PluginDescriptor> plugins = List.of(
+            new PluginDescriptor(JAR, "org.example.First", "First", List.of(), Triggers.NONE),
+            new PluginDescriptor(JAR, "org.example.Second", "Second", List.of("org.example:lib:1.0",
+                "org.example:other:2.0"), new Triggers(List.of("second"), List.of("org.example.SomeEvent"),
+                List.of("org.example.SomeService"))));
+
+        final StringWriter writer = new StringWriter();
+        PluginIndex.write(writer, plugins);
+        assertEquals(plugins, read(writer.toString()));
+    }
+
+    @Test
+    void readsIndicesWithoutTriggers() throws IOException {
+        final List<PluginDescriptor> plugins = read("""
+            # Vipu plugin index v1
+            org.example.First\tFirst\torg.example:lib:1.0
+
+            org.example.Second\tSecond\t
+            """);
+
+        assertEquals(List.of(
+            new PluginDescriptor(JAR, "org.example.First", "First", List.of("org.example:lib:1.0"), Triggers.NONE),
+            new PluginDescriptor(JAR, "org.example.Second", "Second", List.of(), Triggers.NONE)), plugins);
+    }
+
+    @Test
+    void rejectsUnknownHeaders() {
+        assertThrows(IOException.class, () -> read("# Vipu plugin index v0\norg.example.First\tFirst\t\n"));
+        assertThrows(IOException.class, () -> read(""));
+    }
+
+    @Test
+    void rejectsMalformedLines() {
+        assertThrows(IOException.class, () -> read("# Vipu plugin index v1\norg.example.First\n"));
+        assertThrows(IOException.class, () -> read("# Vipu plugin index v1\na\tb\tc\td\te\n"));
+    }
+
+    @Test
+    void rejectsUnknownTriggers() {
+        assertThrows(IOException.class, () -> read("# Vipu plugin index v1\norg.example.First\tFirst\t\tsound:x\n"));
+        assertThrows(IOException.class, () -> read("# Vipu plugin index v1\norg.example.First\tFirst\t\tfirst\n"));
+    }
+
+    private static List<PluginDescriptor> read(final String index) throws IOException {
+        return PluginIndex.read(new BufferedReader(new StringReader(index)), JAR);
+    }
+}
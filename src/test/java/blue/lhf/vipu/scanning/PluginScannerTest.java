@@ -0,0 +1,150 @@
+package blue.lhf.vipu.scanning;
+
+import blue.lhf.vipu.TestJars;
+import blue.lhf.vipu.escaping.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.*;
+import java.util.*;
+import java.util.logging.Logger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PluginScannerTest {
+    private static final String PREFIX = PluginScannerTest.class.getName() + "$";
+    private static final Logger LOGGER = Logger.getLogger(PluginScannerTest.class.getName());
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void findsPluginsThroughSuperclassesAndInterfaces() throws IOException {
+        final URI jar = TestJars.jarOf(directory.resolve("plugins.jar"), Standalone.class, Base.class,
+            Derived.class, Api.class, ViaApi.class, Unrelated.class).toUri();
+
+        final List<PluginDescriptor> plugins = PluginScanner.scan(jar);
+        assertEquals(List.of(PREFIX + "Base", PREFIX + "Derived", PREFIX + "Standalone", PREFIX + "ViaApi"),
+            plugins.stream().map(PluginDescriptor::className).toList());
+
+        final PluginDescriptor standalone = plugins.get(2);
+        assertEquals(jar, standalone.jar());
+        assertEquals("Standalone Plugin", standalone.name());
+        assertEquals(List.of("org.example:lib:1.0"), standalone.libraries());
+        assertSame(Triggers.NONE, standalone.triggers());
+
+        final PluginDescriptor viaApi = plugins.get(3);
+        assertEquals("ViaApi", viaApi.name());
+        assertEquals(new Triggers(List.of("via"), List.of("java.util.EventObject"), List.of()), viaApi.triggers());
+    }
+
+    @Test
+    void ignoresClassesWhoseSuperclassIsInAnotherJar() throws IOException {
+        final URI jar = TestJars.jarOf(directory.resolve("derived.jar"), Derived.class).toUri();
+        assertEquals(List.of(), PluginScanner.scan(jar));
+    }
+
+    @Test
+    void skipsClassFilesThatCannotBeParsed() throws IOException {
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("broken/Broken.class", new byte[] {(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE});
+        entries.put(TestJars.entryName(Standalone.class), TestJars.bytecode(Standalone.class));
+        final URI jar = TestJars.jar(directory.resolve("broken.jar"), entries).toUri();
+
+        assertEquals(List.of(PREFIX + "Standalone"),
+            PluginScanner.scan(jar).stream().map(PluginDescriptor::className).toList());
+    }
+
+    @Test
+    void readsTheIndexInsteadOfTheClasses() throws IOException {
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put(PluginIndex.INDEX, "# Vipu plugin index v1\norg.example.Indexed\tIndexed\t\n".getBytes(UTF_8));
+        entries.put(TestJars.entryName(Standalone.class), TestJars.bytecode(Standalone.class));
+        final URI jar = TestJars.jar(directory.resolve("indexed.jar"), entries).toUri();
+
+        assertEquals(List.of(new PluginDescriptor(jar, "org.example.Indexed", "Indexed", List.of(), Triggers.NONE)),
+            PluginScanner.scan(jar));
+    }
+
+    @Test
+    void readsCachedScansByChecksum() throws IOException {
+        final Path cache = directory.resolve("cache");
+        final Path jar = TestJars.jarOf(directory.resolve("plugins.jar"), Standalone.class);
+        try (final PluginScanner scanner = new PluginScanner(1, cache, LOGGER)) {
+            final List<PluginDescriptor> scanned = scanner.scan(Map.of(jar.toUri(), "abc"),
+                PluginScannerTest::unexpected);
+            assertEquals(1, scanned.size());
+            assertTrue(Files.isRegularFile(cache.resolve("abc")));
+
+            TestJars.jarOf(jar, Base.class, Derived.class);
+            assertEquals(scanned, scanner.scan(Map.of(jar.toUri(), "abc"), PluginScannerTest::unexpected));
+        }
+    }
+
+    @Test
+    void scansAgainIfTheCacheIsOfAnotherVersion() throws IOException {
+        final Path cache = Files.createDirectories(directory.resolve("cache"));
+        final Path jar = TestJars.jarOf(directory.resolve("plugins.jar"), Standalone.class);
+        Files.writeString(cache.resolve("abc"), "# Vipu plugin index v1\norg.example.Stale\tStale\t\n", UTF_8);
+
+        try (final PluginScanner scanner = new PluginScanner(1, cache, LOGGER)) {
+            assertEquals(List.of(PREFIX + "Standalone"), scanner.scan(Map.of(jar.toUri(), "abc"),
+                PluginScannerTest::unexpected).stream().map(PluginDescriptor::className).toList());
+        }
+
+        assertFalse(Files.readString(cache.resolve("abc"), UTF_8).contains("org.example.Stale"));
+    }
+
+    @Test
+    void removesCachedScansOfJarsThatAreGone() throws IOException {
+        final Path cache = Files.createDirectories(directory.resolve("cache"));
+        Files.writeString(cache.resolve("gone"), "", UTF_8);
+        final Path jar = TestJars.jarOf(directory.resolve("plugins.jar"), Standalone.class);
+
+        try (final PluginScanner scanner = new PluginScanner(1, cache, LOGGER)) {
+            scanner.scan(Map.of(jar.toUri(), "abc"), PluginScannerTest::unexpected);
+        }
+
+        assertFalse(Files.exists(cache.resolve("gone")));
+        assertTrue(Files.exists(cache.resolve("abc")));
+    }
+
+    @Test
+    void reportsJarsThatCannotBeRead() {
+        final URI missing = directory.resolve("missing.jar").toUri();
+        final List<URI> failed = new ArrayList<>();
+        try (final PluginScanner scanner = new PluginScanner(1)) {
+            assertEquals(List.of(), scanner.scan(List.of(missing), (jar, e) -> failed.add(jar)));
+        }
+
+        assertEquals(List.of(missing), failed);
+    }
+
+    private static void unexpected(final URI jar, final Exception e) {
+        throw new AssertionError("Failed to scan " + jar, e);
+    }
+
+    @Name("Standalone Plugin")
+    @Libraries("org.example:lib:1.0")
+    static final class Standalone implements VipuPlugin {
+    }
+
+    static class Base implements VipuPlugin {
+    }
+
+    static final class Derived extends Base {
+    }
+
+    interface Api extends VipuPlugin {
+    }
+
+    @ActivateOn(commands = "via", events = EventObject.class)
+    static final class ViaApi implements Api {
+    }
+
+    static final class Unrelated {
+    }
+}